@@ -0,0 +1,46 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Provides files for benchmarks.
+ * 
+ * @author Joel Håkansson
+ */
+final class BenchmarkFiles {
+
+	private BenchmarkFiles() {}
+
+	/**
+	 * Creates a file with the specified size. The contents are random, but
+	 * the same for every call with the same size.
+	 * @param file the file
+	 * @param size the size, in bytes
+	 * @return returns the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Path createFile(Path file, int size) throws IOException {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return Files.write(file, data);
+	}
+
+	/**
+	 * Creates files in the specified folder.
+	 * @param folder the folder
+	 * @param count the number of files
+	 * @param size the size of each file, in bytes
+	 * @return returns the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Path createFiles(Path folder, int count, int size) throws IOException {
+		Files.createDirectories(folder);
+		for (int i=0; i<count; i++) {
+			createFile(folder.resolve("file-" + i + ".tmp"), size);
+		}
+		return folder;
+	}
+}
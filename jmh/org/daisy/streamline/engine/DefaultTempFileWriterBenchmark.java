@@ -0,0 +1,70 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link DefaultTempFileWriter#writeTempFolder(Path, String)}
+ * with and without hard links and archiving.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefaultTempFileWriterBenchmark {
+	@Param({"1", "100"})
+	private int fileCount;
+	@Param({"1024", "1048576"})
+	private int fileSize;
+	@Param({"false", "true"})
+	private boolean hardLinks;
+	@Param({"false", "true"})
+	private boolean archive;
+	private Path source;
+	private Path target;
+	private DefaultTempFileWriter writer;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		source = BenchmarkFiles.createFiles(PathTools.createTempFolder("bench-"), fileCount, fileSize);
+		target = PathTools.createTempFolder("bench-");
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+		writer = new DefaultTempFileWriter.Builder()
+				.tempFilesFolder(target.toFile())
+				.hardLinks(hardLinks)
+				.archive(archive)
+				.build();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() {
+		writer.deleteTempFiles();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws IOException {
+		PathTools.deleteRecursive(source);
+		PathTools.deleteRecursive(target);
+	}
+
+	@Benchmark
+	public void writeTempFolder() throws IOException {
+		writer.writeTempFolder(source, "step");
+	}
+}
@@ -0,0 +1,54 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link PathTools#deleteRecursive(Path)}. The folder is recreated
+ * before each invocation, which is excluded from the measurement.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathToolsBenchmark {
+	@Param({"1", "100", "1000"})
+	private int fileCount;
+	@Param({"1024"})
+	private int fileSize;
+	private Path parent;
+	private Path folder;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		parent = PathTools.createTempFolder("bench-");
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() throws IOException {
+		folder = BenchmarkFiles.createFiles(parent.resolve("folder"), fileCount, fileSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws IOException {
+		PathTools.deleteRecursive(parent);
+	}
+
+	@Benchmark
+	public void deleteRecursive() throws IOException {
+		PathTools.deleteRecursive(folder);
+	}
+}
@@ -0,0 +1,117 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.daisy.streamline.api.tasks.ReadOnlyTask;
+import org.daisy.streamline.api.tasks.ReadWriteTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the overhead that the engine adds per step, by running a list
+ * of tasks that do as little as possible. A read/write task copies its input
+ * to the output, since an empty output is not accepted. A read-only task does
+ * nothing.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskRunnerBenchmark {
+	// Keep a reference, otherwise the setting can be lost
+	private static final Logger ENGINE_LOGGER = Logger.getLogger("org.daisy.streamline.engine");
+	@Param({"1", "10", "100"})
+	private int steps;
+	@Param({"1024", "1048576"})
+	private int fileSize;
+	@Param({"READ_WRITE", "READ_ONLY"})
+	private InternalTask.Type type;
+	private Path folder;
+	private AnnotatedFile input;
+	private File output;
+	private List<InternalTask> tasks;
+	private TaskRunner runner;
+
+	@Setup(org.openjdk.jmh.annotations.Level.Trial)
+	public void setupTrial() throws IOException {
+		// The runner logs every step, which would otherwise dominate the result
+		ENGINE_LOGGER.setLevel(Level.WARNING);
+		folder = PathTools.createTempFolder("bench-");
+		input = DefaultAnnotatedFile.with(BenchmarkFiles.createFile(folder.resolve("input.tmp"), fileSize)).build();
+		output = folder.resolve("output.tmp").toFile();
+		tasks = new ArrayList<>();
+		for (int i=0; i<steps; i++) {
+			tasks.add(type==InternalTask.Type.READ_ONLY?new NoOpReadTask():new CopyTask());
+		}
+		runner = TaskRunner.withName("Benchmark").build();
+	}
+
+	@TearDown(org.openjdk.jmh.annotations.Level.Trial)
+	public void tearDownTrial() throws IOException {
+		PathTools.deleteRecursive(folder);
+	}
+
+	@Benchmark
+	public List<RunnerResult> runTasks() throws IOException, TaskSystemException {
+		return runner.runTasks(input, output, tasks);
+	}
+
+	private static class CopyTask extends ReadWriteTask {
+		CopyTask() {
+			super("Copy");
+		}
+
+		@Override
+		public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+			try {
+				PathTools.copy(input.getPath(), output.toPath());
+			} catch (IOException e) {
+				throw new InternalTaskException(e);
+			}
+			return DefaultAnnotatedFile.with(output).build();
+		}
+
+		@Override
+		@Deprecated
+		public void execute(File input, File output) throws InternalTaskException {
+			execute(DefaultAnnotatedFile.with(input).build(), output);
+		}
+	}
+
+	private static class NoOpReadTask extends ReadOnlyTask {
+		NoOpReadTask() {
+			super("No-op");
+		}
+
+		@Override
+		public void execute(AnnotatedFile input) throws InternalTaskException {
+			// does nothing
+		}
+
+		@Override
+		@Deprecated
+		public void execute(File input) throws InternalTaskException {
+			// does nothing
+		}
+	}
+}
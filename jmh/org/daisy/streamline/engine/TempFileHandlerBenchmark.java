@@ -0,0 +1,73 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the overhead of {@link TempFileHandler} per step, in other
+ * words writing the output and resetting, as well as the cost of
+ * creating and closing a handler.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TempFileHandlerBenchmark {
+	@Param({"1024", "1048576"})
+	private int fileSize;
+	private Path folder;
+	private Path source;
+	private File output;
+	private TempFileHandler handler;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		folder = PathTools.createTempFolder("bench-");
+		source = BenchmarkFiles.createFile(folder.resolve("input.tmp"), fileSize);
+		output = folder.resolve("output.tmp").toFile();
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() throws IOException {
+		handler = new TempFileHandler(source.toFile(), output);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws IOException {
+		handler.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws IOException {
+		PathTools.deleteRecursive(folder);
+	}
+
+	@Benchmark
+	public void reset() throws IOException {
+		PathTools.copy(source, handler.getOutput().toPath());
+		handler.reset();
+	}
+
+	@Benchmark
+	public void close() throws IOException {
+		try (TempFileHandler h = new TempFileHandler(source.toFile(), output)) {
+			PathTools.copy(source, h.getOutput().toPath());
+		}
+		Files.delete(output.toPath());
+	}
+}
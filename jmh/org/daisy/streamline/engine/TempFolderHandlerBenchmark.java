@@ -0,0 +1,61 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the overhead of {@link TempFolderHandler} per step, in other
+ * words writing the output folder and resetting.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TempFolderHandlerBenchmark {
+	@Param({"1", "100"})
+	private int fileCount;
+	@Param({"1024", "1048576"})
+	private int fileSize;
+	private Path source;
+	private TempFolderHandler handler;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		source = BenchmarkFiles.createFiles(PathTools.createTempFolder("bench-"), fileCount, fileSize);
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() throws IOException {
+		handler = new TempFolderHandler(f->Optional.empty());
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws IOException {
+		handler.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws IOException {
+		PathTools.deleteRecursive(source);
+	}
+
+	@Benchmark
+	public void reset() throws IOException {
+		PathTools.copyTree(source, handler.getOutput());
+		handler.reset();
+	}
+}
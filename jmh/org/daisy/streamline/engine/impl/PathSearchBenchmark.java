@@ -0,0 +1,99 @@
+package org.daisy.streamline.engine.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link DefaultTaskSystem#getPathSpecifications(String, String, Map)}
+ * on synthetic graphs. In a chain, each format converts to the next two formats.
+ * In a random graph, each format converts to the next format and to a number of
+ * randomly selected formats.
+ * 
+ * @author Joel Håkansson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathSearchBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	private int formats;
+	@Param({"chain", "random"})
+	private String shape;
+	@Param({"4"})
+	private int degree;
+	private Map<String, List<TaskGroupInformation>> inputs;
+	private FormatGraph graph;
+	private String output;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		Random rnd = new Random(formats);
+		inputs = new HashMap<>();
+		for (int i=0; i<formats; i++) {
+			String in = "F" + i;
+			List<TaskGroupInformation> specs = new ArrayList<>();
+			specs.add(TaskGroupInformation.newConvertBuilder(in, "F" + (i+1)).build());
+			if ("chain".equals(shape)) {
+				specs.add(TaskGroupInformation.newConvertBuilder(in, "F" + (i+2)).build());
+			} else {
+				for (int j=1; j<degree; j++) {
+					int t = rnd.nextInt(formats);
+					if (t!=i) {
+						specs.add(TaskGroupInformation.newConvertBuilder(in, "F" + t).build());
+					}
+				}
+			}
+			specs.add(TaskGroupInformation.newEnhanceBuilder(in).build());
+			inputs.put(in, specs);
+		}
+		graph = FormatGraph.of(inputs.values().stream().flatMap(v->v.stream()).collect(Collectors.toList()));
+		output = "F" + formats;
+	}
+
+	/**
+	 * Includes building the graph, as when a task system is compiled.
+	 * @return the path
+	 * @throws TaskSystemException if there is no path
+	 */
+	@Benchmark
+	public List<TaskGroupInformation> getPathSpecifications() throws TaskSystemException {
+		return DefaultTaskSystem.getPathSpecifications("F0", output, inputs);
+	}
+
+	/**
+	 * Excludes building the graph.
+	 * @return the path
+	 * @throws TaskSystemException if there is no path
+	 */
+	@Benchmark
+	public List<TaskGroupInformation> findPath() throws TaskSystemException {
+		return DefaultTaskSystem.getPathSpecifications("F0", output, graph);
+	}
+
+	/**
+	 * Builds a graph and uses its reachability index, as when the task system
+	 * factory answers its first query for a locale.
+	 * @return true if there is a path
+	 */
+	@Benchmark
+	public boolean hasPath() {
+		return FormatGraph.of(graph.getConverters()).hasPath("F0", output);
+	}
+}
@@ -0,0 +1,143 @@
+package org.daisy.streamline.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Provides Java Flight Recorder events for the engine. This implementation
+ * is used on Java 11 and later. Events are only created when they are enabled
+ * in a recording.
+ * 
+ * @author Joel Håkansson
+ */
+final class FlightRecorder {
+
+	private FlightRecorder() {}
+
+	@Name("org.daisy.streamline.engine.Task")
+	@Label("Task")
+	@Category({"Streamline", "Engine"})
+	static final class TaskEvent extends Event implements FlightEvent {
+		@Label("Name")
+		String name;
+		@Label("Type")
+		String type;
+
+		@Override
+		public void finish() {
+			commit();
+		}
+	}
+
+	@Name("org.daisy.streamline.engine.Expansion")
+	@Label("Task Expansion")
+	@Category({"Streamline", "Engine"})
+	static final class ExpansionEvent extends Event implements FlightEvent {
+		@Label("Name")
+		String name;
+
+		@Override
+		public void finish() {
+			commit();
+		}
+	}
+
+	@Name("org.daisy.streamline.engine.TempSpace")
+	@Label("Temp Space Operation")
+	@Category({"Streamline", "Engine"})
+	static final class TempSpaceEvent extends Event implements FlightEvent {
+		@Label("Handler")
+		Class<?> handler;
+		@Label("Operation")
+		String operation;
+
+		@Override
+		public void finish() {
+			commit();
+		}
+	}
+
+	@Name("org.daisy.streamline.engine.Snapshot")
+	@Label("Snapshot Write")
+	@Category({"Streamline", "Engine"})
+	static final class SnapshotEvent extends Event implements FlightEvent {
+		@Label("Identifier")
+		String identifier;
+		@Label("Folder")
+		boolean folder;
+
+		@Override
+		public void finish() {
+			commit();
+		}
+	}
+
+	/**
+	 * Begins an event for the execution of a task.
+	 * @param name the task name
+	 * @param type the task type
+	 * @return returns the event
+	 */
+	static FlightEvent beginTask(String name, String type) {
+		TaskEvent ret = new TaskEvent();
+		if (!ret.isEnabled()) {
+			return FlightEvent.NONE;
+		}
+		ret.name = name;
+		ret.type = type;
+		ret.begin();
+		return ret;
+	}
+
+	/**
+	 * Begins an event for the resolution of an expanding task.
+	 * @param name the task name
+	 * @return returns the event
+	 */
+	static FlightEvent beginExpansion(String name) {
+		ExpansionEvent ret = new ExpansionEvent();
+		if (!ret.isEnabled()) {
+			return FlightEvent.NONE;
+		}
+		ret.name = name;
+		ret.begin();
+		return ret;
+	}
+
+	/**
+	 * Begins an event for an operation on the temporary files of a task runner,
+	 * such as a reset or close.
+	 * @param handler the handler class
+	 * @param operation the operation
+	 * @return returns the event
+	 */
+	static FlightEvent beginTempSpace(Class<?> handler, String operation) {
+		TempSpaceEvent ret = new TempSpaceEvent();
+		if (!ret.isEnabled()) {
+			return FlightEvent.NONE;
+		}
+		ret.handler = handler;
+		ret.operation = operation;
+		ret.begin();
+		return ret;
+	}
+
+	/**
+	 * Begins an event for writing a snapshot of a temporary file or folder.
+	 * @param identifier the snapshot identifier
+	 * @param folder true if the snapshot is a folder, false if it is a file
+	 * @return returns the event
+	 */
+	static FlightEvent beginSnapshot(String identifier, boolean folder) {
+		SnapshotEvent ret = new SnapshotEvent();
+		if (!ret.isEnabled()) {
+			return FlightEvent.NONE;
+		}
+		ret.identifier = identifier;
+		ret.folder = folder;
+		ret.begin();
+		return ret;
+	}
+}
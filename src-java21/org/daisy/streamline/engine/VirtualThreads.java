@@ -0,0 +1,33 @@
+package org.daisy.streamline.engine;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides access to virtual threads. This implementation is used on
+ * Java 21 and later.
+ * 
+ * @author Joel Håkansson
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {}
+
+	/**
+	 * Returns true if virtual threads are supported.
+	 * @return true if virtual threads are supported, false otherwise
+	 */
+	static boolean isSupported() {
+		return true;
+	}
+
+	/**
+	 * Creates a new executor that starts a new virtual thread for each task.
+	 * @param name the thread name prefix
+	 * @return returns a new executor, or an empty optional if virtual threads are not supported
+	 */
+	static Optional<ExecutorService> newThreadPerTaskExecutor(String name) {
+		return Optional.of(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()));
+	}
+}
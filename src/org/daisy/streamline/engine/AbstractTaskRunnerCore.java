@@ -2,8 +2,15 @@ package org.daisy.streamline.engine;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
 
 import org.daisy.streamline.api.media.AnnotatedFile;
@@ -16,9 +23,145 @@ import org.daisy.streamline.api.tasks.ReadWriteTask;
 abstract class AbstractTaskRunnerCore implements Closeable {
 	private static final Logger logger = Logger.getLogger(AbstractTaskRunnerCore.class.getCanonicalName());
 	protected final TempFileWriter tfw;
+	private final List<CompletableFuture<?>> readOnlyTasks;
+	private Executor readOnlyExecutor;
+	private BooleanSupplier cancelled;
+	private TaskResultCache resultCache;
+	private TaskHistory history;
+	private long historyBytes;
+	// The size of the current state, if known
+	private TaskMeter.Size currentSize;
+	private boolean measureSizes;
+	private ExecutionTrace trace;
+	// The innermost span of the calling thread
+	private ExecutionTrace.Span currentSpan;
+	
+	/**
+	 * Provides a read-only task execution, bound to the state
+	 * at the time when it was prepared.
+	 */
+	@FunctionalInterface
+	interface ReadOnlyExecution {
+		void execute() throws InternalTaskException;
+	}
 	
 	protected AbstractTaskRunnerCore(TempFileWriter tfw) {
 		this.tfw = tfw;
+		this.readOnlyTasks = new ArrayList<>();
+		this.readOnlyExecutor = null;
+		this.cancelled = ()->false;
+		this.resultCache = null;
+		this.history = null;
+		this.historyBytes = 0;
+		this.currentSize = null;
+		this.measureSizes = false;
+		this.trace = null;
+		this.currentSpan = null;
+	}
+	
+	/**
+	 * Sets a function that is checked before each task is started. If it returns true,
+	 * the task is not started and a {@link CancellationException} is thrown instead.
+	 * @param value the function
+	 */
+	void setCancellationCheck(BooleanSupplier value) {
+		this.cancelled = Objects.requireNonNull(value);
+	}
+	
+	/**
+	 * Sets an executor for running read-only tasks in the background. A read-only task
+	 * is executed on the state at the time it was submitted. That state is kept unchanged
+	 * until the task has completed, since outstanding read-only tasks are joined before
+	 * the temporary space holding it is reused. Failures are reported by {@link #join()}.
+	 * @param value the executor, or null to run read-only tasks on the calling thread
+	 */
+	void setReadOnlyExecutor(Executor value) {
+		this.readOnlyExecutor = value;
+	}
+	
+	/**
+	 * Sets a cache for the results of read/write tasks. If a read/write task is about
+	 * to be executed on an input that it has processed before, the stored result is
+	 * used instead of executing the task.
+	 * @param value the cache, or null to always execute read/write tasks
+	 */
+	void setResultCache(TaskResultCache value) {
+		this.resultCache = value;
+	}
+	
+	/**
+	 * Sets a history where the execution times of tasks are recorded, together
+	 * with the size of the input of the run. The size of the run input is used for
+	 * every task, rather than the size of the input of each task, since it is the
+	 * only size known before the run when the expected times are looked up.
+	 * The execution time of an expanding task includes the execution of its subtasks.
+	 * Results restored from the result cache are not recorded.
+	 * @param value the history, or null to not record execution times
+	 * @param inputBytes the size of the input of the run, in bytes
+	 */
+	void setTaskHistory(TaskHistory value, long inputBytes) {
+		this.history = value;
+		this.historyBytes = inputBytes;
+	}
+	
+	/**
+	 * Sets whether the size of the input and output of each task is included
+	 * in the task metrics. If false, the current state is only measured when
+	 * {@link #getCurrentSize()} is called.
+	 * @param value true to measure the sizes, false otherwise
+	 */
+	void setMeasureSizes(boolean value) {
+		this.measureSizes = value;
+	}
+	
+	/**
+	 * Sets a trace where the tasks, temp space resets and snapshot writes are recorded.
+	 * @param value the trace, or null to not trace the execution
+	 * @param parent the span that the spans of this runner are children of, or null
+	 */
+	void setExecutionTrace(ExecutionTrace value, ExecutionTrace.Span parent) {
+		this.trace = value;
+		this.currentSpan = parent;
+	}
+	
+	/**
+	 * Waits for all read-only tasks running in the background to complete.
+	 * @throws InternalTaskException if a read-only task failed
+	 */
+	void join() throws InternalTaskException {
+		List<CompletableFuture<?>> pending = new ArrayList<>(readOnlyTasks);
+		readOnlyTasks.clear();
+		Throwable ex = null;
+		for (CompletableFuture<?> f : pending) {
+			try {
+				f.join();
+			} catch (CompletionException e) {
+				if (ex==null) {
+					ex = e.getCause();
+				}
+			}
+		}
+		if (ex instanceof InternalTaskException) {
+			throw (InternalTaskException)ex;
+		} else if (ex instanceof RuntimeException) {
+			throw (RuntimeException)ex;
+		} else if (ex instanceof Error) {
+			throw (Error)ex;
+		} else if (ex!=null) {
+			throw new InternalTaskException(ex);
+		}
+	}
+	
+	/**
+	 * Waits for all read-only tasks running in the background to complete, ignoring
+	 * any failures. This should be called before the temporary space is released.
+	 */
+	protected void joinQuietly() {
+		try {
+			join();
+		} catch (InternalTaskException | RuntimeException e) {
+			logger.fine("Read-only task failed: " + e.getMessage());
+		}
 	}
 	
 	protected abstract void writeTempFile(InternalTask task, TempFileWriter tfw) throws IOException;
@@ -28,12 +171,100 @@ abstract class AbstractTaskRunnerCore implements Closeable {
 	//TODO: this is temporary
 	protected abstract AnnotatedFile getManifest();
 	
-	protected abstract void execute(ReadOnlyTask task) throws InternalTaskException;
+	/**
+	 * Prepares a read-only task for execution on the current state.
+	 * @param task the task
+	 * @return returns the execution
+	 */
+	protected abstract ReadOnlyExecution prepare(ReadOnlyTask task);
 	
 	protected abstract List<InternalTask> execute(ExpandingTask task) throws InternalTaskException;
 	
 	protected abstract void execute(ReadWriteTask task) throws InternalTaskException;
 	
+	/**
+	 * Computes a hash of the current state.
+	 * @return returns the hash
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected abstract String hashCurrent() throws IOException;
+	
+	/**
+	 * Stores a copy of the current state in the specified folder.
+	 * @param folder the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected abstract void storeCurrent(Path folder) throws IOException;
+	
+	/**
+	 * Restores a state stored with {@link #storeCurrent(Path)} in the
+	 * same way as if it had been written by a read/write task.
+	 * @param folder the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected abstract void restoreResult(Path folder) throws IOException;
+	
+	/**
+	 * Measures the size of the current state.
+	 * @return returns the size
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected abstract TaskMeter.Size measureCurrent() throws IOException;
+	
+	/**
+	 * Gets the size of the current state.
+	 * @return returns the size
+	 * @throws IOException if an I/O error occurs
+	 */
+	TaskMeter.Size getCurrentSize() throws IOException {
+		if (currentSize==null) {
+			currentSize = measureCurrent();
+		}
+		return currentSize;
+	}
+	
+	private TaskMeter.Size sizeForMetrics() throws IOException {
+		return measureSizes?getCurrentSize():TaskMeter.Size.EMPTY;
+	}
+	
+	private void executeOrRestore(ReadWriteTask task) throws InternalTaskException, IOException {
+		String taskKey = resultCache!=null?resultCache.taskKey(task):null;
+		if (taskKey==null) {
+			executeAndRecord(task);
+			return;
+		}
+		String key = resultCache.key(taskKey, hashCurrent());
+		if (resultCache.restore(key, this::restoreResult)) {
+			logger.info("Restored result of " + task.getName() + " from cache");
+		} else {
+			executeAndRecord(task);
+			resultCache.store(key, this::storeCurrent);
+		}
+	}
+	
+	private void executeAndRecord(ReadWriteTask task) throws InternalTaskException {
+		long start = System.nanoTime();
+		execute(task);
+		record(task, start);
+	}
+	
+	private void executeAndRecord(InternalTask task, ReadOnlyExecution e) throws InternalTaskException {
+		FlightEvent event = FlightRecorder.beginTask(task.getName(), task.getType().name());
+		try {
+			long start = System.nanoTime();
+			e.execute();
+			record(task, start);
+		} finally {
+			event.finish();
+		}
+	}
+	
+	private void record(InternalTask task, long start) {
+		if (history!=null) {
+			history.record(task.getName(), historyBytes, System.nanoTime()-start);
+		}
+	}
+	
 	/**
 	 * Runs a single tasks or task bundle (if the task is expanding) and returns the
 	 * results. If a temporary file handler has been assigned, copies of the intermediary
@@ -43,8 +274,23 @@ abstract class AbstractTaskRunnerCore implements Closeable {
 	 * @return returns a list of runner results
 	 * @throws InternalTaskException if there is a problem with a task
 	 * @throws IOException if an I/O error occurs
+	 * @throws CancellationException if the run has been cancelled
 	 */
 	public List<RunnerResult> runTask(InternalTask task) throws InternalTaskException, IOException {
+		if (cancelled.getAsBoolean()) {
+			throw new CancellationException("Cancelled before " + task.getName());
+		}
+		ExecutionTrace.Span outer = currentSpan;
+		currentSpan = ExecutionTrace.begin(trace, task.getName(), "task", outer).arg("type", task.getType().name());
+		try {
+			return runTaskInSpan(task);
+		} finally {
+			currentSpan.end();
+			currentSpan = outer;
+		}
+	}
+	
+	private List<RunnerResult> runTaskInSpan(InternalTask task) throws InternalTaskException, IOException {
 		List<RunnerResult> ret = new ArrayList<>();
 		//TODO: what is the input file used for in the runner result? It can't be used for much, because the file name is reused...
 		RunnerResult.Builder r = new RunnerResult.Builder(getManifest(), task);
@@ -52,28 +298,82 @@ abstract class AbstractTaskRunnerCore implements Closeable {
 			case EXPANDING:
 			{
 				logger.info("Expanding " + task.getName());
-				List<InternalTask> exp = execute(task.asExpandingTask());
-				ret.add(r.success(true).build());
+				TaskMeter.Size input = sizeForMetrics();
+				TaskMeter meter = TaskMeter.start();
+				List<InternalTask> exp;
+				FlightEvent event = FlightRecorder.beginExpansion(task.getName());
+				try {
+					exp = execute(task.asExpandingTask());
+				} finally {
+					event.finish();
+				}
+				meter.stop();
+				ret.add(r.success(true).metrics(meter.toMetrics(input, TaskMeter.Size.EMPTY)).build());
 				for (InternalTask t : exp) {
 					ret.addAll(runTask(t));
 				}
+				record(task, meter.getStart());
 				break;
 			}
 			case READ_WRITE:
 			{
 				logger.info("Running (r/w) " + task.getName());
-				execute(task.asReadWriteTask());
-				ret.add(r.success(true).build());
+				TaskMeter.Size input = sizeForMetrics();
+				TaskMeter meter = TaskMeter.start();
+				FlightEvent event = FlightRecorder.beginTask(task.getName(), task.getType().name());
+				try {
+					executeOrRestore(task.asReadWriteTask());
+				} finally {
+					event.finish();
+				}
+				meter.stop();
+				// the new state is measured when needed
+				currentSize = null;
+				ret.add(r.success(true).metrics(meter.toMetrics(input, sizeForMetrics())).build());
 				if (tfw!=null) {
-					writeTempFile(task, tfw);
+					ExecutionTrace.Span snapshot = ExecutionTrace.begin(trace, task.getName(), "snapshot", currentSpan);
+					try {
+						writeTempFile(task, tfw);
+					} finally {
+						snapshot.end();
+					}
+				}
+				join();
+				ExecutionTrace.Span reset = ExecutionTrace.begin(trace, "Reset", "temp", currentSpan);
+				try {
+					reset();
+				} finally {
+					reset.end();
 				}
-				reset();
 				break;
 			}
 			case READ_ONLY:
 			{
-				logger.info("Running (r) " + task.getName());
-				execute(task.asReadOnlyTask());
+				ReadOnlyExecution e = prepare(task.asReadOnlyTask());
+				TaskMeter.Size input = sizeForMetrics();
+				if (readOnlyExecutor!=null) {
+					logger.info("Starting (r) " + task.getName());
+					ExecutionTrace.Span parent = currentSpan;
+					CompletableFuture<TaskMetrics> f = CompletableFuture.supplyAsync(()->{
+						ExecutionTrace.Span span = ExecutionTrace.begin(trace, task.getName(), "task", parent).arg("type", "background");
+						try {
+							TaskMeter meter = TaskMeter.start();
+							executeAndRecord(task, e);
+							return meter.stop().toMetrics(input, TaskMeter.Size.EMPTY);
+						} catch (InternalTaskException ex) {
+							throw new CompletionException(ex);
+						} finally {
+							span.end();
+						}
+					}, readOnlyExecutor);
+					readOnlyTasks.add(f);
+					r.metrics(f);
+				} else {
+					logger.info("Running (r) " + task.getName());
+					TaskMeter meter = TaskMeter.start();
+					executeAndRecord(task, e);
+					r.metrics(meter.stop().toMetrics(input, TaskMeter.Size.EMPTY));
+				}
 				ret.add(r.success(true).build());
 				break;
 			}
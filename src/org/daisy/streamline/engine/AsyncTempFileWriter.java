@@ -0,0 +1,303 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a {@link TempFileWriter} that writes files in the background. When a file
+ * or folder is submitted, a snapshot is created using hard links (see
+ * {@link PathTools#linkOrCopy(Path, Path)}), which is cheap compared to a copy.
+ * The snapshot is then passed to another temp file writer by a background thread.
+ * 
+ * The number of snapshots waiting to be written is bounded. What happens when
+ * the limit is reached is determined by the {@link OverflowPolicy}.
+ * 
+ * Note that errors that occur in the background are logged rather than thrown.
+ * 
+ * @author Joel Håkansson
+ */
+public final class AsyncTempFileWriter implements TempFileWriter {
+	private static final Logger logger = Logger.getLogger(AsyncTempFileWriter.class.getCanonicalName());
+	private final TempFileWriter writer;
+	private final OverflowPolicy policy;
+	private final int sampleRate;
+	private final BlockingQueue<Runnable> queue;
+	private final Thread worker;
+	private final Object lock = new Object();
+	private final AtomicLong written;
+	private final AtomicLong dropped;
+	private final AtomicLong failed;
+	private long overflows;
+	private int pending;
+	private boolean closed;
+
+	/**
+	 * Defines what to do when a snapshot is submitted and the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Waits until there is room in the queue.
+		 */
+		BLOCK,
+		/**
+		 * Drops the snapshot.
+		 */
+		DROP,
+		/**
+		 * Waits until there is room in the queue for one in n snapshots
+		 * and drops the others, where n is the sample rate.
+		 */
+		SAMPLE
+	}
+
+	/**
+	 * Provides a builder for asynchronous temp file writers.
+	 */
+	public static class Builder {
+		private final TempFileWriter writer;
+		private OverflowPolicy policy = OverflowPolicy.BLOCK;
+		private int capacity = 16;
+		private int sampleRate = 10;
+
+		/**
+		 * Creates a new builder.
+		 * @param writer the temp file writer that writes the snapshots
+		 */
+		public Builder(TempFileWriter writer) {
+			this.writer = Objects.requireNonNull(writer);
+		}
+
+		/**
+		 * Sets the maximum number of snapshots waiting to be written.
+		 * @param value the capacity
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder capacity(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.capacity = value;
+			return this;
+		}
+
+		/**
+		 * Sets the overflow policy.
+		 * @param value the policy
+		 * @return returns this builder
+		 */
+		public Builder overflowPolicy(OverflowPolicy value) {
+			this.policy = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the sample rate used with {@link OverflowPolicy#SAMPLE}.
+		 * @param value the sample rate
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder sampleRate(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.sampleRate = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new asynchronous temp file writer.
+		 * @return returns a new writer
+		 */
+		public AsyncTempFileWriter build() {
+			return new AsyncTempFileWriter(this);
+		}
+	}
+
+	private AsyncTempFileWriter(Builder builder) {
+		this.writer = builder.writer;
+		this.policy = builder.policy;
+		this.sampleRate = builder.sampleRate;
+		this.queue = new ArrayBlockingQueue<>(builder.capacity);
+		this.written = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.failed = new AtomicLong();
+		this.overflows = 0;
+		this.pending = 0;
+		this.closed = false;
+		this.worker = new Thread(this::run, "temp-file-writer");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	private void run() {
+		while (true) {
+			Runnable r;
+			try {
+				r = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			r.run();
+		}
+	}
+
+	@Override
+	public void writeTempFile(File source, String identifier) throws IOException {
+		if (accept()) {
+			submit(Snapshot.ofFile(source, identifier));
+		}
+	}
+
+	@Override
+	public void writeTempFolder(Path source, String identifier) throws IOException {
+		if (!Files.isDirectory(source)) {
+			throw new IllegalArgumentException();
+		}
+		if (accept()) {
+			submit(Snapshot.ofFolder(source, identifier));
+		}
+	}
+
+	/**
+	 * Returns true if a new snapshot should be created, according to the overflow policy.
+	 * @return true if the snapshot should be created, false if it should be dropped
+	 */
+	private boolean accept() {
+		if (queue.remainingCapacity()>0 || policy==OverflowPolicy.BLOCK) {
+			return true;
+		}
+		boolean ret;
+		synchronized (lock) {
+			ret = policy==OverflowPolicy.SAMPLE && overflows % sampleRate == 0;
+			overflows++;
+		}
+		if (!ret) {
+			dropped.incrementAndGet();
+		}
+		return ret;
+	}
+
+	private void submit(Snapshot snapshot) throws IOException {
+		synchronized (lock) {
+			if (closed) {
+				snapshot.delete();
+				throw new IOException("Writer has been closed.");
+			}
+			pending++;
+		}
+		try {
+			queue.put(()->{
+				try {
+					snapshot.writeTo(writer);
+					written.incrementAndGet();
+				} catch (IOException | RuntimeException e) {
+					failed.incrementAndGet();
+					logger.log(Level.WARNING, "Failed to write snapshot: " + snapshot, e);
+				} finally {
+					snapshot.delete();
+					done();
+				}
+			});
+		} catch (InterruptedException e) {
+			snapshot.delete();
+			done();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the queue.", e);
+		}
+	}
+
+	private void done() {
+		synchronized (lock) {
+			pending--;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until all submitted snapshots have been written.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			while (pending>0) {
+				lock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Waits for all submitted snapshots to be written and
+	 * then deletes all files written by the underlying writer.
+	 */
+	@Override
+	public void deleteTempFiles() {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer.deleteTempFiles();
+	}
+
+	/**
+	 * Gets the number of snapshots that are waiting to be written or are being written.
+	 * @return the number of snapshots
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Gets the number of snapshots that have been written.
+	 * @return the number of snapshots
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * Gets the number of snapshots that were dropped because the queue was full.
+	 * @return the number of snapshots
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of snapshots that could not be written.
+	 * @return the number of snapshots
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Writes the remaining snapshots, stops the background thread
+	 * and closes the underlying writer.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+		}
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		worker.interrupt();
+		writer.close();
+	}
+
+}
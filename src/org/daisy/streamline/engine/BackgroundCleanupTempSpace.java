@@ -0,0 +1,258 @@
+package org.daisy.streamline.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a temp space that clears temporary folders in the background. When a folder
+ * is cleared, it is renamed into a trash folder next to it and replaced by a new, empty
+ * folder. The trash folder is then deleted by a background thread. This way, the next task
+ * can start right away, even if the previous generation contains many files.
+ * 
+ * The number of trash folders waiting to be deleted is bounded. When the limit is
+ * reached, folders are cleared on the calling thread.
+ * 
+ * @author Joel Håkansson
+ */
+public final class BackgroundCleanupTempSpace implements TempSpace, Closeable {
+	private static final Logger logger = Logger.getLogger(BackgroundCleanupTempSpace.class.getCanonicalName());
+	private final TempSpace space;
+	private final ThreadPoolExecutor deleter;
+	private final AtomicLong generation;
+	private final AtomicLong deleted;
+	private final AtomicLong failed;
+	private final AtomicLong synchronous;
+	private final Object lock = new Object();
+	private int pending;
+
+	/**
+	 * Provides a builder for background cleanup temp spaces.
+	 */
+	public static class Builder {
+		private TempSpace space = TempSpace.getDefault();
+		private int capacity = 16;
+
+		/**
+		 * Creates a new builder with the default values.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the temp space that creates and releases the files and folders.
+		 * @param value the temp space
+		 * @return returns this builder
+		 */
+		public Builder tempSpace(TempSpace value) {
+			this.space = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of trash folders waiting to be deleted.
+		 * @param value the capacity
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder capacity(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.capacity = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new background cleanup temp space.
+		 * @return returns a new temp space
+		 */
+		public BackgroundCleanupTempSpace build() {
+			return new BackgroundCleanupTempSpace(this);
+		}
+	}
+
+	private BackgroundCleanupTempSpace(Builder builder) {
+		this.space = builder.space;
+		this.deleter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(builder.capacity), r->{
+			Thread t = new Thread(r, "temp-space-cleanup");
+			t.setDaemon(true);
+			return t;
+		});
+		this.generation = new AtomicLong();
+		this.deleted = new AtomicLong();
+		this.failed = new AtomicLong();
+		this.synchronous = new AtomicLong();
+		this.pending = 0;
+	}
+
+	@Override
+	public File newTempFile() throws IOException {
+		return space.newTempFile();
+	}
+
+	@Override
+	public File store(File file) throws IOException {
+		return space.store(file);
+	}
+
+	@Override
+	public File prepare(File file, long expectedSize) throws IOException {
+		return space.prepare(file, expectedSize);
+	}
+
+	@Override
+	public void releaseTempFile(File file) {
+		space.releaseTempFile(file);
+	}
+
+	@Override
+	public Path newTempFolder() throws IOException {
+		return space.newTempFolder();
+	}
+
+	@Override
+	public void clearTempFolder(Path folder) throws IOException {
+		if (isEmpty(folder)) {
+			return;
+		}
+		if (deleter.isShutdown() || deleter.getQueue().remainingCapacity()==0) {
+			synchronous.incrementAndGet();
+			space.clearTempFolder(folder);
+			return;
+		}
+		Path trash = folder.resolveSibling(folder.getFileName() + ".trash-" + generation.incrementAndGet());
+		try {
+			Files.move(folder, trash, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to move folder: " + folder, e);
+			synchronous.incrementAndGet();
+			space.clearTempFolder(folder);
+			return;
+		}
+		Files.createDirectory(folder);
+		synchronized (lock) {
+			pending++;
+		}
+		try {
+			deleter.execute(()->delete(trash));
+		} catch (RejectedExecutionException e) {
+			// the queue filled up after the check above, or the deleter was shut down
+			synchronous.incrementAndGet();
+			delete(trash);
+		}
+	}
+
+	private void delete(Path trash) {
+		try {
+			PathTools.deleteRecursive(trash);
+			deleted.incrementAndGet();
+		} catch (IOException e) {
+			failed.incrementAndGet();
+			logger.log(Level.WARNING, "Unable to delete folder: " + trash, e);
+		} finally {
+			synchronized (lock) {
+				pending--;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public void releaseTempFolder(Path folder) throws IOException {
+		clearTempFolder(folder);
+		space.releaseTempFolder(folder);
+	}
+
+	private static boolean isEmpty(Path folder) throws IOException {
+		try (DirectoryStream<Path> s = Files.newDirectoryStream(folder)) {
+			return !s.iterator().hasNext();
+		}
+	}
+
+	/**
+	 * Gets the number of trash folders that are waiting to be deleted or
+	 * are being deleted.
+	 * @return the number of trash folders
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Gets the number of trash folders that have been deleted.
+	 * @return the number of deleted trash folders
+	 */
+	public long getDeletedCount() {
+		return deleted.get();
+	}
+
+	/**
+	 * Gets the number of trash folders that could not be deleted.
+	 * @return the number of failures
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of times a folder was cleared on the calling thread, because
+	 * the maximum number of trash folders was reached.
+	 * @return the number of synchronous clean ups
+	 */
+	public long getSynchronousCount() {
+		return synchronous.get();
+	}
+
+	/**
+	 * Waits until all trash folders have been deleted.
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return true if all trash folders were deleted, false if the time elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitIdle(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		synchronized (lock) {
+			while (pending>0) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining<=0) {
+					return false;
+				}
+				lock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Stops the background thread after the remaining trash folders have been deleted.
+	 * Folders cleared after this call are cleared on the calling thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		deleter.shutdown();
+		try {
+			if (!deleter.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.warning("Timed out while waiting for trash folders to be deleted.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,274 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+
+/**
+ * Provides a utility for running the same list of tasks on many inputs
+ * concurrently. Each job is run by a {@link TaskRunner} in its own temporary
+ * space, so jobs do not share any intermediary files.
+ *
+ * Note that the tasks in the list are shared between the jobs, and must
+ * therefore be safe to execute concurrently.
+ *
+ * @author Joel Håkansson
+ */
+public class BatchTaskRunner {
+	private static final Logger logger = Logger.getLogger(BatchTaskRunner.class.getCanonicalName());
+	private final TaskRunner runner;
+	private final int threads;
+	private final boolean virtualThreads;
+	private final ExecutorService executor;
+
+	/**
+	 * Provides a builder for BatchTaskRunner.
+	 */
+	public static class Builder {
+		private final TaskRunner.Builder runner;
+		private int threads = Runtime.getRuntime().availableProcessors();
+		private boolean virtualThreads = false;
+		private ExecutorService executor = null;
+
+		/**
+		 * Creates a new builder. The task runner builder is used for running each job.
+		 * The task runner must not have a temp file writer set with
+		 * {@link TaskRunner.Builder#tempFileWriter(TempFileWriter)}, since a writer
+		 * deletes the files of all runs that used it when one of the runs succeeds.
+		 * Without it, the task runner creates a temp file writer for each job.
+		 * @param runner the task runner builder
+		 */
+		public Builder(TaskRunner.Builder runner) {
+			this.runner = Objects.requireNonNull(runner);
+		}
+
+		/**
+		 * Sets the maximum number of jobs to run at the same time. This value
+		 * is ignored if an executor has been set.
+		 * @param value the number of threads
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder threads(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.threads = value;
+			return this;
+		}
+
+		/**
+		 * If true, each job is run in its own virtual thread, provided that
+		 * virtual threads are supported by the runtime (Java 21 or later). If not
+		 * supported, the number of threads set with {@link #threads(int)} is used.
+		 * This value is ignored if an executor has been set.
+		 * @param value the value
+		 * @return returns this builder
+		 * @see JobExecutors#supportsVirtualThreads()
+		 */
+		public Builder virtualThreads(boolean value) {
+			this.virtualThreads = value;
+			return this;
+		}
+
+		/**
+		 * Sets the executor to use for running jobs. The executor is not shut
+		 * down by the batch runner.
+		 * @param value the executor
+		 * @return returns this builder
+		 */
+		public Builder executor(ExecutorService value) {
+			this.executor = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new BatchTaskRunner with the current status of the builder
+		 * @return a new BatchTaskRunner
+		 * @throws IllegalArgumentException if the task runner has a temp file writer
+		 */
+		public BatchTaskRunner build() {
+			return new BatchTaskRunner(this);
+		}
+	}
+
+	@FunctionalInterface
+	private interface JobAction {
+		RunnerResults run(TaskRunner runner, List<InternalTask> tasks) throws IOException, TaskSystemException;
+	}
+
+	/**
+	 * Provides a job, in other words an input and where to write the result.
+	 */
+	public static final class Job {
+		private final String identifier;
+		private final JobAction action;
+
+		private Job(String identifier, JobAction action) {
+			this.identifier = identifier;
+			this.action = action;
+		}
+
+		/**
+		 * Creates a new job for the specified file set.
+		 * @param input the input file set
+		 * @param output the output folder
+		 * @param manifestFileName the file name of the manifest file
+		 * @return a new job
+		 */
+		public static Job with(FileSet input, BaseFolder output, String manifestFileName) {
+			Objects.requireNonNull(input);
+			Objects.requireNonNull(output);
+			Objects.requireNonNull(manifestFileName);
+			return new Job(input.getManifest().getPath().toString(),
+					(runner, tasks)->runner.runTasks(input, output, manifestFileName, tasks));
+		}
+
+		/**
+		 * Creates a new job for the specified file.
+		 * @param input the input file
+		 * @param output the output file
+		 * @return a new job
+		 */
+		public static Job with(AnnotatedFile input, File output) {
+			Objects.requireNonNull(input);
+			Objects.requireNonNull(output);
+			return new Job(input.getPath().toString(),
+					(runner, tasks)->new RunnerResults.Builder().addResults(runner.runTasks(input, output, tasks)).build());
+		}
+
+		/**
+		 * Gets a string that identifies the job.
+		 * @return the identifier
+		 */
+		public String getIdentifier() {
+			return identifier;
+		}
+	}
+
+	/**
+	 * Provides the result of a job.
+	 */
+	public static final class Result {
+		private final Job job;
+		private final Optional<RunnerResults> results;
+		private final Optional<Exception> exception;
+
+		private Result(Job job, RunnerResults results, Exception exception) {
+			this.job = job;
+			this.results = Optional.ofNullable(results);
+			this.exception = Optional.ofNullable(exception);
+		}
+
+		/**
+		 * Gets the job.
+		 * @return the job
+		 */
+		public Job getJob() {
+			return job;
+		}
+
+		/**
+		 * Gets the runner results, if the job was successful.
+		 * @return the runner results
+		 */
+		public Optional<RunnerResults> getResults() {
+			return results;
+		}
+
+		/**
+		 * Gets the exception that caused the job to fail, if any.
+		 * @return the exception
+		 */
+		public Optional<Exception> getException() {
+			return exception;
+		}
+
+		/**
+		 * Returns true if the job was successful, false otherwise.
+		 * @return returns true if the job was successful, false otherwise
+		 */
+		public boolean isSuccess() {
+			return results.isPresent();
+		}
+	}
+
+	private BatchTaskRunner(Builder builder) {
+		this.runner = builder.runner.build();
+		if (runner.hasSharedTempFileWriter()) {
+			throw new IllegalArgumentException("A temp file writer cannot be shared between jobs.");
+		}
+		this.threads = builder.threads;
+		this.virtualThreads = builder.virtualThreads;
+		this.executor = builder.executor;
+	}
+
+	/**
+	 * Runs a list of tasks on each of the jobs. The jobs are run concurrently
+	 * and this method returns when all jobs have completed. A failing job does
+	 * not affect the other jobs.
+	 * @param jobs the jobs
+	 * @param tasks the list of tasks
+	 * @return returns a list of results, in the same order as the jobs
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 */
+	public List<Result> runTasks(List<Job> jobs, List<InternalTask> tasks) throws InterruptedException {
+		List<InternalTask> t = Collections.unmodifiableList(new ArrayList<>(tasks));
+		ExecutorService exec = executor!=null?executor:newExecutor(Math.min(threads, Math.max(1, jobs.size())));
+		try {
+			List<Future<RunnerResults>> futures = new ArrayList<>();
+			for (Job job : jobs) {
+				futures.add(exec.submit(()->job.action.run(runner, t)));
+			}
+			List<Result> ret = new ArrayList<>();
+			try {
+				for (int i=0; i<jobs.size(); i++) {
+					ret.add(toResult(jobs.get(i), futures.get(i)));
+				}
+			} catch (InterruptedException e) {
+				futures.forEach(f->f.cancel(true));
+				throw e;
+			}
+			return ret;
+		} finally {
+			if (exec!=executor) {
+				exec.shutdown();
+			}
+		}
+	}
+
+	private static Result toResult(Job job, Future<RunnerResults> f) throws InterruptedException {
+		try {
+			return new Result(job, f.get(), null);
+		} catch (ExecutionException e) {
+			logger.warning("Job failed: " + job.getIdentifier());
+			Throwable cause = e.getCause();
+			return new Result(job, null, cause instanceof Exception?(Exception)cause:e);
+		} catch (CancellationException e) {
+			return new Result(job, null, e);
+		}
+	}
+
+	private ExecutorService newExecutor(int n) {
+		if (virtualThreads) {
+			return JobExecutors.newVirtualThreadPerJobExecutor("batch-task-runner", n);
+		} else {
+			return JobExecutors.newFixedJobExecutor("batch-task-runner", n);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.InternalTask;
+
+/**
+ * Provides a store for the checkpoints of a run. A checkpoint consists of the
+ * file set after a given number of tasks. Only the latest checkpoint is kept.
+ * A checkpoint is only used by a run with the same list of tasks and the same input.
+ * 
+ * Each checkpoint is written to a folder of its own. The state file is written
+ * last, so that a checkpoint that was interrupted while being written is ignored.
+ * 
+ * @author Joel Håkansson
+ */
+final class CheckpointStore {
+	private static final Logger logger = Logger.getLogger(CheckpointStore.class.getCanonicalName());
+	private static final String PREFIX = "checkpoint-";
+	private static final String TASKS_KEY = "tasks";
+	private static final String INDEX_KEY = "index";
+	private static final String INPUT_KEY = "input";
+	private final Path folder;
+	private final String identity;
+	private final String input;
+	private final int size;
+
+	/**
+	 * Provides a checkpoint.
+	 */
+	static final class Checkpoint {
+		private final int index;
+		private final FileSet fileSet;
+
+		private Checkpoint(int index, FileSet fileSet) {
+			this.index = index;
+			this.fileSet = fileSet;
+		}
+
+		/**
+		 * Gets the number of tasks that had completed when the checkpoint was created.
+		 * @return the number of tasks
+		 */
+		int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the file set. The files are located in the checkpoint store and must not
+		 * be modified.
+		 * @return the file set
+		 */
+		FileSet getFileSet() {
+			return fileSet;
+		}
+	}
+
+	/**
+	 * Creates a new checkpoint store.
+	 * @param folder the folder where the checkpoints are stored
+	 * @param tasks the list of tasks that the checkpoints refer to
+	 * @param input a hash of the input that the checkpoints refer to
+	 * @throws IOException if the folder could not be created
+	 */
+	CheckpointStore(Path folder, List<InternalTask> tasks, String input) throws IOException {
+		this.folder = Files.createDirectories(Objects.requireNonNull(folder));
+		this.identity = TaskIdentity.of(tasks);
+		this.input = Objects.requireNonNull(input);
+		this.size = tasks.size();
+	}
+
+	/**
+	 * Gets the latest checkpoint for this list of tasks and input, if any.
+	 * @return the latest checkpoint, or an empty optional if there is no valid checkpoint
+	 * @throws IOException if an I/O error occurs
+	 */
+	Optional<Checkpoint> latest() throws IOException {
+		Checkpoint ret = null;
+		for (Path dir : list()) {
+			Optional<Properties> state = FileSetState.readState(dir);
+			if (!state.isPresent()) {
+				continue;
+			}
+			Properties p = state.get();
+			int index = Integer.parseInt(p.getProperty(INDEX_KEY, "-1"));
+			if (!identity.equals(p.getProperty(TASKS_KEY)) || !input.equals(p.getProperty(INPUT_KEY)) || index<0 || index>size || (ret!=null && ret.index>=index)) {
+				continue;
+			}
+			ret = new Checkpoint(index, FileSetState.toFileSet(FileSetState.getFiles(dir), p));
+		}
+		return Optional.ofNullable(ret);
+	}
+
+	/**
+	 * Saves a checkpoint and removes the previous one. The files in the
+	 * file set's base folder are stored using hard links, if possible.
+	 * @param index the number of tasks that have completed
+	 * @param fs the file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	void save(int index, FileSet fs) throws IOException {
+		Path dir = folder.resolve(PREFIX + index);
+		if (Files.exists(dir)) {
+			PathTools.deleteRecursive(dir);
+		}
+		Properties p = new Properties();
+		p.setProperty(TASKS_KEY, identity);
+		p.setProperty(INPUT_KEY, input);
+		p.setProperty(INDEX_KEY, "" + index);
+		FileSetState.save(fs, dir, p, true);
+		for (Path d : list()) {
+			if (!d.equals(dir)) {
+				delete(d);
+			}
+		}
+	}
+
+	/**
+	 * Removes all checkpoints.
+	 */
+	void clear() {
+		try {
+			list().forEach(CheckpointStore::delete);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to remove checkpoints in " + folder, e);
+		}
+	}
+
+	private List<Path> list() throws IOException {
+		try (Stream<Path> s = Files.list(folder)) {
+			return s.filter(v->v.getFileName().toString().startsWith(PREFIX) && Files.isDirectory(v))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static void delete(Path dir) {
+		try {
+			// Remove the state first, so that a partially deleted checkpoint is never used
+			FileSetState.invalidate(dir);
+			PathTools.deleteRecursive(dir);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to remove checkpoint " + dir, e);
+		}
+	}
+}
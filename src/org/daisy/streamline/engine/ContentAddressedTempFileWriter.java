@@ -0,0 +1,284 @@
+package org.daisy.streamline.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Provides a {@link TempFileWriter} that stores the contents of each file once only.
+ * Files are stored in a blob folder by their SHA-256 hash and each call to
+ * {@link #writeTempFile(File, String)} or {@link #writeTempFolder(Path, String)}
+ * writes a small manifest that maps the relative paths of the snapshot to hashes.
+ * Files that are unchanged from one step to the next are therefore not written again.
+ * 
+ * A snapshot can be restored with {@link #restore(String, Path)}.
+ * 
+ * The store can be shared between writers, also in concurrent runs. Since the blobs
+ * are shared, {@link #deleteTempFiles()} only deletes the snapshots of the writer.
+ * Blobs that are no longer referenced are deleted with {@link #deleteUnreferencedBlobs()}.
+ * 
+ * @author Joel Håkansson
+ */
+public class ContentAddressedTempFileWriter implements TempFileWriter {
+	private static final Logger logger = Logger.getLogger(ContentAddressedTempFileWriter.class.getCanonicalName());
+	private static final String BLOBS = "blobs";
+	private static final String SNAPSHOTS = "snapshots";
+	private static final String MANIFEST_EXT = ".txt";
+	private static final String FILE = "file";
+	private static final String FOLDER = "folder";
+	private final Path blobs;
+	private final Path snapshots;
+	private final TempFileNames names;
+	private final List<String> written;
+	private final AtomicLong blobsWritten;
+	private final AtomicLong blobsReused;
+
+	/**
+	 * Provides a builder for content addressed temp file writers.
+	 */
+	public static class Builder {
+		private final Path folder;
+		private String prefix = "";
+
+		/**
+		 * Creates a new builder.
+		 * @param folder the folder where the store is located. The folder is
+		 * 			created if it does not exist and can be shared between writers.
+		 */
+		public Builder(Path folder) {
+			this.folder = Objects.requireNonNull(folder);
+		}
+
+		/**
+		 * Sets the prefix to use when naming snapshots
+		 * @param value the value
+		 * @return returns this builder
+		 */
+		public Builder prefix(String value) {
+			this.prefix = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Creates a new content addressed temp file writer.
+		 * @return returns a new writer
+		 * @throws IOException if the folder could not be created
+		 */
+		public ContentAddressedTempFileWriter build() throws IOException {
+			return new ContentAddressedTempFileWriter(this);
+		}
+	}
+
+	private ContentAddressedTempFileWriter(Builder builder) throws IOException {
+		this.blobs = Files.createDirectories(builder.folder.resolve(BLOBS));
+		this.snapshots = Files.createDirectories(builder.folder.resolve(SNAPSHOTS));
+		this.names = new TempFileNames(builder.prefix);
+		this.written = new ArrayList<>();
+		this.blobsWritten = new AtomicLong();
+		this.blobsReused = new AtomicLong();
+	}
+
+	@Override
+	public void writeTempFile(File source, String identifier) throws IOException {
+		String name = names.next(identifier);
+		writeManifest(name, FILE, Collections.singletonMap(source.getName(), store(source.toPath())));
+	}
+
+	@Override
+	public void writeTempFolder(Path source, String identifier) throws IOException {
+		if (!Files.isDirectory(source)) {
+			throw new IllegalArgumentException();
+		}
+		String name = names.next(identifier);
+		Map<String, String> entries = new TreeMap<>();
+		try (Stream<Path> files = Files.walk(source)) {
+			Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+			while (it.hasNext()) {
+				Path file = it.next();
+				entries.put(PathTools.toRelativeName(source.relativize(file)), store(file));
+			}
+		}
+		writeManifest(name, FOLDER, entries);
+	}
+
+	private void writeManifest(String name, String type, Map<String, String> entries) throws IOException {
+		Path tmp = Files.createTempFile(snapshots, name, ".tmp");
+		try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			w.write(type);
+			w.newLine();
+			for (Map.Entry<String, String> e : entries.entrySet()) {
+				w.write(e.getValue());
+				w.write('\t');
+				w.write(e.getKey());
+				w.newLine();
+			}
+		}
+		PathTools.move(tmp, snapshots.resolve(name + MANIFEST_EXT));
+		synchronized (written) {
+			written.add(name);
+		}
+	}
+
+	/**
+	 * Stores the file in the blob folder, unless a file with the same
+	 * contents is already stored. The file is hashed first, so that a file
+	 * that is already stored is read but not written.
+	 * @param file the file
+	 * @return returns the hash
+	 * @throws IOException if an I/O error occurs
+	 */
+	private String store(Path file) throws IOException {
+		MessageDigest md = Digests.newSha256();
+		Digests.update(md, file);
+		String hash = Digests.toHex(md.digest());
+		Path blob = toBlob(hash);
+		if (Files.exists(blob)) {
+			blobsReused.incrementAndGet();
+			return hash;
+		}
+		Files.createDirectories(blob.getParent());
+		Path tmp = Files.createTempFile(blobs, "blob", ".tmp");
+		try {
+			MessageDigest copied = Digests.newSha256();
+			try (InputStream is = new DigestInputStream(Files.newInputStream(file), copied)) {
+				Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (!hash.equals(Digests.toHex(copied.digest()))) {
+				throw new IOException("File was modified while it was stored: " + file);
+			}
+			PathTools.move(tmp, blob);
+			blobsWritten.incrementAndGet();
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return hash;
+	}
+
+	private Path toBlob(String hash) {
+		return blobs.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	/**
+	 * Gets the names of the snapshots in the store, in alphabetical order. Since snapshot
+	 * names start with the prefix, a time stamp and a running number, the snapshots of
+	 * a single writer are listed in the order they were written.
+	 * @return returns a list of snapshot names
+	 * @throws IOException if an I/O error occurs
+	 */
+	public List<String> listSnapshots() throws IOException {
+		try (Stream<Path> s = Files.list(snapshots)) {
+			return s.map(p->p.getFileName().toString())
+					.filter(v->v.endsWith(MANIFEST_EXT))
+					.map(v->v.substring(0, v.length()-MANIFEST_EXT.length()))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Restores a snapshot. If the snapshot is a folder, the files are restored
+	 * into the target folder. If the snapshot is a file, it is restored to the
+	 * target file.
+	 * @param snapshot the name of the snapshot
+	 * @param target the target
+	 * @throws IOException if an I/O error occurs, or if the snapshot does not exist
+	 */
+	public void restore(String snapshot, Path target) throws IOException {
+		List<String> lines = Files.readAllLines(snapshots.resolve(snapshot + MANIFEST_EXT), StandardCharsets.UTF_8);
+		boolean folder = FOLDER.equals(lines.get(0));
+		for (String line : lines.subList(1, lines.size())) {
+			int i = line.indexOf('\t');
+			Path blob = toBlob(line.substring(0, i));
+			if (folder) {
+				Path f = target.resolve(line.substring(i+1));
+				Files.createDirectories(f.getParent());
+				Files.copy(blob, f, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of blobs written by this writer.
+	 * @return the number of blobs
+	 */
+	public long getBlobsWritten() {
+		return blobsWritten.get();
+	}
+
+	/**
+	 * Gets the number of files that were already stored when written by this writer.
+	 * @return the number of files
+	 */
+	public long getBlobsReused() {
+		return blobsReused.get();
+	}
+
+	/**
+	 * Deletes the snapshots written by this writer. The blobs are left in the
+	 * store, since other writers may be about to reference them.
+	 * @see #deleteUnreferencedBlobs()
+	 */
+	@Override
+	public void deleteTempFiles() {
+		synchronized (written) {
+			for (String name : written) {
+				try {
+					Files.deleteIfExists(snapshots.resolve(name + MANIFEST_EXT));
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Unable to delete snapshot: " + name, e);
+				}
+			}
+			written.clear();
+		}
+	}
+
+	/**
+	 * Deletes the blobs that are not referenced by a snapshot in the store. A writer
+	 * references a blob only once it has written the snapshot, so this must not be
+	 * called while any writer is writing to the store, for example while a run that
+	 * uses it is in progress.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void deleteUnreferencedBlobs() throws IOException {
+		Set<String> referenced = new HashSet<>();
+		for (String name : listSnapshots()) {
+			List<String> lines = Files.readAllLines(snapshots.resolve(name + MANIFEST_EXT), StandardCharsets.UTF_8);
+			for (String line : lines.subList(1, lines.size())) {
+				referenced.add(line.substring(0, line.indexOf('\t')));
+			}
+		}
+		try (Stream<Path> s = Files.walk(blobs)) {
+			Iterator<Path> it = s.filter(Files::isRegularFile).iterator();
+			while (it.hasNext()) {
+				Path p = it.next();
+				if (!referenced.contains(p.getFileName().toString())) {
+					Files.deleteIfExists(p);
+				}
+			}
+		}
+	}
+
+}
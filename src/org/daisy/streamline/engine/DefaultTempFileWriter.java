@@ -1,21 +1,30 @@
 package org.daisy.streamline.engine;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
- * Provides a default implementation of {@link TempFileWriter}.
+ * Provides a default implementation of {@link TempFileWriter}. Since
+ * {@link #deleteTempFiles()} deletes every file written by the instance,
+ * an instance should not be used by runs that execute concurrently.
  * @author Joel Håkansson
  */
 public class DefaultTempFileWriter implements TempFileWriter {
@@ -34,10 +43,13 @@ public class DefaultTempFileWriter implements TempFileWriter {
 	}
 	private final Logger logger;
 	private final File tempFilesFolder;
-	private final String prefix;
+	private final TempFileNames names;
+	private final boolean hardLinks;
+	private final boolean archive;
 	private final List<File> tempFiles;
 	private final List<Path> tempFolders;
-	private int currentIndex;
+	private ZipOutputStream zip;
+	private int archiveCount;
 	
 	/**
 	 * Creates a default temp file writer builder.
@@ -45,6 +57,8 @@ public class DefaultTempFileWriter implements TempFileWriter {
 	public static class Builder {
 		private File tempFilesFolder = new File(TEMP_DIR);
 		private String prefix = "";
+		private boolean hardLinks = false;
+		private boolean archive = false;
 		/**
 		 * Creates a new empty builder.
 		 */
@@ -88,6 +102,31 @@ public class DefaultTempFileWriter implements TempFileWriter {
 			}
 			return this;
 		}
+		/**
+		 * If true, files are written as hard links to the source files, if possible.
+		 * This is much faster than copying, but is only safe if the source files are
+		 * not modified afterwards. The task runner's temporary files are replaced
+		 * rather than modified, so this can be used with {@link TaskRunner}.
+		 * @param value the value
+		 * @return returns this builder
+		 * @see PathTools#linkOrCopy(Path, Path)
+		 */
+		public Builder hardLinks(boolean value) {
+			this.hardLinks = value;
+			return this;
+		}
+		/**
+		 * If true, all files and folders are written to a single zip file in the
+		 * temp files folder, with one entry (or one entry prefix, for folders) per
+		 * call. The zip file is complete when the writer has been closed.
+		 * When this is enabled, {@link #hardLinks(boolean)} has no effect.
+		 * @param value the value
+		 * @return returns this builder
+		 */
+		public Builder archive(boolean value) {
+			this.archive = value;
+			return this;
+		}
 		/**
 		 * Creates a new default temp file writer.
 		 * @return returns a new default temp file writer
@@ -100,42 +139,62 @@ public class DefaultTempFileWriter implements TempFileWriter {
 	private DefaultTempFileWriter(Builder builder) {
 		this.logger = Logger.getLogger(this.getClass().getCanonicalName());
 		this.tempFilesFolder = builder.tempFilesFolder;
-		this.prefix = builder.prefix + "@" + Integer.toHexString((int)(System.currentTimeMillis()-1261440000000l));
+		this.names = new TempFileNames(builder.prefix);
+		this.hardLinks = builder.hardLinks;
+		this.archive = builder.archive;
 		this.tempFiles = new ArrayList<>();
 		this.tempFolders = new ArrayList<>();
-		this.currentIndex = 0;
-	}
-	
-	private synchronized String makeName(String identifier) {
-		String fileNumber = ""+(currentIndex+1);
-		currentIndex++;
-		while (fileNumber.length()<3) {
-			fileNumber = "0" + fileNumber;
-		}
-		String fileName = (prefix + "-" 
-						+ fileNumber + "-" 
-						+ truncate(identifier, 20)
-					).replaceAll("[^a-zA-Z0-9@\\-]+", "_");
-		return fileName;
+		this.zip = null;
+		this.archiveCount = 0;
 	}
 	
 	@Override
 	public void writeTempFile(File source, String identifier) throws IOException {
-		String fileName = makeName(identifier);
+		FlightEvent event = FlightRecorder.beginSnapshot(identifier, false);
+		try {
+			writeTempFileInner(source, identifier);
+		} finally {
+			event.finish();
+		}
+	}
+	
+	private void writeTempFileInner(File source, String identifier) throws IOException {
+		String fileName = names.next(identifier);
+		if (archive) {
+			synchronized (this) {
+				writeEntry(source.toPath(), fileName + ".tmp");
+			}
+			return;
+		}
 		File f = new File(tempFilesFolder, fileName + ".tmp");
 		if (logger.isLoggable(Level.FINE)) {
 			logger.fine("Writing debug file: " + f);
 		}
-		Files.copy(source.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
-		tempFiles.add(f);
+		writeFile(source.toPath(), f.toPath());
+		synchronized (this) {
+			tempFiles.add(f);
+		}
 	}
 	
 	@Override	
 	public void writeTempFolder(Path source, String identifier) throws IOException {
+		FlightEvent event = FlightRecorder.beginSnapshot(identifier, true);
+		try {
+			writeTempFolderInner(source, identifier);
+		} finally {
+			event.finish();
+		}
+	}
+	
+	private void writeTempFolderInner(Path source, String identifier) throws IOException {
 		if (!Files.isDirectory(source)) {
 			throw new IllegalArgumentException();
 		}
-		String folderName = makeName(identifier);
+		String folderName = names.next(identifier);
+		if (archive) {
+			writeArchiveFolder(source, folderName);
+			return;
+		}
 		Path target = tempFilesFolder.toPath().resolve(folderName);
 		Files.createDirectories(target);
 		if (logger.isLoggable(Level.FINE)) {
@@ -160,23 +219,75 @@ public class DefaultTempFileWriter implements TempFileWriter {
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
 					throws IOException
 			{
-				Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+				writeFile(file, target.resolve(source.relativize(file)));
 				return FileVisitResult.CONTINUE;
 			}
 		});
-		tempFolders.add(target);
+		synchronized (this) {
+			tempFolders.add(target);
+		}
+	}
+	
+	private synchronized void writeArchiveFolder(Path source, String folderName) throws IOException {
+		try (Stream<Path> files = Files.walk(source)) {
+			Iterator<Path> it = files.filter(Files::isRegularFile).sorted().iterator();
+			while (it.hasNext()) {
+				Path file = it.next();
+				writeEntry(file, folderName + "/" + PathTools.toRelativeName(source.relativize(file)));
+			}
+		}
+	}
+	
+	private void writeEntry(Path source, String name) throws IOException {
+		if (zip==null) {
+			zip = new ZipOutputStream(new BufferedOutputStream(newArchive()));
+		}
+		zip.putNextEntry(new ZipEntry(name));
+		Files.copy(source, zip);
+		zip.closeEntry();
 	}
 	
-	private String truncate(String str, int pos) {
-		if (str.length()>pos) {
-			return str.substring(0, pos);
+	/**
+	 * Creates a new archive file. Since writers in other runs may use the same
+	 * prefix, the file is created only if it does not exist. Otherwise, the next
+	 * name is tried.
+	 * @return returns an output stream to the archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	private OutputStream newArchive() throws IOException {
+		for (int i=0; i<100; i++) {
+			String fileName = names.getPrefix() + (archiveCount>0?"-" + archiveCount:"");
+			archiveCount++;
+			File f = new File(tempFilesFolder, TempFileNames.clean(fileName) + ".zip");
+			try {
+				OutputStream ret = Files.newOutputStream(f.toPath(), StandardOpenOption.CREATE_NEW);
+				if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Writing debug archive: " + f);
+				}
+				tempFiles.add(f);
+				return ret;
+			} catch (FileAlreadyExistsException e) {
+				logger.log(Level.FINE, "Archive exists: " + f, e);
+			}
+		}
+		throw new IOException("Failed to create debug archive.");
+	}
+
+	private void writeFile(Path source, Path target) throws IOException {
+		if (hardLinks) {
+			PathTools.linkOrCopy(source, target);
 		} else {
-			return str;
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 	
 	@Override
-	public void deleteTempFiles() {
+	public synchronized void deleteTempFiles() {
+		try {
+			close();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to close archive.", e);
+		}
 		for (File f : tempFiles) {
 			if (!f.delete()) {
 				f.deleteOnExit();
@@ -193,5 +304,19 @@ public class DefaultTempFileWriter implements TempFileWriter {
 		tempFolders.clear();
 	}
 	
+	/**
+	 * Completes the archive, if {@link Builder#archive(boolean)} is enabled.
+	 * Files written after this call are added to a new archive.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (zip!=null) {
+			try {
+				zip.close();
+			} finally {
+				zip = null;
+			}
+		}
+	}
 
-}
\ No newline at end of file
+}
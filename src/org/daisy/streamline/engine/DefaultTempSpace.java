@@ -0,0 +1,39 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Provides the default temp space.
+ * 
+ * @author Joel Håkansson
+ */
+final class DefaultTempSpace implements TempSpace {
+	static final DefaultTempSpace INSTANCE = new DefaultTempSpace();
+
+	private DefaultTempSpace() {}
+
+	@Override
+	public File newTempFile() throws IOException {
+		File ret = File.createTempFile("temp", null, null);
+		ret.deleteOnExit();
+		return ret;
+	}
+
+	@Override
+	public void releaseTempFile(File file) {
+		file.delete();
+	}
+
+	@Override
+	public Path newTempFolder() throws IOException {
+		return PathTools.createTempFolder();
+	}
+
+	@Override
+	public void releaseTempFolder(Path folder) throws IOException {
+		PathTools.deleteRecursive(folder);
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Provides utilities for computing content hashes.
+ * 
+ * @author Joel Håkansson
+ */
+final class Digests {
+
+	private Digests() {}
+
+	/**
+	 * Creates a new SHA-256 message digest.
+	 * @return returns a new message digest
+	 */
+	static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every implementation of the Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Converts the bytes to a lower case hexadecimal string.
+	 * @param bytes the bytes
+	 * @return returns the string
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length*2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Updates the digest with the string, followed by a separator. A null value
+	 * is distinguished from an empty string.
+	 * @param md the digest
+	 * @param value the string, may be null
+	 */
+	static void update(MessageDigest md, String value) {
+		if (value!=null) {
+			md.update(value.getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+		} else {
+			md.update((byte)1);
+		}
+	}
+
+	/**
+	 * Updates the digest with the contents of the file.
+	 * @param md the digest
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void update(MessageDigest md, Path file) throws IOException {
+		byte[] buf = new byte[8192];
+		try (InputStream is = Files.newInputStream(file)) {
+			int len;
+			while ((len = is.read(buf))>-1) {
+				md.update(buf, 0, len);
+			}
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package org.daisy.streamline.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.daisy.streamline.api.tasks.InternalTask;
+
+/**
+ * Provides a registry of metrics aggregated over the runs of one or more task runners.
+ * The registry keeps counters for runs, failures and bytes moved, gauges for active runs
+ * and temp space in use, and a latency histogram per task name. The memory used is
+ * fixed for a given number of task names, regardless of the number of runs. If the number
+ * of task names exceeds the limit, the remaining tasks are recorded as {@link #OTHER_TASKS}.
+ *
+ * The registry can be registered as an MBean using {@link #registerMBean(String)} and
+ * exported periodically using exporters added to the builder.
+ *
+ * @author Joel Håkansson
+ * @see TaskRunner.Builder#engineMetrics(EngineMetrics)
+ */
+public final class EngineMetrics implements EngineMetricsMXBean, Closeable {
+	/**
+	 * The name used for tasks recorded after the limit on the number of task names
+	 * has been reached.
+	 */
+	public static final String OTHER_TASKS = "(other)";
+	private static final Logger logger = Logger.getLogger(EngineMetrics.class.getCanonicalName());
+	private final int maxTaskNames;
+	private final List<MetricsExporter> exporters;
+	private final ScheduledExecutorService scheduler;
+	private final Map<String, LatencyHistogram> latencies;
+	private final LongAdder runs;
+	private final LongAdder failures;
+	private final LongAdder bytesRead;
+	private final LongAdder bytesWritten;
+	private final LongAdder intermediateBytes;
+	private final AtomicInteger activeRuns;
+	private ObjectName objectName;
+
+	/**
+	 * Provides a builder for engine metrics.
+	 */
+	public static class Builder {
+		private int maxTaskNames = 1000;
+		private final List<MetricsExporter> exporters = new ArrayList<>();
+		private long exportInterval = 0;
+		private TimeUnit exportUnit = TimeUnit.SECONDS;
+
+		/**
+		 * Creates a new builder with the default values.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the maximum number of task names to keep a latency histogram for.
+		 * @param value the number of task names
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder maxTaskNames(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.maxTaskNames = value;
+			return this;
+		}
+
+		/**
+		 * Adds an exporter. Exporters are called by {@link EngineMetrics#export()},
+		 * periodically if an export interval is set, and when the metrics are closed.
+		 * @param value the exporter
+		 * @return returns this builder
+		 */
+		public Builder addExporter(MetricsExporter value) {
+			exporters.add(Objects.requireNonNull(value));
+			return this;
+		}
+
+		/**
+		 * Sets the interval at which the exporters are called.
+		 * @param value the interval, or 0 to export on request only
+		 * @param unit the time unit of the interval
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder exportInterval(long value, TimeUnit unit) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.exportInterval = value;
+			this.exportUnit = Objects.requireNonNull(unit);
+			return this;
+		}
+
+		/**
+		 * Creates new engine metrics.
+		 * @return returns new engine metrics
+		 */
+		public EngineMetrics build() {
+			return new EngineMetrics(this);
+		}
+	}
+
+	private EngineMetrics(Builder builder) {
+		this.maxTaskNames = builder.maxTaskNames;
+		this.exporters = Collections.unmodifiableList(new ArrayList<>(builder.exporters));
+		this.latencies = new ConcurrentHashMap<>();
+		this.runs = new LongAdder();
+		this.failures = new LongAdder();
+		this.bytesRead = new LongAdder();
+		this.bytesWritten = new LongAdder();
+		this.intermediateBytes = new LongAdder();
+		this.activeRuns = new AtomicInteger();
+		if (builder.exportInterval>0 && !exporters.isEmpty()) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(r->{
+				Thread t = new Thread(r, "engine-metrics-export");
+				t.setDaemon(true);
+				return t;
+			});
+			scheduler.scheduleAtFixedRate(this::export, builder.exportInterval, builder.exportInterval, builder.exportUnit);
+		} else {
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Provides the tracking of a single run. A run is used by one thread only.
+	 */
+	static final class Run {
+		static final Run NONE = new Run(null);
+		private final EngineMetrics metrics;
+		private final List<RunnerResult> pending;
+		private long intermediateBytes;
+		private boolean finished;
+
+		private Run(EngineMetrics metrics) {
+			this.metrics = metrics;
+			this.pending = new ArrayList<>();
+			this.intermediateBytes = 0;
+			this.finished = false;
+			if (metrics!=null) {
+				metrics.activeRuns.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Records the results of a step. Results whose metrics are not yet
+		 * available, such as those of read-only tasks running in the background,
+		 * are recorded when the run is finished.
+		 * @param results the results
+		 */
+		void record(List<RunnerResult> results) {
+			if (metrics==null) {
+				return;
+			}
+			for (RunnerResult r : results) {
+				Optional<TaskMetrics> m = r.getMetrics();
+				if (m.isPresent()) {
+					metrics.record(r.getTask().getName(), m.get());
+					if (r.getTask().getType()==InternalTask.Type.READ_WRITE) {
+						long size = m.get().getBytesWritten();
+						metrics.intermediateBytes.add(size - intermediateBytes);
+						intermediateBytes = size;
+					}
+				} else {
+					pending.add(r);
+				}
+			}
+		}
+
+		/**
+		 * Finishes the run. Only the first call has any effect.
+		 * @param success true if the run was successful, false otherwise
+		 */
+		void finish(boolean success) {
+			if (metrics==null || finished) {
+				return;
+			}
+			finished = true;
+			for (RunnerResult r : pending) {
+				r.getMetrics().ifPresent(m->metrics.record(r.getTask().getName(), m));
+			}
+			pending.clear();
+			metrics.intermediateBytes.add(-intermediateBytes);
+			intermediateBytes = 0;
+			metrics.runs.increment();
+			if (!success) {
+				metrics.failures.increment();
+			}
+			metrics.activeRuns.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Starts tracking a new run.
+	 * @return returns the run
+	 */
+	Run startRun() {
+		return new Run(this);
+	}
+
+	private void record(String name, TaskMetrics m) {
+		latency(name).record(m.getWallTime());
+		bytesRead.add(m.getBytesRead());
+		bytesWritten.add(m.getBytesWritten());
+	}
+
+	private LatencyHistogram latency(String name) {
+		LatencyHistogram ret = latencies.get(name);
+		if (ret!=null) {
+			return ret;
+		}
+		// The limit may be exceeded slightly by concurrent runs, which is acceptable
+		String key = latencies.size()<maxTaskNames?name:OTHER_TASKS;
+		return latencies.computeIfAbsent(key, k->new LatencyHistogram());
+	}
+
+	/**
+	 * Gets the latency histogram for the specified task name.
+	 * @param name the task name
+	 * @return returns the histogram, or an empty optional if the task has not been recorded
+	 */
+	public Optional<LatencyHistogram> getLatency(String name) {
+		return Optional.ofNullable(latencies.get(name));
+	}
+
+	/**
+	 * Gets the names of the recorded tasks.
+	 * @return returns the task names
+	 */
+	public Set<String> getTaskNames() {
+		return Collections.unmodifiableSet(latencies.keySet());
+	}
+
+	@Override
+	public long getRuns() {
+		return runs.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public int getActiveRuns() {
+		return activeRuns.get();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getIntermediateBytes() {
+		return intermediateBytes.sum();
+	}
+
+	@Override
+	public Map<String, Long> getTaskCounts() {
+		return toMap(LatencyHistogram::getCount);
+	}
+
+	@Override
+	public Map<String, Double> getTaskMeanMillis() {
+		return toMillis(LatencyHistogram::getMean);
+	}
+
+	@Override
+	public Map<String, Double> getTaskP50Millis() {
+		return toMillis(v->v.getPercentile(50));
+	}
+
+	@Override
+	public Map<String, Double> getTaskP99Millis() {
+		return toMillis(v->v.getPercentile(99));
+	}
+
+	@Override
+	public Map<String, Double> getTaskMaxMillis() {
+		return toMillis(LatencyHistogram::getMax);
+	}
+
+	private Map<String, Long> toMap(ToLongFunction<LatencyHistogram> f) {
+		Map<String, Long> ret = new TreeMap<>();
+		latencies.forEach((k, v)->ret.put(k, f.applyAsLong(v)));
+		return ret;
+	}
+
+	private Map<String, Double> toMillis(ToDoubleFunction<LatencyHistogram> f) {
+		Map<String, Double> ret = new TreeMap<>();
+		latencies.forEach((k, v)->ret.put(k, f.applyAsDouble(v)/1000000d));
+		return ret;
+	}
+
+	/**
+	 * Calls the exporters. Failures are logged rather than thrown, so that
+	 * one exporter cannot prevent the others from being called.
+	 */
+	public void export() {
+		for (MetricsExporter e : exporters) {
+			try {
+				e.export(this);
+			} catch (IOException | RuntimeException ex) {
+				logger.log(Level.WARNING, "Failed to export metrics.", ex);
+			}
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, with the
+	 * object name <code>org.daisy.streamline.engine:type=EngineMetrics,name=<i>name</i></code>.
+	 * @param name the name
+	 * @return returns the object name
+	 * @throws JMException if the metrics could not be registered
+	 * @throws IllegalStateException if the metrics are already registered
+	 */
+	public synchronized ObjectName registerMBean(String name) throws JMException {
+		if (objectName!=null) {
+			throw new IllegalStateException("Already registered: " + objectName);
+		}
+		ObjectName on = new ObjectName("org.daisy.streamline.engine:type=EngineMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+		return on;
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server, if registered.
+	 * @throws JMException if the metrics could not be unregistered
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName!=null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Stops the periodic export, calls the exporters a final time and
+	 * unregisters the MBean.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (scheduler!=null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		export();
+		try {
+			unregisterMBean();
+		} catch (JMException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.daisy.streamline.engine;
+
+import java.util.Map;
+
+/**
+ * Provides the management interface of {@link EngineMetrics}. Times are
+ * in milliseconds.
+ *
+ * @author Joel Håkansson
+ */
+public interface EngineMetricsMXBean {
+
+	/**
+	 * Gets the number of completed runs, successful or not.
+	 * @return returns the number of runs
+	 */
+	public long getRuns();
+
+	/**
+	 * Gets the number of failed runs, including cancelled runs.
+	 * @return returns the number of failed runs
+	 */
+	public long getFailures();
+
+	/**
+	 * Gets the number of runs in progress.
+	 * @return returns the number of active runs
+	 */
+	public int getActiveRuns();
+
+	/**
+	 * Gets the total number of bytes read by tasks.
+	 * @return returns the number of bytes
+	 */
+	public long getBytesRead();
+
+	/**
+	 * Gets the total number of bytes written by tasks.
+	 * @return returns the number of bytes
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * Gets the total size of the current intermediary result of each active run,
+	 * that is, the size of the output of the run's most recent read/write task.
+	 * Note that this is not the amount of temporary space in use, which also
+	 * includes, for example, earlier results that are kept for debugging and the
+	 * output that the next task is writing.
+	 * @return returns the number of bytes
+	 */
+	public long getIntermediateBytes();
+
+	/**
+	 * Gets the number of executions per task name.
+	 * @return returns a map of task names and counts
+	 */
+	public Map<String, Long> getTaskCounts();
+
+	/**
+	 * Gets the mean execution time per task name.
+	 * @return returns a map of task names and times
+	 */
+	public Map<String, Double> getTaskMeanMillis();
+
+	/**
+	 * Gets an estimate of the median execution time per task name.
+	 * @return returns a map of task names and times
+	 */
+	public Map<String, Double> getTaskP50Millis();
+
+	/**
+	 * Gets an estimate of the 99th percentile of the execution time per task name.
+	 * @return returns a map of task names and times
+	 */
+	public Map<String, Double> getTaskP99Millis();
+
+	/**
+	 * Gets the maximum execution time per task name.
+	 * @return returns a map of task names and times
+	 */
+	public Map<String, Double> getTaskMaxMillis();
+}
@@ -0,0 +1,318 @@
+package org.daisy.streamline.engine;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a trace of task runner executions, written to a file. The trace contains
+ * a span for each run, task, expanded subtask, temp space reset and snapshot write.
+ * Spans are nested: the tasks of an expanding task are children of the expanding task,
+ * and so on. Each span records the thread it ran on, so that concurrent runs and
+ * read-only tasks running in the background can be told apart.
+ *
+ * The trace can be written in the Chrome Trace Event format, which can be opened in
+ * a trace viewer such as Perfetto or <code>chrome://tracing</code>, or as JSON lines
+ * with one span per line. Spans are written when they end. Times are in microseconds
+ * since the trace was created.
+ *
+ * A trace can be shared by several runs and task runners. Failures to write the trace
+ * are logged, they do not fail the run.
+ *
+ * @author Joel Håkansson
+ * @see TaskRunner.Builder#executionTrace(ExecutionTrace)
+ */
+public final class ExecutionTrace implements Closeable {
+	private static final Logger logger = Logger.getLogger(ExecutionTrace.class.getCanonicalName());
+	private final Format format;
+	private final BufferedWriter out;
+	private final long origin;
+	private final long pid;
+	private final AtomicLong ids;
+	private final Set<Long> threads;
+	private boolean first;
+	private boolean failed;
+	private boolean closed;
+
+	/**
+	 * Provides the trace formats.
+	 */
+	public enum Format {
+		/**
+		 * The Chrome Trace Event format, a JSON array of complete events.
+		 */
+		CHROME,
+		/**
+		 * JSON lines, with one JSON object per span.
+		 */
+		JSON_LINES
+	}
+
+	/**
+	 * Provides a builder for execution traces.
+	 */
+	public static class Builder {
+		private final Path file;
+		private Format format = Format.CHROME;
+
+		/**
+		 * Creates a new builder.
+		 * @param file the file to write the trace to. If the file exists, it is replaced.
+		 */
+		public Builder(Path file) {
+			this.file = Objects.requireNonNull(file);
+		}
+
+		/**
+		 * Sets the format of the trace.
+		 * @param value the format
+		 * @return returns this builder
+		 */
+		public Builder format(Format value) {
+			this.format = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Creates a new execution trace.
+		 * @return returns a new execution trace
+		 * @throws IOException if the file cannot be created
+		 */
+		public ExecutionTrace build() throws IOException {
+			return new ExecutionTrace(this);
+		}
+	}
+
+	/**
+	 * Provides a span in the trace.
+	 */
+	static final class Span {
+		static final Span NONE = new Span(null, 0, 0, null, null);
+		private final ExecutionTrace trace;
+		private final long id;
+		private final long parent;
+		private final String name;
+		private final String category;
+		private final Map<String, String> args;
+		private final long start;
+		private final Thread thread;
+		private boolean ended;
+
+		private Span(ExecutionTrace trace, long id, long parent, String name, String category) {
+			this.trace = trace;
+			this.id = id;
+			this.parent = parent;
+			this.name = name;
+			this.category = category;
+			this.args = new LinkedHashMap<>();
+			this.start = System.nanoTime();
+			this.thread = Thread.currentThread();
+			this.ended = false;
+		}
+
+		/**
+		 * Adds an argument to this span.
+		 * @param key the key
+		 * @param value the value
+		 * @return returns this span
+		 */
+		Span arg(String key, String value) {
+			if (trace!=null) {
+				args.put(key, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Ends this span and writes it to the trace. Only the first call has any effect.
+		 */
+		void end() {
+			if (trace==null || ended) {
+				return;
+			}
+			ended = true;
+			trace.write(this, System.nanoTime());
+		}
+	}
+
+	private ExecutionTrace(Builder builder) throws IOException {
+		this.format = builder.format;
+		this.out = Files.newBufferedWriter(builder.file, StandardCharsets.UTF_8);
+		this.origin = System.nanoTime();
+		this.pid = pid();
+		this.ids = new AtomicLong();
+		this.threads = new HashSet<>();
+		this.first = true;
+		this.failed = false;
+		this.closed = false;
+		if (format==Format.CHROME) {
+			out.write("[");
+		}
+	}
+
+	/**
+	 * Begins a new span on the current thread.
+	 * @param name the name
+	 * @param category the category
+	 * @param parent the parent, or null if the span has no parent
+	 * @return returns the span
+	 */
+	Span begin(String name, String category, Span parent) {
+		return new Span(this, ids.incrementAndGet(), parent!=null?parent.id:0, name, category);
+	}
+
+	/**
+	 * Begins a new span on the current thread.
+	 * @param trace the trace, or null
+	 * @param name the name
+	 * @param category the category
+	 * @param parent the parent, or null if the span has no parent
+	 * @return returns the span, or a span that does nothing if the trace is null
+	 */
+	static Span begin(ExecutionTrace trace, String name, String category, Span parent) {
+		return trace!=null?trace.begin(name, category, parent):Span.NONE;
+	}
+
+	private synchronized void write(Span s, long end) {
+		if (closed || failed) {
+			return;
+		}
+		long tid = s.thread.getId();
+		try {
+			StringBuilder sb = new StringBuilder();
+			if (format==Format.CHROME) {
+				if (threads.add(tid)) {
+					sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+						.append(",\"tid\":").append(tid)
+						.append(",\"args\":{\"name\":");
+					appendString(sb, s.thread.getName());
+					sb.append("}}");
+					appendEvent(sb.toString());
+					sb.setLength(0);
+				}
+				sb.append("{\"name\":");
+				appendString(sb, s.name);
+				sb.append(",\"cat\":");
+				appendString(sb, s.category);
+				sb.append(",\"ph\":\"X\",\"ts\":").append(micros(s.start))
+					.append(",\"dur\":").append(micros(end)-micros(s.start))
+					.append(",\"pid\":").append(pid)
+					.append(",\"tid\":").append(tid)
+					.append(",\"args\":{\"id\":").append(s.id)
+					.append(",\"parent\":").append(s.parent);
+				appendArgs(sb, s.args);
+				sb.append("}}");
+				appendEvent(sb.toString());
+			} else {
+				sb.append("{\"id\":").append(s.id)
+					.append(",\"parent\":").append(s.parent)
+					.append(",\"name\":");
+				appendString(sb, s.name);
+				sb.append(",\"category\":");
+				appendString(sb, s.category);
+				sb.append(",\"start\":").append(micros(s.start))
+					.append(",\"duration\":").append(micros(end)-micros(s.start))
+					.append(",\"thread\":").append(tid)
+					.append(",\"threadName\":");
+				appendString(sb, s.thread.getName());
+				appendArgs(sb, s.args);
+				sb.append("}");
+				out.write(sb.toString());
+				out.newLine();
+			}
+			if (s.parent==0) {
+				out.flush();
+			}
+		} catch (IOException e) {
+			failed = true;
+			logger.log(Level.WARNING, "Failed to write execution trace, tracing is disabled.", e);
+		}
+	}
+
+	private void appendEvent(String event) throws IOException {
+		if (!first) {
+			out.write(",");
+		}
+		out.newLine();
+		out.write(event);
+		first = false;
+	}
+
+	private long micros(long nanos) {
+		return (nanos - origin) / 1000;
+	}
+
+	private static void appendArgs(StringBuilder sb, Map<String, String> args) {
+		for (Map.Entry<String, String> e : args.entrySet()) {
+			sb.append(',');
+			appendString(sb, e.getKey());
+			sb.append(':');
+			appendString(sb, e.getValue());
+		}
+	}
+
+	private static void appendString(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c<0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+	private static long pid() {
+		// The runtime name is typically pid@hostname
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int i = name.indexOf('@');
+		try {
+			return Long.parseLong(i>0?name.substring(0, i):name);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Closes the trace. Spans that end after this call are not written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (format==Format.CHROME && !failed) {
+				out.newLine();
+				out.write("]");
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.media.DefaultFileSet;
+import org.daisy.streamline.api.media.FileSet;
+
+/**
+ * Provides a way to store a file set, or a single annotated file, in a folder so that
+ * it can be restored later, possibly by another virtual machine. The files are stored
+ * in a sub folder and the manifest details in a properties file. The properties
+ * file is written last, so a folder without it is incomplete.
+ * 
+ * @author Joel Håkansson
+ */
+final class FileSetState {
+	private static final String FILES = "files";
+	private static final String STATE = "state.properties";
+	private static final String MANIFEST_KEY = "manifest";
+	private static final String FORMAT_NAME_KEY = "formatName";
+	private static final String EXTENSION_KEY = "extension";
+	private static final String MEDIA_TYPE_KEY = "mediaType";
+
+	private FileSetState() {}
+
+	/**
+	 * Stores the files in the file set's base folder.
+	 * @param fs the file set
+	 * @param dir the folder to store the file set in
+	 * @param p additional properties to store
+	 * @param link true if hard links should be used, if possible, false to copy the files
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void save(FileSet fs, Path dir, Properties p, boolean link) throws IOException {
+		Path base = fs.getBaseFolder().getPath();
+		if (link) {
+			PathTools.linkOrCopyTree(base, getFiles(dir));
+		} else {
+			PathTools.copyTree(base, getFiles(dir));
+		}
+		writeState(dir, fs.getManifest(), PathTools.toRelativeName(base.relativize(fs.getManifest().getPath())), p);
+	}
+
+	/**
+	 * Stores an annotated file.
+	 * @param f the file
+	 * @param dir the folder to store the file in
+	 * @param p additional properties to store
+	 * @param link true if a hard link should be used, if possible, false to copy the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void save(AnnotatedFile f, Path dir, Properties p, boolean link) throws IOException {
+		String name = f.getPath().getFileName().toString();
+		Path target = getFiles(dir).resolve(name);
+		Files.createDirectories(target.getParent());
+		if (link) {
+			PathTools.linkOrCopy(f.getPath(), target);
+		} else {
+			PathTools.copy(f.getPath(), target);
+		}
+		writeState(dir, f, name, p);
+	}
+
+	private static void writeState(Path dir, AnnotatedFile manifest, String manifestPath, Properties p) throws IOException {
+		Properties state = new Properties();
+		state.putAll(p);
+		state.setProperty(MANIFEST_KEY, manifestPath);
+		setProperty(state, FORMAT_NAME_KEY, manifest.getFormatName());
+		setProperty(state, EXTENSION_KEY, manifest.getExtension());
+		setProperty(state, MEDIA_TYPE_KEY, manifest.getMediaType());
+		Path tmp = dir.resolve(STATE + ".tmp");
+		try (OutputStream os = Files.newOutputStream(tmp)) {
+			state.store(os, null);
+		}
+		PathTools.move(tmp, dir.resolve(STATE));
+	}
+
+	private static void setProperty(Properties p, String key, String value) {
+		if (value!=null) {
+			p.setProperty(key, value);
+		}
+	}
+
+	/**
+	 * Reads the properties of a stored file set or annotated file.
+	 * @param dir the folder
+	 * @return the properties, or an empty optional if the folder does not contain a complete state
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Optional<Properties> readState(Path dir) throws IOException {
+		Path state = dir.resolve(STATE);
+		if (!Files.isRegularFile(state)) {
+			return Optional.empty();
+		}
+		Properties p = new Properties();
+		try (InputStream is = Files.newInputStream(state)) {
+			p.load(is);
+		}
+		return Optional.of(p);
+	}
+
+	/**
+	 * Removes the properties file, which marks the state as incomplete.
+	 * @param dir the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void invalidate(Path dir) throws IOException {
+		Files.deleteIfExists(dir.resolve(STATE));
+	}
+
+	/**
+	 * Gets the folder where the files are stored.
+	 * @param dir the folder
+	 * @return the folder containing the files
+	 */
+	static Path getFiles(Path dir) {
+		return dir.resolve(FILES);
+	}
+
+	/**
+	 * Gets the path of the manifest in the specified folder.
+	 * @param base the folder containing the files
+	 * @param p the properties
+	 * @return the path to the manifest
+	 */
+	static Path getManifest(Path base, Properties p) {
+		return base.resolve(p.getProperty(MANIFEST_KEY));
+	}
+
+	/**
+	 * Creates an annotated file from the specified file and the stored details.
+	 * @param file the file
+	 * @param p the properties
+	 * @return returns a new annotated file
+	 */
+	static AnnotatedFile toAnnotatedFile(Path file, Properties p) {
+		DefaultAnnotatedFile.Builder b = DefaultAnnotatedFile.with(file);
+		Optional.ofNullable(p.getProperty(FORMAT_NAME_KEY)).ifPresent(b::formatName);
+		Optional.ofNullable(p.getProperty(EXTENSION_KEY)).ifPresent(b::extension);
+		Optional.ofNullable(p.getProperty(MEDIA_TYPE_KEY)).ifPresent(b::mediaType);
+		return b.build();
+	}
+
+	/**
+	 * Creates a file set containing all files in the specified folder.
+	 * @param base the folder containing the files, for example the files folder or a copy of it
+	 * @param p the properties
+	 * @return returns a new file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	static FileSet toFileSet(Path base, Properties p) throws IOException {
+		Path manifest = getManifest(base, p);
+		DefaultFileSet.Builder b = DefaultFileSet.with(BaseFolder.with(base), toAnnotatedFile(manifest, p));
+		try (Stream<Path> files = Files.walk(base)) {
+			Iterator<Path> it = files.filter(Files::isRegularFile).filter(v->!v.equals(manifest)).iterator();
+			while (it.hasNext()) {
+				b.add(it.next());
+			}
+		}
+		return b.build();
+	}
+}
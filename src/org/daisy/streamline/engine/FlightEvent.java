@@ -0,0 +1,18 @@
+package org.daisy.streamline.engine;
+
+/**
+ * Provides an event that spans an operation, see {@link FlightRecorder}.
+ * 
+ * @author Joel Håkansson
+ */
+interface FlightEvent {
+	/**
+	 * An event that does nothing.
+	 */
+	FlightEvent NONE = ()->{};
+
+	/**
+	 * Ends the operation and records the event.
+	 */
+	void finish();
+}
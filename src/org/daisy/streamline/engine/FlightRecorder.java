@@ -0,0 +1,54 @@
+package org.daisy.streamline.engine;
+
+/**
+ * Provides Java Flight Recorder events for the engine. This implementation
+ * is used on Java versions before 11, and does not record anything. It is
+ * replaced by another implementation in the Java 11 layer of the multi-release
+ * jar.
+ * 
+ * @author Joel Håkansson
+ */
+final class FlightRecorder {
+
+	private FlightRecorder() {}
+
+	/**
+	 * Begins an event for the execution of a task.
+	 * @param name the task name
+	 * @param type the task type
+	 * @return returns the event
+	 */
+	static FlightEvent beginTask(String name, String type) {
+		return FlightEvent.NONE;
+	}
+
+	/**
+	 * Begins an event for the resolution of an expanding task.
+	 * @param name the task name
+	 * @return returns the event
+	 */
+	static FlightEvent beginExpansion(String name) {
+		return FlightEvent.NONE;
+	}
+
+	/**
+	 * Begins an event for an operation on the temporary files of a task runner,
+	 * such as a reset or close.
+	 * @param handler the handler class
+	 * @param operation the operation
+	 * @return returns the event
+	 */
+	static FlightEvent beginTempSpace(Class<?> handler, String operation) {
+		return FlightEvent.NONE;
+	}
+
+	/**
+	 * Begins an event for writing a snapshot of a temporary file or folder.
+	 * @param identifier the snapshot identifier
+	 * @param folder true if the snapshot is a folder, false if it is a file
+	 * @return returns the event
+	 */
+	static FlightEvent beginSnapshot(String identifier, boolean folder) {
+		return FlightEvent.NONE;
+	}
+}
@@ -0,0 +1,202 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a temp space that keeps small temporary files in a memory backed
+ * folder, such as a tmpfs mount, and moves them to a disk folder when they grow
+ * past a threshold. Since tasks read and write intermediary files by path, this
+ * avoids disk round-trips between steps without changing the task API.
+ * 
+ * Since a task writes its output in full before its size is known, the output
+ * is placed in the memory folder only if the input of the task is below the
+ * threshold and the memory folder has room for it and a reserve. Otherwise,
+ * it is placed in the disk folder. This is decided again for every task, so
+ * that a small file is returned to memory after a large one.
+ * 
+ * Temporary folders are always created in the disk folder, because
+ * the files in a file set are referenced by path and cannot be relocated.
+ * 
+ * @author Joel Håkansson
+ */
+public final class HybridTempSpace implements TempSpace {
+	private static final Logger logger = Logger.getLogger(HybridTempSpace.class.getCanonicalName());
+	private final Optional<Path> memoryFolder;
+	private final Path diskFolder;
+	private final long spillThreshold;
+	private final long memoryReserve;
+
+	/**
+	 * Provides a builder for hybrid temp spaces.
+	 */
+	public static class Builder {
+		private Path memoryFolder = null;
+		private Path diskFolder = Paths.get(DefaultTempFileWriter.TEMP_DIR);
+		private long spillThreshold = 1024*1024;
+		private long memoryReserve = 64*1024*1024;
+
+		/**
+		 * Creates a new builder with the default values. By default, there is no memory
+		 * folder and <code>java.io.tmpdir</code> is used as disk folder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the memory backed folder, for example a tmpfs mount such as <code>/dev/shm</code>.
+		 * If null, all files are written to the disk folder.
+		 * @param value the folder
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if <code>value</code> is not an existing directory
+		 */
+		public Builder memoryFolder(Path value) {
+			if (value!=null && !Files.isDirectory(value)) {
+				throw new IllegalArgumentException(value + " is not an existing directory.");
+			}
+			this.memoryFolder = value;
+			return this;
+		}
+
+		/**
+		 * Sets the disk folder.
+		 * @param value the folder
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if <code>value</code> is not an existing directory
+		 */
+		public Builder diskFolder(Path value) {
+			if (!Files.isDirectory(value)) {
+				throw new IllegalArgumentException(value + " is not an existing directory.");
+			}
+			this.diskFolder = value;
+			return this;
+		}
+
+		/**
+		 * Sets the size, in bytes, above which a file is moved to the disk folder.
+		 * @param value the threshold
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder spillThreshold(long value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.spillThreshold = value;
+			return this;
+		}
+
+		/**
+		 * Sets the amount of space, in bytes, that must remain free in the memory
+		 * folder after a file of the expected size has been written to it. If there
+		 * is less space, the file is written to the disk folder. The default is 64 MiB.
+		 * @param value the reserve
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder memoryReserve(long value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.memoryReserve = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new hybrid temp space.
+		 * @return returns a new hybrid temp space
+		 */
+		public HybridTempSpace build() {
+			return new HybridTempSpace(this);
+		}
+	}
+
+	private HybridTempSpace(Builder builder) {
+		this.memoryFolder = Optional.ofNullable(builder.memoryFolder).map(Path::toAbsolutePath);
+		this.diskFolder = builder.diskFolder;
+		this.spillThreshold = builder.spillThreshold;
+		this.memoryReserve = builder.memoryReserve;
+	}
+
+	@Override
+	public File newTempFile() throws IOException {
+		return createTempFile(memoryFolder.filter(v->hasRoom(v, 0)).orElse(diskFolder));
+	}
+
+	@Override
+	public File prepare(File file, long expectedSize) throws IOException {
+		boolean memory = expectedSize<=spillThreshold && memoryFolder.map(v->hasRoom(v, expectedSize)).orElse(false);
+		if (memory==isInMemory(file)) {
+			return file;
+		}
+		File ret = createTempFile(memory?memoryFolder.get():diskFolder);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Replacing " + file + " with " + ret);
+		}
+		releaseTempFile(file);
+		return ret;
+	}
+
+	private boolean hasRoom(Path folder, long size) {
+		try {
+			return Files.getFileStore(folder).getUsableSpace() - size >= memoryReserve;
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to get usable space: " + folder, e);
+			return false;
+		}
+	}
+
+	@Override
+	public File store(File file) throws IOException {
+		if (isInMemory(file) && file.length()>spillThreshold) {
+			File ret = createTempFile(diskFolder);
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Moving " + file + " (" + file.length() + " bytes) to " + ret);
+			}
+			Files.move(file.toPath(), ret.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return ret;
+		} else {
+			return file;
+		}
+	}
+
+	/**
+	 * Returns true if the file is located in the memory folder.
+	 * @param file the file
+	 * @return true if the file is in the memory folder, false otherwise
+	 */
+	public boolean isInMemory(File file) {
+		return memoryFolder.map(v->Objects.equals(v, file.toPath().toAbsolutePath().getParent())).orElse(false);
+	}
+
+	@Override
+	public void releaseTempFile(File file) {
+		file.delete();
+	}
+
+	@Override
+	public Path newTempFolder() throws IOException {
+		return PathTools.createTempFolder(diskFolder, "");
+	}
+
+	@Override
+	public void releaseTempFolder(Path folder) throws IOException {
+		PathTools.deleteRecursive(folder);
+	}
+
+	private static File createTempFile(Path folder) throws IOException {
+		File ret = Files.createTempFile(folder, "temp", ".tmp").toFile();
+		ret.deleteOnExit();
+		return ret;
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.daisy.streamline.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Provides executors suitable for running jobs with {@link BatchTaskRunner}
+ * or {@link TaskRunner#runTasksAsync(org.daisy.streamline.api.media.FileSet, org.daisy.streamline.api.media.BaseFolder, String, java.util.List, java.util.concurrent.Executor)}.
+ * 
+ * Jobs spend most of their time waiting for file I/O. On Java 21 and later,
+ * each job can therefore be given its own virtual thread instead of a
+ * thread from a pool of a fixed size.
+ * 
+ * @author Joel Håkansson
+ */
+public final class JobExecutors {
+	private static final Logger logger = Logger.getLogger(JobExecutors.class.getCanonicalName());
+
+	private JobExecutors() {}
+
+	/**
+	 * Returns true if virtual threads are supported by the runtime.
+	 * @return true if virtual threads are supported, false otherwise
+	 */
+	public static boolean supportsVirtualThreads() {
+		return VirtualThreads.isSupported();
+	}
+
+	/**
+	 * Creates a new executor that runs each job in a new virtual thread, if
+	 * supported. Otherwise, an executor with a fixed number of threads is
+	 * returned.
+	 * @param name the thread name prefix
+	 * @param threads the number of threads to use if virtual threads are not supported
+	 * @return returns a new executor
+	 */
+	public static ExecutorService newVirtualThreadPerJobExecutor(String name, int threads) {
+		return VirtualThreads.newThreadPerTaskExecutor(name).orElseGet(()->{
+			logger.fine("Virtual threads are not supported, using " + threads + " threads.");
+			return newFixedJobExecutor(name, threads);
+		});
+	}
+
+	/**
+	 * Creates a new executor with a fixed number of threads.
+	 * @param name the thread name prefix
+	 * @param threads the number of threads
+	 * @return returns a new executor
+	 * @throws IllegalArgumentException if the number of threads is less than 1
+	 */
+	public static ExecutorService newFixedJobExecutor(String name, int threads) {
+		AtomicInteger i = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r->{
+			Thread t = new Thread(r, name + "-" + i.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+}
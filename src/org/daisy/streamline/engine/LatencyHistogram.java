@@ -0,0 +1,106 @@
+package org.daisy.streamline.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Provides a latency histogram with a fixed memory footprint. Latencies are counted
+ * in buckets where the upper bound of each bucket is twice that of the previous one,
+ * starting at one microsecond. Percentiles are therefore estimates, reported as the
+ * upper bound of the bucket that contains them. The histogram is thread safe.
+ *
+ * @author Joel Håkansson
+ */
+public final class LatencyHistogram {
+	// 2^40 microseconds is about 12 days
+	private static final int BUCKETS = 41;
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final LongAccumulator max;
+
+	/**
+	 * Creates a new empty histogram.
+	 */
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a latency.
+	 * @param nanos the latency, in nanoseconds
+	 */
+	public void record(long nanos) {
+		long v = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		max.accumulate(v);
+	}
+
+	private static int bucket(long nanos) {
+		long micros = nanos / 1000;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	/**
+	 * Gets the number of recorded latencies.
+	 * @return returns the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the mean latency.
+	 * @return returns the mean, in nanoseconds, or 0 if the histogram is empty
+	 */
+	public double getMean() {
+		long c = count.get();
+		return c==0?0:sum.get()/(double)c;
+	}
+
+	/**
+	 * Gets the maximum latency.
+	 * @return returns the maximum, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets an estimate of the specified percentile. The estimate is the
+	 * upper bound of the bucket containing the percentile, but never more
+	 * than the maximum recorded latency.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return returns the estimate, in nanoseconds, or 0 if the histogram is empty
+	 * @throws IllegalArgumentException if the percentile is out of range
+	 */
+	public long getPercentile(double percentile) {
+		if (!(percentile>=0 && percentile<=100)) {
+			throw new IllegalArgumentException("Value out of range: " + percentile);
+		}
+		long total = 0;
+		long[] c = new long[BUCKETS];
+		for (int i=0; i<BUCKETS; i++) {
+			c[i] = counts.get(i);
+			total += c[i];
+		}
+		if (total==0) {
+			return 0;
+		}
+		long target = Math.max(1, (long)Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += c[i];
+			if (seen>=target) {
+				return Math.min((1L << i) * 1000, max.get());
+			}
+		}
+		return max.get();
+	}
+}
@@ -0,0 +1,20 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+
+/**
+ * Provides an exporter of engine metrics, for example to a monitoring system.
+ *
+ * @author Joel Håkansson
+ * @see EngineMetrics.Builder#addExporter(MetricsExporter)
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+	/**
+	 * Exports the current state of the metrics.
+	 * @param metrics the metrics
+	 * @throws IOException if the metrics could not be exported
+	 */
+	public void export(EngineMetrics metrics) throws IOException;
+}
@@ -1,11 +1,17 @@
 package org.daisy.streamline.engine;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Objects;
 import java.util.Random;
@@ -40,6 +46,18 @@ public final class PathTools {
 		if (!Files.isDirectory(parent)) {
 			throw new IOException("java.io.tmpdir points to a non-existing folder: " + parent);
 		}
+		return createTempFolder(parent, prefix);
+	}
+
+	/**
+	 * Creates a temporary folder in the specified parent folder.
+	 * @param parent the parent folder
+	 * @param prefix a folder prefix
+	 * @return the temporary folder
+	 * @throws IOException if a folder could not be created
+	 * @throws NullPointerException if {@code prefix} is null
+	 */
+	public static Path createTempFolder(Path parent, String prefix) throws IOException {
 		Path ret = null;
 		int i = 0;
 		do {
@@ -88,4 +106,164 @@ public final class PathTools {
 			}
 		});
 	}
+
+	/**
+	 * Moves a file to the target, replacing it if it exists. If possible, the file is
+	 * moved atomically. Otherwise, for example if the source and target are on different
+	 * file systems, the file is first copied to a temporary file next to the target, which
+	 * is then moved into place. Either way, the target never contains a partial file.
+	 * @param source the source file
+	 * @param target the target file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			replace(source, target);
+			Files.delete(source);
+		}
+	}
+
+	/**
+	 * Replaces the target with a copy of the source. The file is first copied to a
+	 * temporary file next to the target, which is then moved into place. This way,
+	 * the target never contains a partial file. The new file gets the default
+	 * permissions of the file system, like a file created with {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}.
+	 * @param source the source file
+	 * @param target the target file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void replace(Path source, Path target) throws IOException {
+		Path tmp = createSibling(target);
+		try {
+			copy(source, tmp);
+			try {
+				Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Creates a new empty file next to the target. Unlike {@link Files#createTempFile(Path, String, String)},
+	 * which restricts the file to the owner, the file is created with the default permissions.
+	 * @param target the target file
+	 * @return returns the new file
+	 * @throws IOException if a file could not be created
+	 */
+	private static Path createSibling(Path target) throws IOException {
+		Path parent = target.toAbsolutePath().getParent();
+		String name = target.getFileName().toString();
+		for (int i=0; i<100; i++) {
+			try {
+				return Files.createFile(parent.resolve(name + "-" + Integer.toHexString(RND.nextInt()) + ".tmp"));
+			} catch (FileAlreadyExistsException e) {
+				// try another name
+			}
+		}
+		throw new IOException("Failed to create temporary file next to " + target);
+	}
+
+	/**
+	 * Copies a file to the target, replacing it if it exists. The contents
+	 * are transferred between file channels, which allows the operating
+	 * system to copy the data without passing it through user space.
+	 * @param source the source file
+	 * @param target the target file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void copy(Path source, Path target) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long pos = 0;
+			while (pos<size) {
+				pos += in.transferTo(pos, size-pos, out);
+			}
+		}
+	}
+
+	/**
+	 * Creates a hard link to the source file at the target, replacing the target if it exists.
+	 * If a link cannot be created, for example if the source and target are on different
+	 * file systems, the file is copied instead.
+	 * 
+	 * Note that the contents of a link changes if the source file is modified.
+	 * Therefore, this should only be used for files that are replaced rather than
+	 * modified, such as the temporary files of {@link TempFileHandler} and {@link TempFolderHandler}.
+	 * 
+	 * @param source the source file
+	 * @param target the target file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void linkOrCopy(Path source, Path target) throws IOException {
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			copy(source, target);
+		}
+	}
+
+	/**
+	 * Creates a copy of the source folder at the target, where each file is a hard
+	 * link to the corresponding source file, if possible. See {@link #linkOrCopy(Path, Path)}.
+	 * @param source the source folder
+	 * @param target the target folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void linkOrCopyTree(Path source, Path target) throws IOException {
+		walkTree(source, target, PathTools::linkOrCopy);
+	}
+
+	/**
+	 * Copies the source folder to the target, using {@link #copy(Path, Path)} for each file.
+	 * @param source the source folder
+	 * @param target the target folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void copyTree(Path source, Path target) throws IOException {
+		walkTree(source, target, PathTools::copy);
+	}
+
+	@FunctionalInterface
+	private interface FileAction {
+		void apply(Path source, Path target) throws IOException;
+	}
+
+	private static void walkTree(Path source, Path target, FileAction action) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				action.apply(file, target.resolve(source.relativize(file)));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Converts a relative path to a string using '/' as separator,
+	 * regardless of platform.
+	 * @param p the relative path
+	 * @return returns the string
+	 */
+	static String toRelativeName(Path p) {
+		StringBuilder sb = new StringBuilder();
+		for (Path e : p) {
+			if (sb.length()>0) {
+				sb.append('/');
+			}
+			sb.append(e.toString());
+		}
+		return sb.toString();
+	}
 }
@@ -1,5 +1,6 @@
 package org.daisy.streamline.engine;
 
+import java.time.Duration;
 import java.util.Date;
 
 /**
@@ -83,6 +84,39 @@ public class Progress {
 		return progress;
 	}
 	
+	/**
+	 * Sets the current progress of the operation, in percent, together with an
+	 * estimate of the remaining time. The estimated time of completion is the current
+	 * time plus the remaining time, rather than an extrapolation of the progress so far.
+	 * This is useful when the steps of the operation are known to take different amounts
+	 * of time.
+	 * @param val the current progress, in percent.
+	 * @param remaining the estimated remaining time
+	 * @return the current progress
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public ProgressEvent updateProgress(double val, Duration remaining) {
+		return updateProgress(val, remaining, System.currentTimeMillis());
+	}
+
+	//allows setting the current time, for testing
+	ProgressEvent updateProgress(double val, Duration remaining, long now) {
+		if (val<0 || val>1) {
+			throw new IllegalArgumentException("Value out of range [0, 1]: " + val);
+		}
+		if (remaining.isNegative()) {
+			throw new IllegalArgumentException("Value out of range: " + remaining);
+		}
+		long remainingMillis = remaining.toMillis();
+		if (val<1) {
+			// keep the step consistent with the estimate, in case the next update is extrapolated
+			step = remainingMillis / (1 - val);
+		}
+		progress = new ProgressEvent(val, new Date(now + remainingMillis));
+		tstamp = now;
+		return progress;
+	}
+
 	/**
 	 * Gets the current progress in percent.
 	 * @return returns the current progress
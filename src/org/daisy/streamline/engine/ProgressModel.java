@@ -0,0 +1,116 @@
+package org.daisy.streamline.engine;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalDouble;
+
+import org.daisy.streamline.api.tasks.InternalTask;
+
+/**
+ * Provides progress for a list of tasks, weighted by the expected execution time
+ * of each task. The expected execution times are taken from a task history, using
+ * the size of the input of the run. A task without recorded executions is expected
+ * to take the average time of the tasks with recorded executions. If none of the tasks
+ * have recorded executions, or if there is no history, all tasks weigh the same and
+ * the time of completion is extrapolated from the progress so far.
+ *
+ * When the time of completion is estimated from the history, the expected remaining
+ * time is scaled by the ratio between the actual and the expected time of the tasks
+ * completed so far. This way, the estimate adapts to the speed of the current run
+ * from the first task.
+ *
+ * @author Joel Håkansson
+ */
+final class ProgressModel {
+	private final int first;
+	private final int size;
+	// cumulative expected times, in nanoseconds
+	private final double[] cumulative;
+	private final boolean estimated;
+
+	/**
+	 * Creates a new progress model.
+	 * @param history the task history, or null
+	 * @param tasks the tasks
+	 * @param first the index of the first task to run, for example if the run is resumed
+	 * @param inputBytes the size of the input, in bytes
+	 */
+	ProgressModel(TaskHistory history, List<InternalTask> tasks, int first, long inputBytes) {
+		this.first = first;
+		this.size = tasks.size();
+		double[] expected = new double[size];
+		double total = 0;
+		int known = 0;
+		for (int i=0; i<size; i++) {
+			OptionalDouble avg = history!=null?history.getAverage(tasks.get(i).getName(), inputBytes):OptionalDouble.empty();
+			if (avg.isPresent()) {
+				expected[i] = avg.getAsDouble();
+				total += expected[i];
+				known++;
+			} else {
+				expected[i] = -1;
+			}
+		}
+		this.estimated = known>0;
+		double fallback = known>0?total/known:1;
+		this.cumulative = new double[size + 1];
+		for (int i=0; i<size; i++) {
+			// every task must advance the progress
+			cumulative[i + 1] = cumulative[i] + Math.max(1, expected[i]<0?fallback:expected[i]);
+		}
+	}
+
+	/**
+	 * Returns true if the progress is based on recorded execution times.
+	 * @return returns true if the progress is based on recorded execution times, false otherwise
+	 */
+	boolean hasEstimates() {
+		return estimated;
+	}
+
+	/**
+	 * Gets the progress after the specified number of tasks.
+	 * @param done the number of completed tasks, including tasks completed before the first task
+	 * @return returns the progress, between 0 and 1
+	 */
+	double getProgress(int done) {
+		if (!estimated) {
+			return done/(double)size;
+		}
+		return cumulative[done]/cumulative[size];
+	}
+
+	/**
+	 * Gets the expected time of the tasks that are run.
+	 * @return returns the expected time, in milliseconds
+	 */
+	long getExpectedMillis() {
+		return Math.round((cumulative[size] - cumulative[first]) / 1000000);
+	}
+
+	/**
+	 * Gets the expected remaining time after the specified number of tasks.
+	 * @param done the number of completed tasks, including tasks completed before the first task
+	 * @param elapsedMillis the time spent on the tasks completed since the first task
+	 * @return returns the remaining time, in milliseconds
+	 */
+	long getRemainingMillis(int done, long elapsedMillis) {
+		double expectedDone = cumulative[done] - cumulative[first];
+		double scale = expectedDone>0 && elapsedMillis>0?elapsedMillis * 1000000d / expectedDone:1;
+		return Math.round((cumulative[size] - cumulative[done]) * scale / 1000000);
+	}
+
+	/**
+	 * Updates the progress after the specified number of tasks.
+	 * @param progress the progress
+	 * @param done the number of completed tasks, including tasks completed before the first task
+	 * @return returns the progress event
+	 */
+	ProgressEvent update(Progress progress, int done) {
+		if (estimated) {
+			return progress.updateProgress(getProgress(done), Duration.ofMillis(getRemainingMillis(done, progress.timeSinceStart())));
+		} else {
+			return progress.updateProgress(getProgress(done));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Provides a {@link TempFileWriter} that retains snapshots of the most recent
+ * steps only. Nothing is written to the underlying writer until {@link #commit()}
+ * is called. The snapshots are created using hard links, if possible, so
+ * retaining them is cheap.
+ * 
+ * @author Joel Håkansson
+ */
+final class RingTempFileWriter implements TempFileWriter {
+	private final TempFileWriter writer;
+	private final int size;
+	private final Deque<Snapshot> snapshots;
+
+	/**
+	 * Creates a new ring temp file writer.
+	 * @param writer the writer to use when committing
+	 * @param size the maximum number of snapshots to retain
+	 * @throws IllegalArgumentException if size is less than 1
+	 */
+	RingTempFileWriter(TempFileWriter writer, int size) {
+		if (size<1) {
+			throw new IllegalArgumentException("Value out of range: " + size);
+		}
+		this.writer = Objects.requireNonNull(writer);
+		this.size = size;
+		this.snapshots = new ArrayDeque<>(size);
+	}
+
+	@Override
+	public void writeTempFile(File source, String identifier) throws IOException {
+		add(Snapshot.ofFile(source, identifier));
+	}
+
+	@Override
+	public void writeTempFolder(Path source, String identifier) throws IOException {
+		add(Snapshot.ofFolder(source, identifier));
+	}
+
+	private synchronized void add(Snapshot s) {
+		if (snapshots.size()==size) {
+			snapshots.removeFirst().delete();
+		}
+		snapshots.addLast(s);
+	}
+
+	/**
+	 * Gets the number of retained snapshots.
+	 * @return the number of snapshots
+	 */
+	synchronized int getSnapshotCount() {
+		return snapshots.size();
+	}
+
+	/**
+	 * Writes the retained snapshots to the underlying writer, oldest first, and
+	 * then releases them.
+	 * @throws IOException if an I/O error occurs
+	 */
+	synchronized void commit() throws IOException {
+		try {
+			while (!snapshots.isEmpty()) {
+				Snapshot s = snapshots.removeFirst();
+				try {
+					s.writeTo(writer);
+				} finally {
+					s.delete();
+				}
+			}
+		} finally {
+			discard();
+		}
+	}
+
+	/**
+	 * Releases the retained snapshots without writing them.
+	 */
+	synchronized void discard() {
+		while (!snapshots.isEmpty()) {
+			snapshots.removeFirst().delete();
+		}
+	}
+
+	/**
+	 * Releases the retained snapshots and deletes all files
+	 * written by the underlying writer.
+	 */
+	@Override
+	public void deleteTempFiles() {
+		discard();
+		writer.deleteTempFiles();
+	}
+
+}
@@ -1,5 +1,8 @@
 package org.daisy.streamline.engine;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.tasks.InternalTask;
 
@@ -11,6 +14,7 @@ public class RunnerResult {
 	private final AnnotatedFile input;
 	private final InternalTask task;
 	private final boolean success;
+	private final CompletableFuture<TaskMetrics> metrics;
 	
 	/**
 	 * Creates a new runner result builder.
@@ -20,6 +24,7 @@ public class RunnerResult {
 		private final AnnotatedFile input;
 		private final InternalTask task;
 		private boolean success = false;
+		private CompletableFuture<TaskMetrics> metrics = null;
 
 		/**
 		 * Creates a new builder with the specified details.
@@ -41,6 +46,27 @@ public class RunnerResult {
 			return this;
 		}
 		
+		/**
+		 * Sets the metrics.
+		 * @param value the metrics
+		 * @return returns this builder
+		 */
+		public Builder metrics(TaskMetrics value) {
+			this.metrics = CompletableFuture.completedFuture(value);
+			return this;
+		}
+		
+		/**
+		 * Sets the metrics of a task that runs in the background. The metrics
+		 * are available when the task has completed successfully.
+		 * @param value the metrics
+		 * @return returns this builder
+		 */
+		Builder metrics(CompletableFuture<TaskMetrics> value) {
+			this.metrics = value;
+			return this;
+		}
+		
 		/**
 		 * Creates a new runner result based on the current state of the builder.
 		 * @return returns a new runner result
@@ -54,6 +80,7 @@ public class RunnerResult {
 		this.input = builder.input;
 		this.task = builder.task;
 		this.success = builder.success;
+		this.metrics = builder.metrics;
 	}
 
 	/**
@@ -82,4 +109,17 @@ public class RunnerResult {
 		return success;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Gets the measurements of the task execution. Metrics are not available for
+	 * a read-only task running in the background until it has completed, nor if it
+	 * failed.
+	 * @return returns the metrics, or an empty optional if not available
+	 */
+	public Optional<TaskMetrics> getMetrics() {
+		if (metrics==null || !metrics.isDone() || metrics.isCompletedExceptionally()) {
+			return Optional.empty();
+		}
+		return Optional.of(metrics.join());
+	}
+
+}
@@ -81,5 +81,21 @@ public final class RunnerResults {
 	public List<RunnerResult> getResults() {
 		return results;
 	}
-	
+
+	/**
+	 * Gets the sum of the metrics of the task results. Note that the
+	 * metrics of an expanding task do not include those of its sub tasks,
+	 * which are separate results.
+	 * @return returns the sum of the metrics
+	 */
+	public TaskMetrics getTotalMetrics() {
+		TaskMetrics ret = null;
+		for (RunnerResult r : results) {
+			Optional<TaskMetrics> m = r.getMetrics();
+			if (m.isPresent()) {
+				ret = ret==null?m.get():ret.add(m.get());
+			}
+		}
+		return ret!=null?ret:new TaskMetrics.Builder().build();
+	}
 }
@@ -0,0 +1,102 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a snapshot of a temporary file or folder. The snapshot is created next
+ * to the source using hard links, if possible, so it is cheap to create and remains
+ * unchanged when the source is replaced.
+ * 
+ * @author Joel Håkansson
+ */
+final class Snapshot {
+	private static final Logger logger = Logger.getLogger(Snapshot.class.getCanonicalName());
+	private static final AtomicLong COUNTER = new AtomicLong();
+	private final Path path;
+	private final boolean folder;
+	private final String identifier;
+
+	private Snapshot(Path path, boolean folder, String identifier) {
+		this.path = path;
+		this.folder = folder;
+		this.identifier = identifier;
+	}
+
+	/**
+	 * Creates a snapshot of the specified file.
+	 * @param source the file
+	 * @param identifier the identifier to use when writing the snapshot
+	 * @return returns a new snapshot
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Snapshot ofFile(File source, String identifier) throws IOException {
+		Path p = newPath(source.toPath());
+		PathTools.linkOrCopy(source.toPath(), p);
+		return new Snapshot(p, false, identifier);
+	}
+
+	/**
+	 * Creates a snapshot of the specified folder.
+	 * @param source the folder
+	 * @param identifier the identifier to use when writing the snapshot
+	 * @return returns a new snapshot
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if source is not an existing folder
+	 */
+	static Snapshot ofFolder(Path source, String identifier) throws IOException {
+		if (!Files.isDirectory(source)) {
+			throw new IllegalArgumentException();
+		}
+		Snapshot ret = new Snapshot(newPath(source), true, identifier);
+		try {
+			PathTools.linkOrCopyTree(source, ret.path);
+		} catch (IOException e) {
+			ret.delete();
+			throw e;
+		}
+		return ret;
+	}
+
+	private static Path newPath(Path source) {
+		return source.resolveSibling(source.getFileName() + ".snapshot-" + COUNTER.incrementAndGet());
+	}
+
+	/**
+	 * Writes this snapshot using the specified writer.
+	 * @param writer the writer
+	 * @throws IOException if an I/O error occurs
+	 */
+	void writeTo(TempFileWriter writer) throws IOException {
+		if (folder) {
+			writer.writeTempFolder(path, identifier);
+		} else {
+			writer.writeTempFile(path.toFile(), identifier);
+		}
+	}
+
+	/**
+	 * Deletes this snapshot. Failures are logged.
+	 */
+	void delete() {
+		try {
+			if (folder) {
+				PathTools.deleteRecursive(path);
+			} else {
+				Files.deleteIfExists(path);
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to delete " + path, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+}
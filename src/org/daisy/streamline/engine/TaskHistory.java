@@ -0,0 +1,235 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides a history of task execution times. For each task name, the history
+ * keeps an exponentially weighted moving average of the execution time, so that
+ * recent executions weigh more than old ones. If the size of the input is known,
+ * a separate average is also kept for each input size bucket, where the buckets
+ * are powers of four bytes. This way, the execution time of a task on a small
+ * input is not estimated from its execution time on a large one.
+ *
+ * A history can be saved to a file and loaded again, so that it survives restarts.
+ *
+ * A history can be shared between task runners, and is safe to use from
+ * several threads.
+ *
+ * @author Joel Håkansson
+ * @see TaskRunner.Builder#taskHistory(TaskHistory)
+ */
+public final class TaskHistory {
+	private final double smoothing;
+	private static final String ANY_SIZE = "*";
+	private final Map<String, Entry> entries;
+	private final Map<String, Entry> sized;
+
+	private static final class Entry {
+		private final double average;
+		private final long count;
+		private Entry(double average, long count) {
+			this.average = average;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Provides a builder for task histories.
+	 */
+	public static class Builder {
+		private double smoothing = 0.3;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the weight of a new execution time, compared to the current average.
+		 * A higher value makes the average adapt faster. The default is 0.3.
+		 * @param value the weight, greater than 0 and at most 1
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is out of range
+		 */
+		public Builder smoothing(double value) {
+			if (!(value>0 && value<=1)) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.smoothing = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new task history.
+		 * @return returns a new task history
+		 */
+		public TaskHistory build() {
+			return new TaskHistory(this);
+		}
+	}
+
+	private TaskHistory(Builder builder) {
+		this.smoothing = builder.smoothing;
+		this.entries = new ConcurrentHashMap<>();
+		this.sized = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Records an execution time for the task with the specified name.
+	 * @param name the task name
+	 * @param nanos the execution time, in nanoseconds
+	 * @throws IllegalArgumentException if the time is negative
+	 */
+	public void record(String name, long nanos) {
+		Objects.requireNonNull(name);
+		if (nanos<0) {
+			throw new IllegalArgumentException("Value out of range: " + nanos);
+		}
+		update(entries, name, nanos);
+	}
+
+	/**
+	 * Records an execution time for the task with the specified name
+	 * and input size.
+	 * @param name the task name
+	 * @param inputBytes the size of the input, in bytes
+	 * @param nanos the execution time, in nanoseconds
+	 * @throws IllegalArgumentException if the time is negative
+	 */
+	public void record(String name, long inputBytes, long nanos) {
+		record(name, nanos);
+		update(sized, sizedKey(name, inputBytes), nanos);
+	}
+
+	private void update(Map<String, Entry> map, String key, long nanos) {
+		map.compute(key, (k, v)->v==null
+				?new Entry(nanos, 1)
+				:new Entry(v.average + smoothing * (nanos - v.average), v.count + 1));
+	}
+
+	static int bucket(long bytes) {
+		return (64 - Long.numberOfLeadingZeros(Math.max(0, bytes))) / 2;
+	}
+
+	private static String sizedKey(String name, long bytes) {
+		return bucket(bytes) + ":" + name;
+	}
+
+	/**
+	 * Gets the average execution time for the task with the specified name.
+	 * @param name the task name
+	 * @return returns the average, in nanoseconds, or an empty optional if
+	 * 		the task has no recorded executions
+	 */
+	public OptionalDouble getAverage(String name) {
+		Entry e = entries.get(name);
+		return e==null?OptionalDouble.empty():OptionalDouble.of(e.average);
+	}
+
+	/**
+	 * Gets the average execution time for the task with the specified name and
+	 * input size. If there are no recorded executions in the size bucket of the
+	 * input, the average for all input sizes is returned.
+	 * @param name the task name
+	 * @param inputBytes the size of the input, in bytes
+	 * @return returns the average, in nanoseconds, or an empty optional if
+	 * 		the task has no recorded executions
+	 */
+	public OptionalDouble getAverage(String name, long inputBytes) {
+		Entry e = sized.get(sizedKey(name, inputBytes));
+		return e==null?getAverage(name):OptionalDouble.of(e.average);
+	}
+
+	/**
+	 * Gets the number of recorded executions for the task with the specified name.
+	 * @param name the task name
+	 * @return returns the number of executions
+	 */
+	public long getCount(String name) {
+		Entry e = entries.get(name);
+		return e==null?0:e.count;
+	}
+
+	/**
+	 * Gets the names of the tasks with recorded executions.
+	 * @return returns the task names
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(new HashSet<>(entries.keySet()));
+	}
+
+	/**
+	 * Removes all recorded executions.
+	 */
+	public void clear() {
+		entries.clear();
+		sized.clear();
+	}
+
+	/**
+	 * Saves the history to a file. The file is replaced atomically, if supported by
+	 * the file system.
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void save(Path file) throws IOException {
+		Properties p = new Properties();
+		entries.forEach((k, v)->p.setProperty(ANY_SIZE + ":" + k, v.count + " " + v.average));
+		sized.forEach((k, v)->p.setProperty(k, v.count + " " + v.average));
+		Path parent = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream os = Files.newOutputStream(tmp)) {
+				p.store(os, "Task history");
+			}
+			PathTools.move(tmp, file);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Loads a history saved with {@link #save(Path)}. Loaded averages replace
+	 * the averages of the same tasks in this history.
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs or if the file is malformed
+	 */
+	public void load(Path file) throws IOException {
+		Properties p = new Properties();
+		try (InputStream is = Files.newInputStream(file)) {
+			p.load(is);
+		}
+		for (String key : p.stringPropertyNames()) {
+			int i = key.indexOf(':');
+			String[] value = p.getProperty(key).split(" ");
+			if (i<0 || value.length!=2) {
+				throw new IOException("Malformed entry: " + key);
+			}
+			Entry e;
+			try {
+				e = new Entry(Double.parseDouble(value[1]), Long.parseLong(value[0]));
+			} catch (NumberFormatException ex) {
+				throw new IOException("Malformed entry: " + key, ex);
+			}
+			if (ANY_SIZE.equals(key.substring(0, i))) {
+				entries.put(key.substring(i + 1), e);
+			} else {
+				sized.put(key, e);
+			}
+		}
+	}
+}
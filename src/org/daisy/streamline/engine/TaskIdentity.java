@@ -0,0 +1,41 @@
+package org.daisy.streamline.engine;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.daisy.streamline.api.tasks.InternalTask;
+
+/**
+ * Provides identities for tasks that are stable between runs, and between
+ * virtual machines. A task is identified by its class, type and name. Note that
+ * this means that the task's parameters are only taken into account to the
+ * extent that they are reflected in the name.
+ * 
+ * @author Joel Håkansson
+ */
+final class TaskIdentity {
+
+	private TaskIdentity() {}
+
+	/**
+	 * Gets a string that identifies the task.
+	 * @param task the task
+	 * @return returns the identity
+	 */
+	static String of(InternalTask task) {
+		return task.getClass().getName() + "/" + task.getType() + "/" + task.getName();
+	}
+
+	/**
+	 * Gets a hash that identifies the list of tasks.
+	 * @param tasks the tasks
+	 * @return returns the hash, as a hexadecimal string
+	 */
+	static String of(List<? extends InternalTask> tasks) {
+		MessageDigest md = Digests.newSha256();
+		for (InternalTask t : tasks) {
+			Digests.update(md, of(t));
+		}
+		return Digests.toHex(md.digest());
+	}
+}
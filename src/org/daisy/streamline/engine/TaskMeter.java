@@ -0,0 +1,140 @@
+package org.daisy.streamline.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a meter for a task execution on the current thread. The allocated bytes
+ * are read from {@code com.sun.management.ThreadMXBean} using reflection, since it
+ * is not available on all JVMs.
+ *
+ * @author Joel Håkansson
+ */
+final class TaskMeter {
+	private static final Logger logger = Logger.getLogger(TaskMeter.class.getCanonicalName());
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+	private final long start;
+	private final long cpu;
+	private final long allocated;
+	private long elapsed;
+	private long elapsedCpu;
+	private long elapsedAllocated;
+
+	/**
+	 * Provides the size of a state, in other words the input or output of a task.
+	 */
+	static final class Size {
+		static final Size EMPTY = new Size(0, 0);
+		private final int files;
+		private final long bytes;
+
+		Size(int files, long bytes) {
+			this.files = files;
+			this.bytes = bytes;
+		}
+
+		long getBytes() {
+			return bytes;
+		}
+	}
+
+	private TaskMeter() {
+		this.start = System.nanoTime();
+		this.cpu = cpuTime();
+		this.allocated = allocatedBytes();
+	}
+
+	/**
+	 * Starts a new meter on the current thread.
+	 * @return returns a new meter
+	 */
+	static TaskMeter start() {
+		return new TaskMeter();
+	}
+
+	/**
+	 * Gets the time when the meter was started.
+	 * @return returns the start time, as returned by {@link System#nanoTime()}
+	 */
+	long getStart() {
+		return start;
+	}
+
+	/**
+	 * Stops the meter. This must be called on the same thread as {@link #start()}.
+	 * @return returns this meter
+	 */
+	TaskMeter stop() {
+		elapsed = System.nanoTime() - start;
+		long c = cpuTime();
+		elapsedCpu = cpu>=0 && c>=0?c - cpu:-1;
+		long a = allocatedBytes();
+		elapsedAllocated = allocated>=0 && a>=0?a - allocated:-1;
+		return this;
+	}
+
+	/**
+	 * Creates metrics from the measurements of a stopped meter.
+	 * @param input the size of the input
+	 * @param output the size of the output
+	 * @return returns the metrics
+	 */
+	TaskMetrics toMetrics(Size input, Size output) {
+		TaskMetrics.Builder ret = new TaskMetrics.Builder()
+				.wallTime(elapsed)
+				.filesRead(input.files)
+				.bytesRead(input.bytes)
+				.filesWritten(output.files)
+				.bytesWritten(output.bytes);
+		if (elapsedCpu>=0) {
+			ret.cpuTime(elapsedCpu);
+		}
+		if (elapsedAllocated>=0) {
+			ret.allocatedBytes(elapsedAllocated);
+		}
+		return ret.build();
+	}
+
+	private static long cpuTime() {
+		try {
+			return THREADS.isCurrentThreadCpuTimeSupported()?THREADS.getCurrentThreadCpuTime():-1;
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	private static long allocatedBytes() {
+		if (ALLOCATED_BYTES==null) {
+			return -1;
+		}
+		try {
+			return (Long)ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private static Method allocatedBytesMethod() {
+		try {
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (!c.isInstance(THREADS)) {
+				return null;
+			}
+			Method supported = c.getMethod("isThreadAllocatedMemorySupported");
+			Method enabled = c.getMethod("isThreadAllocatedMemoryEnabled");
+			if (!(Boolean)supported.invoke(THREADS) || !(Boolean)enabled.invoke(THREADS)) {
+				return null;
+			}
+			return c.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Allocated bytes are not available.", e);
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.daisy.streamline.engine;
+
+import java.util.OptionalLong;
+
+/**
+ * Provides measurements of a task execution. Bytes and files read refer to the
+ * input of the task, bytes and files written to its output. Tasks that do not
+ * write a result, such as read-only and expanding tasks, have no output. The
+ * sizes are zero unless enabled with {@link TaskRunner.Builder#measureSizes(boolean)}.
+ *
+ * CPU time and allocated bytes are measured on the thread that executed the task,
+ * and are only available if supported by the JVM.
+ *
+ * @author Joel Håkansson
+ */
+public final class TaskMetrics {
+	private final long wallTime;
+	private final OptionalLong cpuTime;
+	private final OptionalLong allocatedBytes;
+	private final long bytesRead;
+	private final long bytesWritten;
+	private final int filesRead;
+	private final int filesWritten;
+
+	/**
+	 * Provides a builder for task metrics.
+	 */
+	public static class Builder {
+		private long wallTime = 0;
+		private OptionalLong cpuTime = OptionalLong.empty();
+		private OptionalLong allocatedBytes = OptionalLong.empty();
+		private long bytesRead = 0;
+		private long bytesWritten = 0;
+		private int filesRead = 0;
+		private int filesWritten = 0;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the wall time.
+		 * @param value the time, in nanoseconds
+		 * @return returns this builder
+		 */
+		public Builder wallTime(long value) {
+			this.wallTime = value;
+			return this;
+		}
+
+		/**
+		 * Sets the CPU time.
+		 * @param value the time, in nanoseconds
+		 * @return returns this builder
+		 */
+		public Builder cpuTime(long value) {
+			this.cpuTime = OptionalLong.of(value);
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes allocated.
+		 * @param value the number of bytes
+		 * @return returns this builder
+		 */
+		public Builder allocatedBytes(long value) {
+			this.allocatedBytes = OptionalLong.of(value);
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes read, in other words the size of the input.
+		 * @param value the number of bytes
+		 * @return returns this builder
+		 */
+		public Builder bytesRead(long value) {
+			this.bytesRead = value;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes written, in other words the size of the output.
+		 * @param value the number of bytes
+		 * @return returns this builder
+		 */
+		public Builder bytesWritten(long value) {
+			this.bytesWritten = value;
+			return this;
+		}
+
+		/**
+		 * Sets the number of files read.
+		 * @param value the number of files
+		 * @return returns this builder
+		 */
+		public Builder filesRead(int value) {
+			this.filesRead = value;
+			return this;
+		}
+
+		/**
+		 * Sets the number of files written.
+		 * @param value the number of files
+		 * @return returns this builder
+		 */
+		public Builder filesWritten(int value) {
+			this.filesWritten = value;
+			return this;
+		}
+
+		/**
+		 * Creates new task metrics with the current state of the builder.
+		 * @return returns new task metrics
+		 */
+		public TaskMetrics build() {
+			return new TaskMetrics(this);
+		}
+	}
+
+	private TaskMetrics(Builder builder) {
+		this.wallTime = builder.wallTime;
+		this.cpuTime = builder.cpuTime;
+		this.allocatedBytes = builder.allocatedBytes;
+		this.bytesRead = builder.bytesRead;
+		this.bytesWritten = builder.bytesWritten;
+		this.filesRead = builder.filesRead;
+		this.filesWritten = builder.filesWritten;
+	}
+
+	/**
+	 * Gets the wall time.
+	 * @return returns the time, in nanoseconds
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * Gets the CPU time.
+	 * @return returns the time, in nanoseconds, or an empty optional
+	 * 		if not supported
+	 */
+	public OptionalLong getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Gets the number of bytes allocated.
+	 * @return returns the number of bytes, or an empty optional
+	 * 		if not supported
+	 */
+	public OptionalLong getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Gets the number of bytes read.
+	 * @return returns the number of bytes
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 * @return returns the number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Gets the number of files read.
+	 * @return returns the number of files
+	 */
+	public int getFilesRead() {
+		return filesRead;
+	}
+
+	/**
+	 * Gets the number of files written.
+	 * @return returns the number of files
+	 */
+	public int getFilesWritten() {
+		return filesWritten;
+	}
+
+	/**
+	 * Adds these metrics to the specified metrics. CPU time and allocated
+	 * bytes are only included if available in both.
+	 * @param other the other metrics
+	 * @return returns the sum
+	 */
+	public TaskMetrics add(TaskMetrics other) {
+		Builder ret = new Builder()
+				.wallTime(wallTime + other.wallTime)
+				.bytesRead(bytesRead + other.bytesRead)
+				.bytesWritten(bytesWritten + other.bytesWritten)
+				.filesRead(filesRead + other.filesRead)
+				.filesWritten(filesWritten + other.filesWritten);
+		if (cpuTime.isPresent() && other.cpuTime.isPresent()) {
+			ret.cpuTime(cpuTime.getAsLong() + other.cpuTime.getAsLong());
+		}
+		if (allocatedBytes.isPresent() && other.allocatedBytes.isPresent()) {
+			ret.allocatedBytes(allocatedBytes.getAsLong() + other.allocatedBytes.getAsLong());
+		}
+		return ret.build();
+	}
+
+	@Override
+	public String toString() {
+		return "TaskMetrics [wallTime=" + wallTime + ", cpuTime=" + cpuTime + ", allocatedBytes=" + allocatedBytes
+				+ ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten + ", filesRead=" + filesRead
+				+ ", filesWritten=" + filesWritten + "]";
+	}
+}
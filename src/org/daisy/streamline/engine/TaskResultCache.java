@@ -0,0 +1,340 @@
+package org.daisy.streamline.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.daisy.streamline.api.tasks.InternalTask;
+
+/**
+ * Provides a persistent cache for the results of read/write tasks. The cache is
+ * keyed on a hash of the task's input and the task's identity. When a task is
+ * about to be executed on an input that it has processed before, the stored
+ * result is restored instead.
+ * 
+ * A task is identified by a task key supplied with {@link Builder#taskKey(Function)}.
+ * Since the parameters that a task was compiled with are not available to the cache,
+ * there is no default key. Results are only cached for tasks that the caller
+ * supplies a key for.
+ * 
+ * The cache is limited in size. When the limit is exceeded, the least recently
+ * used results are removed. A cache folder can be reused by later instances, but
+ * should only be used by one instance at a time. An instance can be shared between
+ * task runners.
+ * 
+ * @author Joel Håkansson
+ * @see TaskRunner.Builder#resultCache(TaskResultCache)
+ */
+public class TaskResultCache {
+	private static final Logger logger = Logger.getLogger(TaskResultCache.class.getCanonicalName());
+	private static final String TMP_PREFIX = ".tmp-";
+	private final Path folder;
+	private final long maxSize;
+	private final Function<InternalTask, String> taskKey;
+	// Access ordered, so the least recently used entry is first
+	private final Map<String, Long> entries;
+	private final ReadWriteLock lock;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private long size;
+
+	/**
+	 * Provides an action on a cache entry.
+	 */
+	@FunctionalInterface
+	interface EntryAction {
+		/**
+		 * Applies the action on the specified entry folder.
+		 * @param entry the folder
+		 * @throws IOException if an I/O error occurs
+		 */
+		void apply(Path entry) throws IOException;
+	}
+
+	/**
+	 * Provides a builder for task result caches.
+	 */
+	public static class Builder {
+		private final Path folder;
+		private long maxSize = 1024*1024*1024;
+		private Function<InternalTask, String> taskKey = t->null;
+
+		/**
+		 * Creates a new builder.
+		 * @param folder the folder where the cache is stored. The folder
+		 * 		is created if it does not exist.
+		 */
+		public Builder(Path folder) {
+			this.folder = Objects.requireNonNull(folder);
+		}
+
+		/**
+		 * Sets the maximum size of the cache, in bytes. The default is 1 GiB.
+		 * @param value the size
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder maxSize(long value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.maxSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets the function that identifies a task. Two tasks with the same key are assumed
+		 * to produce the same result for the same input. The key must therefore include
+		 * the task's parameters. If the function returns null, the task's result is not
+		 * cached. By default, no results are cached.
+		 * @param value the function
+		 * @return returns this builder
+		 */
+		public Builder taskKey(Function<InternalTask, String> value) {
+			this.taskKey = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Creates a new task result cache.
+		 * @return returns a new task result cache
+		 * @throws IOException if the cache folder could not be read
+		 */
+		public TaskResultCache build() throws IOException {
+			return new TaskResultCache(this);
+		}
+	}
+
+	private TaskResultCache(Builder builder) throws IOException {
+		this.folder = Files.createDirectories(builder.folder);
+		this.maxSize = builder.maxSize;
+		this.taskKey = builder.taskKey;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.lock = new ReentrantReadWriteLock();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.size = 0;
+		load();
+	}
+
+	private void load() throws IOException {
+		List<Path> dirs;
+		try (Stream<Path> s = Files.list(folder)) {
+			dirs = s.filter(Files::isDirectory).collect(Collectors.toList());
+		}
+		List<Path> valid = new ArrayList<>();
+		for (Path dir : dirs) {
+			if (dir.getFileName().toString().startsWith(TMP_PREFIX) || !FileSetState.readState(dir).isPresent()) {
+				// Left behind by an instance that was interrupted
+				delete(dir);
+			} else {
+				valid.add(dir);
+			}
+		}
+		// The last modified time of an entry's folder is updated when it is used
+		valid.sort(Comparator.comparing(TaskResultCache::lastModified));
+		for (Path dir : valid) {
+			long s = sizeOf(dir);
+			entries.put(dir.getFileName().toString(), s);
+			size += s;
+		}
+		evict();
+	}
+
+	/**
+	 * Gets the key that identifies a task.
+	 * @param task the task
+	 * @return returns the task key, or null if the task's result should not be cached
+	 */
+	String taskKey(InternalTask task) {
+		return taskKey.apply(task);
+	}
+
+	/**
+	 * Gets the key for a task and an input.
+	 * @param taskKey the task key, see {@link #taskKey(InternalTask)}
+	 * @param inputHash a hash of the input
+	 * @return returns the key
+	 */
+	String key(String taskKey, String inputHash) {
+		MessageDigest md = Digests.newSha256();
+		Digests.update(md, taskKey);
+		Digests.update(md, inputHash);
+		return Digests.toHex(md.digest());
+	}
+
+	/**
+	 * Applies the action on the entry with the specified key, if it exists. The entry
+	 * is not removed while the action is running.
+	 * @param key the key
+	 * @param action the action
+	 * @return true if the entry existed, false otherwise
+	 * @throws IOException if the action fails
+	 */
+	boolean restore(String key, EntryAction action) throws IOException {
+		lock.readLock().lock();
+		try {
+			boolean found;
+			synchronized (entries) {
+				found = entries.get(key)!=null;
+			}
+			if (!found) {
+				misses.incrementAndGet();
+				return false;
+			}
+			Path dir = folder.resolve(key);
+			action.apply(dir);
+			hits.incrementAndGet();
+			try {
+				Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to update " + dir, e);
+			}
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds an entry to the cache. The action is used to write the entry to the
+	 * specified folder. If an entry with the same key already exists, the cache
+	 * is left unchanged.
+	 * @param key the key
+	 * @param action the action
+	 * @throws IOException if an I/O error occurs
+	 */
+	void store(String key, EntryAction action) throws IOException {
+		Path tmp = Files.createTempDirectory(folder, TMP_PREFIX);
+		try {
+			action.apply(tmp);
+			long s = sizeOf(tmp);
+			lock.writeLock().lock();
+			try {
+				if (entries.containsKey(key) || s>maxSize) {
+					return;
+				}
+				PathTools.move(tmp, folder.resolve(key));
+				entries.put(key, s);
+				size += s;
+				evict();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			if (Files.exists(tmp)) {
+				delete(tmp);
+			}
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size>maxSize && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			it.remove();
+			size -= e.getValue();
+			delete(folder.resolve(e.getKey()));
+		}
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entries.keySet().forEach(v->delete(folder.resolve(v)));
+			entries.clear();
+			size = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of times a result was found in the cache.
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of times a result was not found in the cache.
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of results in the cache.
+	 * @return the number of results
+	 */
+	public int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Gets the size of the cache, in bytes.
+	 * @return the size
+	 */
+	public long getSize() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static long sizeOf(Path dir) throws IOException {
+		try (Stream<Path> s = Files.walk(dir)) {
+			return s.mapToLong(p->{
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+					return attrs.isRegularFile()?attrs.size():0;
+				} catch (IOException e) {
+					return 0;
+				}
+			}).sum();
+		}
+	}
+
+	private static FileTime lastModified(Path p) {
+		try {
+			return Files.getLastModifiedTime(p);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static void delete(Path dir) {
+		try {
+			PathTools.deleteRecursive(dir);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to delete " + dir, e);
+		}
+	}
+}
@@ -2,13 +2,23 @@ package org.daisy.streamline.engine;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.daisy.streamline.api.media.AnnotatedFile;
@@ -29,8 +39,20 @@ public class TaskRunner {
 	private final String name;
 	private final boolean writeTempFiles;
 	private final boolean keepTempFilesOnSuccess;
+	private final boolean archiveTempFiles;
 	private final TempFileWriter tempFileWriter;
 	private final Set<Consumer<ProgressEvent>> progressListeners;
+	private final boolean concurrentReadOnlyTasks;
+	private final Executor readOnlyTaskExecutor;
+	private final TempSpace tempSpace;
+	private final int failureCaptureSteps;
+	private final int successCaptureRate;
+	private final AtomicLong successfulRuns;
+	private final TaskResultCache resultCache;
+	private final TaskHistory taskHistory;
+	private final EngineMetrics engineMetrics;
+	private final ExecutionTrace executionTrace;
+	private final boolean measureSizes;
 	
 	/**
 	 * Provides a builder for TaskRunner
@@ -41,8 +63,19 @@ public class TaskRunner {
 		private final String name;
 		private boolean writeTempFiles = false;
 		private boolean keepTempFilesOnSuccess = false;
+		private boolean archiveTempFiles = false;
 		private TempFileWriter tempFileWriter = null;
 		private Set<Consumer<ProgressEvent>> progressListeners = new HashSet<>();
+		private boolean concurrentReadOnlyTasks = false;
+		private Executor readOnlyTaskExecutor = null;
+		private TempSpace tempSpace = TempSpace.getDefault();
+		private int failureCaptureSteps = 0;
+		private int successCaptureRate = 0;
+		private TaskResultCache resultCache = null;
+		private TaskHistory taskHistory = null;
+		private EngineMetrics engineMetrics = null;
+		private ExecutionTrace executionTrace = null;
+		private boolean measureSizes = false;
 
 		/**
 		 * Creates a new builder with the default values
@@ -77,6 +110,18 @@ public class TaskRunner {
 			this.keepTempFilesOnSuccess = value;
 			return this;
 		}
+		/**
+		 * If true, the temporary files of each run are written to a single
+		 * zip file. This applies to the default temp file writer only, in other
+		 * words it has no effect if a writer is set with {@link #tempFileWriter(TempFileWriter)}.
+		 * @param value the value
+		 * @return returns this builder
+		 * @see DefaultTempFileWriter.Builder#archive(boolean)
+		 */
+		public Builder archiveTempFiles(boolean value) {
+			this.archiveTempFiles = value;
+			return this;
+		}
 		/**
 		 * Sets the temporary file writer to use
 		 * @param value the writer
@@ -95,6 +140,130 @@ public class TaskRunner {
 			progressListeners.add(value);
 			return this;
 		}
+		/**
+		 * If true, read-only tasks are run in the background while the
+		 * following tasks proceed. A read-only task sees the state at the
+		 * point where it was started. Failures are reported before the
+		 * result is written to the output.
+		 * @param value the value
+		 * @return returns this builder
+		 */
+		public Builder concurrentReadOnlyTasks(boolean value) {
+			this.concurrentReadOnlyTasks = value;
+			return this;
+		}
+		/**
+		 * Sets the executor to use for read-only tasks when
+		 * {@link #concurrentReadOnlyTasks(boolean)} is enabled. If not set,
+		 * a new thread pool is used for each run.
+		 * @param value the executor
+		 * @return returns this builder
+		 */
+		public Builder readOnlyTaskExecutor(Executor value) {
+			this.readOnlyTaskExecutor = value;
+			return this;
+		}
+		/**
+		 * Sets the temp space to use for intermediary files and folders.
+		 * @param value the temp space
+		 * @return returns this builder
+		 * @see HybridTempSpace
+		 */
+		public Builder tempSpace(TempSpace value) {
+			this.tempSpace = Objects.requireNonNull(value);
+			return this;
+		}
+		/**
+		 * Sets the number of steps to capture if a run fails. If greater than zero,
+		 * the state after each of the most recent steps is retained using hard links,
+		 * and written with the temp file writer only if the run fails (or if
+		 * selected by {@link #successCaptureRate(int)}). This is an alternative to
+		 * {@link #writeTempFiles(boolean)} that is cheap on successful runs.
+		 * @param value the number of steps, or 0 to disable
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder failureCaptureSteps(int value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.failureCaptureSteps = value;
+			return this;
+		}
+		/**
+		 * Sets how often the steps captured with {@link #failureCaptureSteps(int)}
+		 * are written for successful runs. A value of n writes them for
+		 * one in n successful runs, starting with the first.
+		 * @param value the rate, or 0 to write on failure only
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder successCaptureRate(int value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.successCaptureRate = value;
+			return this;
+		}
+		/**
+		 * Sets a cache for the results of read/write tasks. When a read/write task is
+		 * about to be executed on an input that it has processed before, the cached
+		 * result is used instead. Only the results of tasks that the cache has a task key
+		 * for are cached, see {@link TaskResultCache.Builder#taskKey(java.util.function.Function)}.
+		 * @param value the cache, or null to disable caching
+		 * @return returns this builder
+		 */
+		public Builder resultCache(TaskResultCache value) {
+			this.resultCache = value;
+			return this;
+		}
+		/**
+		 * Sets a history where the execution times of read/write and read-only tasks are
+		 * recorded, by the size of the input of the run. The history can, for example, be used
+		 * to find the fastest conversion path. It is also used to weight the progress of each task by its expected execution time,
+		 * so that the estimated time of completion is accurate from the first task.
+		 * @param value the history, or null to not record execution times
+		 * @return returns this builder
+		 */
+		public Builder taskHistory(TaskHistory value) {
+			this.taskHistory = value;
+			return this;
+		}
+		/**
+		 * Sets a registry where runs, failures, task execution times and bytes moved are
+		 * aggregated. The same registry can be shared by several task runners. Setting a
+		 * registry implies {@link #measureSizes(boolean)}.
+		 * @param value the registry, or null to not aggregate metrics
+		 * @return returns this builder
+		 */
+		public Builder engineMetrics(EngineMetrics value) {
+			this.engineMetrics = value;
+			return this;
+		}
+		/**
+		 * Sets a trace where each run is recorded, with spans for its tasks, expanded
+		 * subtasks, temp space resets and snapshot writes. The same trace can be shared
+		 * by several task runners. The trace is not closed by the task runner.
+		 * @param value the trace, or null to not trace runs
+		 * @return returns this builder
+		 */
+		public Builder executionTrace(ExecutionTrace value) {
+			this.executionTrace = value;
+			return this;
+		}
+		/**
+		 * If true, the size of the input and output of each task is included in
+		 * the task metrics. Measuring the size of a file set requires a walk of its
+		 * base folder after each read/write task. If false, the sizes in the
+		 * task metrics are zero. The default is false.
+		 * @param value the value
+		 * @return returns this builder
+		 * @see TaskMetrics#getBytesRead()
+		 */
+		public Builder measureSizes(boolean value) {
+			this.measureSizes = value;
+			return this;
+		}
 		/**
 		 * Creates a new TaskRunner with the current status of the builder
 		 * @return a new TaskRunner
@@ -109,8 +278,20 @@ public class TaskRunner {
 		this.name = builder.name;
 		this.writeTempFiles = builder.writeTempFiles;
 		this.keepTempFilesOnSuccess = builder.keepTempFilesOnSuccess;
+		this.archiveTempFiles = builder.archiveTempFiles;
 		this.tempFileWriter = builder.tempFileWriter;
 		this.progressListeners = builder.progressListeners;
+		this.concurrentReadOnlyTasks = builder.concurrentReadOnlyTasks;
+		this.readOnlyTaskExecutor = builder.readOnlyTaskExecutor;
+		this.tempSpace = builder.tempSpace;
+		this.failureCaptureSteps = builder.failureCaptureSteps;
+		this.successCaptureRate = builder.successCaptureRate;
+		this.successfulRuns = new AtomicLong();
+		this.resultCache = builder.resultCache;
+		this.taskHistory = builder.taskHistory;
+		this.engineMetrics = builder.engineMetrics;
+		this.executionTrace = builder.executionTrace;
+		this.measureSizes = builder.measureSizes || builder.engineMetrics!=null;
 	}
 	
 	/**
@@ -154,34 +335,142 @@ public class TaskRunner {
 		int i = 0;
 		NumberFormat nf = NumberFormat.getPercentInstance();
 		//FIXME: implement temp file handling as per issue #47
-		TempFileWriter tempWriter =
-				writeTempFiles?
-							tempFileWriter!=null?tempFileWriter:new DefaultTempFileWriter.Builder().build()
-						:
-							null;
+		TempFileWriter target = writeTempFiles || failureCaptureSteps>0?newTempFileWriter():null;
+		RingTempFileWriter ring = failureCaptureSteps>0?new RingTempFileWriter(target, failureCaptureSteps):null;
+		TempFileWriter tempWriter = ring!=null?ring:target;
 		List<RunnerResult> ret = new ArrayList<>();
-		try (TaskRunnerCore itr = new TaskRunnerCore(input, output, tempWriter)) {
-			for (InternalTask task : tasks) {
-				ret.addAll(itr.runTask(task));
-				i++;
-				ProgressEvent event = progress.updateProgress(i/(double)tasks.size());
-				logger.info(nf.format(event.getProgress()) + " done. ETC " + event.getETC());
-				progressListeners.forEach(v->v.accept(event));
+		EngineMetrics.Run run = startRun();
+		ExecutionTrace.Span span = ExecutionTrace.begin(executionTrace, name, "run", null);
+		boolean success = false;
+		try {
+			ExecutorService readOnlyPool = newReadOnlyPool();
+			try (TaskRunnerCore itr = new TaskRunnerCore(input, output, tempWriter, tempSpace)) {
+				itr.setResultCache(resultCache);
+				long inputBytes = taskHistory!=null?itr.getCurrentSize().getBytes():0;
+				itr.setTaskHistory(taskHistory, inputBytes);
+				itr.setExecutionTrace(executionTrace, span);
+				itr.setMeasureSizes(measureSizes);
+				if (concurrentReadOnlyTasks) {
+					itr.setReadOnlyExecutor(readOnlyPool!=null?readOnlyPool:readOnlyTaskExecutor);
+				}
+				ProgressModel model = newProgressModel(tasks, i, inputBytes);
+				for (InternalTask task : tasks) {
+					List<RunnerResult> results = itr.runTask(task);
+					ret.addAll(results);
+					run.record(results);
+					i++;
+					ProgressEvent event = model.update(progress, i);
+					logger.info(nf.format(event.getProgress()) + " done. ETC " + event.getETC());
+					progressListeners.forEach(v->v.accept(event));
+				}
+				itr.join();
+			} catch (IOException | TaskSystemException | RuntimeException e) {
+				span.arg("result", e.getClass().getSimpleName());
+				if (ring!=null) {
+					commitCapture(ring);
+				}
+				closeTempFileWriter(target);
+				//This is called after the resource (fj) is closed.
+				//Since the temp file handler is closed the current state will be written to output. However, we do not want it.
+				if (!output.delete()) {
+					output.deleteOnExit();
+				}
+				throw e;
+			} finally {
+				if (readOnlyPool!=null) {
+					readOnlyPool.shutdown();
+				}
+			}
+			if (ring!=null) {
+				if (successCaptureRate>0 && successfulRuns.getAndIncrement() % successCaptureRate == 0) {
+					commitCapture(ring);
+				} else {
+					ring.discard();
+				}
+			} else if (!keepTempFilesOnSuccess && tempWriter!=null) {
+				// Process were successful, delete temp files
+				tempWriter.deleteTempFiles();
 			}
-		} catch (IOException | TaskSystemException | RuntimeException e) {
-			//This is called after the resource (fj) is closed.
-			//Since the temp file handler is closed the current state will be written to output. However, we do not want it.
-			if (!output.delete()) {
-				output.deleteOnExit();
+			closeTempFileWriter(target);
+			success = true;
+			logger.info(name + " finished in " + Math.round(progress.timeSinceStart()/100d)/10d + " s");
+			return ret;
+		} finally {
+			// the run is finished exactly once, also if the cleanup fails
+			run.finish(success);
+			span.end();
+		}
+	}
+	
+	private ProgressModel newProgressModel(List<InternalTask> tasks, int first, long inputBytes) {
+		ProgressModel ret = new ProgressModel(taskHistory, tasks, first, inputBytes);
+		if (ret.hasEstimates()) {
+			logger.info(name + " expected to finish in " + Math.round(ret.getExpectedMillis()/100d)/10d + " s");
+		}
+		return ret;
+	}
+	
+	/**
+	 * Returns true if this runner uses the same temp file writer for every run,
+	 * in other words if a writer was supplied with {@link Builder#tempFileWriter(TempFileWriter)}.
+	 * @return returns true if the temp file writer is shared between runs, false otherwise
+	 */
+	boolean hasSharedTempFileWriter() {
+		return tempFileWriter!=null;
+	}
+
+	private EngineMetrics.Run startRun() {
+		return engineMetrics!=null?engineMetrics.startRun():EngineMetrics.Run.NONE;
+	}
+	
+	private TempFileWriter newTempFileWriter() {
+		return tempFileWriter!=null?tempFileWriter:new DefaultTempFileWriter.Builder().hardLinks(true).archive(archiveTempFiles).build();
+	}
+	
+	/**
+	 * Closes a temp file writer created by this runner. A writer supplied
+	 * with {@link Builder#tempFileWriter(TempFileWriter)} is left open,
+	 * since it may be used for several runs.
+	 * @param w the writer, or null
+	 */
+	private void closeTempFileWriter(TempFileWriter w) {
+		if (w!=null && w!=tempFileWriter) {
+			try {
+				w.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to close temp file writer.", e);
 			}
-			throw e;
 		}
-		if (!keepTempFilesOnSuccess && tempWriter!=null) {
-			// Process were successful, delete temp files
-			tempWriter.deleteTempFiles();
+	}
+	
+	/**
+	 * Writes the captured steps. Since this is for debugging purposes only,
+	 * failures are logged rather than thrown.
+	 * @param ring the captured steps
+	 */
+	private void commitCapture(RingTempFileWriter ring) {
+		try {
+			ring.commit();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to write captured steps.", e);
+		}
+	}
+	
+	/**
+	 * Creates a thread pool for read-only tasks, if needed.
+	 * @return returns a new thread pool, or null if read-only tasks should not run in a
+	 * 		pool owned by this run
+	 */
+	private ExecutorService newReadOnlyPool() {
+		if (concurrentReadOnlyTasks && readOnlyTaskExecutor==null) {
+			return Executors.newCachedThreadPool(r->{
+				Thread t = new Thread(r, name + " (r)");
+				t.setDaemon(true);
+				return t;
+			});
+		} else {
+			return null;
 		}
-		logger.info(name + " finished in " + Math.round(progress.timeSinceStart()/100d)/10d + " s");
-		return ret;		
 	}
 	
 	private static class Variable<T> {
@@ -202,11 +491,81 @@ public class TaskRunner {
 	 * @throws TaskSystemException if there is a problem with the task system
 	 */
 	public RunnerResults runTasks(FileSet input, BaseFolder output, String manifestFileName, List<InternalTask> tasks) throws IOException, TaskSystemException {
+		return runTasks(input, output, manifestFileName, tasks, ()->false, null);
+	}
+
+	/**
+	 * Runs a list of tasks starting from the input file as input to the first task, the following tasks use the preceding result
+	 * as input. The final result is written to the output.
+	 * 
+	 * After each task that modified the file set, the current state is saved as a checkpoint in the
+	 * specified folder. If the folder contains a checkpoint from an earlier run with the same list of tasks
+	 * and the same input, for example a run that failed or was interrupted, the run is resumed from that
+	 * checkpoint. The input is compared using a hash of its files, which requires reading the input once.
+	 * The checkpoints are removed when the run completes successfully.
+	 * 
+	 * Tasks are compared using their class, type and name. If a task's parameters are not reflected by
+	 * its name, the checkpoint folder should be cleared when the parameters change.
+	 * 
+	 * @param input the input file
+	 * @param output the output file
+	 * @param manifestFileName the file name of the manifest file
+	 * @param tasks the list of tasks
+	 * @param checkpointFolder the folder where checkpoints are stored
+	 * @return returns a list of runner results, for the tasks that were run
+	 * @throws IOException if there is an I/O error
+	 * @throws TaskSystemException if there is a problem with the task system
+	 */
+	public RunnerResults runTasks(FileSet input, BaseFolder output, String manifestFileName, List<InternalTask> tasks, Path checkpointFolder) throws IOException, TaskSystemException {
+		return runTasks(input, output, manifestFileName, tasks, ()->false, new CheckpointStore(checkpointFolder, tasks, TaskRunnerCore2.hash(input)));
+	}
+
+	/**
+	 * Runs a list of tasks asynchronously, starting from the input file as input to the first task,
+	 * the following tasks use the preceding result as input. The final result is written to the output.
+	 * 
+	 * If the returned future is cancelled, the run stops before the next task is started.
+	 * Temporary files are then removed and the output is deleted, in the same way as when
+	 * a task fails.
+	 * 
+	 * @param input the input file
+	 * @param output the output file
+	 * @param manifestFileName the file name of the manifest file
+	 * @param tasks the list of tasks
+	 * @param executor the executor to run the tasks on
+	 * @return returns a future that is completed with the runner results
+	 */
+	public CompletableFuture<RunnerResults> runTasksAsync(FileSet input, BaseFolder output, String manifestFileName, List<InternalTask> tasks, Executor executor) {
+		CompletableFuture<RunnerResults> ret = new CompletableFuture<>();
+		try {
+			executor.execute(()->{
+				if (ret.isDone()) {
+					return;
+				}
+				try {
+					ret.complete(runTasks(input, output, manifestFileName, tasks, ret::isCancelled, null));
+				} catch (IOException | TaskSystemException | RuntimeException e) {
+					ret.completeExceptionally(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			ret.completeExceptionally(e);
+		}
+		return ret;
+	}
+
+	private RunnerResults runTasks(FileSet input, BaseFolder output, String manifestFileName, List<InternalTask> tasks, BooleanSupplier cancelled, CheckpointStore checkpoints) throws IOException, TaskSystemException {
 		Progress progress = new Progress();
 		logger.info(name + " started on " + progress.getStart());
-		int i = 0;
+		Optional<CheckpointStore.Checkpoint> checkpoint = checkpoints!=null?checkpoints.latest():Optional.empty();
+		int i = checkpoint.map(CheckpointStore.Checkpoint::getIndex).orElse(0);
+		if (checkpoint.isPresent()) {
+			logger.info(name + " resuming after task " + i + " of " + tasks.size());
+		}
 		NumberFormat nf = NumberFormat.getPercentInstance();
-		TempFileWriter tempWriter =writeTempFiles ? Optional.ofNullable(tempFileWriter).orElseGet(()->new DefaultTempFileWriter.Builder().build()) : null;
+		TempFileWriter target = writeTempFiles || failureCaptureSteps>0?newTempFileWriter():null;
+		RingTempFileWriter ring = failureCaptureSteps>0?new RingTempFileWriter(target, failureCaptureSteps):null;
+		TempFileWriter tempWriter = ring!=null?ring:target;
 		RunnerResults.Builder builder = new RunnerResults.Builder();
 		// I use this to pass the exception out of the lambda
 		Variable<IOException> ex = new Variable<>();
@@ -217,29 +576,83 @@ public class TaskRunner {
 				ex.setValue(e);
 			}
 		};
-		try (TaskRunnerCore2 itr = new TaskRunnerCore2(input, outputConsumer, tempWriter)) {
-			for (InternalTask task : tasks) {
-				builder.addResults(itr.runTask(task));
-				i++;
-				ProgressEvent event = progress.updateProgress(i/(double)tasks.size());
-				logger.info(nf.format(event.getProgress()) + " done. ETC " + event.getETC());
-				progressListeners.forEach(v->v.accept(event));
+		EngineMetrics.Run run = startRun();
+		ExecutionTrace.Span span = ExecutionTrace.begin(executionTrace, name, "run", null);
+		boolean success = false;
+		try {
+			ExecutorService readOnlyPool = newReadOnlyPool();
+			FileSet first = checkpoint.map(CheckpointStore.Checkpoint::getFileSet).orElse(input);
+			try (TaskRunnerCore2 itr = new TaskRunnerCore2(first, outputConsumer, tempWriter, tempSpace)) {
+				itr.setCancellationCheck(cancelled);
+				itr.setResultCache(resultCache);
+				// a resumed run uses the size of the original input, like the run that was interrupted
+				long inputBytes = taskHistory==null?0:
+					(checkpoint.isPresent()?TaskRunnerCore2.measure(input):itr.getCurrentSize()).getBytes();
+				itr.setTaskHistory(taskHistory, inputBytes);
+				itr.setExecutionTrace(executionTrace, span);
+				itr.setMeasureSizes(measureSizes);
+				if (concurrentReadOnlyTasks) {
+					itr.setReadOnlyExecutor(readOnlyPool!=null?readOnlyPool:readOnlyTaskExecutor);
+				}
+				ProgressModel model = newProgressModel(tasks, i, inputBytes);
+				for (InternalTask task : tasks.subList(i, tasks.size())) {
+					List<RunnerResult> results = itr.runTask(task);
+					builder.addResults(results);
+					run.record(results);
+					i++;
+					if (checkpoints!=null && results.stream().anyMatch(v->v.getTask().getType()==InternalTask.Type.READ_WRITE)) {
+						checkpoints.save(i, itr.getCurrent());
+					}
+					ProgressEvent event = model.update(progress, i);
+					logger.info(nf.format(event.getProgress()) + " done. ETC " + event.getETC());
+					progressListeners.forEach(v->v.accept(event));
+				}
+				itr.join();
+			} catch (IOException | TaskSystemException | RuntimeException e) {
+				span.arg("result", e.getClass().getSimpleName());
+				if (ring!=null) {
+					commitCapture(ring);
+				}
+				closeTempFileWriter(target);
+				//This is called after the resource (fj) is closed.
+				//Since the temp file handler is closed the current state will be written to output. However, we do not want it.
+				PathTools.deleteRecursive(output.getPath());
+				if (e instanceof CancellationException) {
+					logger.info(name + " cancelled after " + Math.round(progress.timeSinceStart()/100d)/10d + " s");
+				}
+				throw e;
+			} finally {
+				if (readOnlyPool!=null) {
+					readOnlyPool.shutdown();
+				}
 			}
-		} catch (IOException | TaskSystemException | RuntimeException e) {
-			//This is called after the resource (fj) is closed.
-			//Since the temp file handler is closed the current state will be written to output. However, we do not want it.
-			PathTools.deleteRecursive(output.getPath());
-			throw e;
-		}
-		if (ex.getValue()!=null) {
-			throw ex.getValue();
-		}
-		if (!keepTempFilesOnSuccess && tempWriter!=null) {
-			// Process were successful, delete temp files
-			tempWriter.deleteTempFiles();
+			if (ex.getValue()!=null) {
+				span.arg("result", ex.getValue().getClass().getSimpleName());
+				closeTempFileWriter(target);
+				throw ex.getValue();
+			}
+			if (checkpoints!=null) {
+				checkpoints.clear();
+			}
+			if (ring!=null) {
+				if (successCaptureRate>0 && successfulRuns.getAndIncrement() % successCaptureRate == 0) {
+					commitCapture(ring);
+				} else {
+					ring.discard();
+				}
+			} else if (!keepTempFilesOnSuccess && tempWriter!=null) {
+				// Process were successful, delete temp files
+				tempWriter.deleteTempFiles();
+			}
+			closeTempFileWriter(target);
+			success = true;
+			logger.info(name + " finished in " + Math.round(progress.timeSinceStart()/100d)/10d + " s");
+			return builder.build();
+		} finally {
+			// the run is finished exactly once, also if the cleanup fails
+			run.finish(success);
+			span.end();
 		}
-		logger.info(name + " finished in " + Math.round(progress.timeSinceStart()/100d)/10d + " s");
-		return builder.build();
 	}
 
 }
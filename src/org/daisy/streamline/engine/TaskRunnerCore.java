@@ -2,7 +2,11 @@ package org.daisy.streamline.engine;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.List;
+import java.util.Properties;
 
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.media.DefaultAnnotatedFile;
@@ -66,13 +70,26 @@ public class TaskRunnerCore extends AbstractTaskRunnerCore {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public TaskRunnerCore(AnnotatedFile input, File output, TempFileWriter tfw) throws IOException {
+		this(input, output, tfw, TempSpace.getDefault());
+	}
+	
+	/**
+	 * Creates a new task runner core with the specified options.
+	 * @param input the input file
+	 * @param output the final output file
+	 * @param tfw a temporary file writer for writing debug copies of intermediary files
+	 * @param space the temp space to use for intermediary files
+	 * @throws IOException if an I/O error occurs
+	 */
+	TaskRunnerCore(AnnotatedFile input, File output, TempFileWriter tfw, TempSpace space) throws IOException {
 		super(tfw);
-		this.fd = new FileData(new TempFileHandler(input.getPath().toFile(), output));
+		this.fd = new FileData(new TempFileHandler(input.getPath().toFile(), output, space));
 		fd.setCurrent(DefaultAnnotatedFile.with(input).file(fd.getTempFileHandler().getInput().toPath()).build());
 	}
 
 	@Override
 	public void close() throws IOException {
+		joinQuietly();
 		fd.getTempFileHandler().close();
 	}
 
@@ -83,7 +100,13 @@ public class TaskRunnerCore extends AbstractTaskRunnerCore {
 
 	@Override
 	protected void reset() throws IOException {
+		File written = fd.getTempFileHandler().getOutput();
 		fd.getTempFileHandler().reset();
+		File input = fd.getTempFileHandler().getInput();
+		if (!written.equals(input)) {
+			// the temp space has relocated the file
+			fd.setCurrent(DefaultAnnotatedFile.with(fd.getCurrent()).file(input.toPath()).build());
+		}
 	}
 
 	@Override
@@ -96,14 +119,44 @@ public class TaskRunnerCore extends AbstractTaskRunnerCore {
 		fd.setCurrent(task.asReadWriteTask().execute(fd.getCurrent(), fd.getTempFileHandler().getOutput()));
 	}
 
+	@Override
+	protected String hashCurrent() throws IOException {
+		AnnotatedFile f = fd.getCurrent();
+		MessageDigest md = Digests.newSha256();
+		Digests.update(md, f.getFormatName());
+		Digests.update(md, f.getExtension());
+		Digests.update(md, f.getMediaType());
+		Digests.update(md, f.getPath());
+		return Digests.toHex(md.digest());
+	}
+
+	@Override
+	protected void storeCurrent(Path folder) throws IOException {
+		FileSetState.save(fd.getCurrent(), folder, new Properties(), false);
+	}
+
+	@Override
+	protected void restoreResult(Path folder) throws IOException {
+		Properties p = FileSetState.readState(folder).orElseThrow(()->new IOException("Incomplete state: " + folder));
+		Path output = fd.getTempFileHandler().getOutput().toPath();
+		PathTools.copy(FileSetState.getManifest(FileSetState.getFiles(folder), p), output);
+		fd.setCurrent(FileSetState.toAnnotatedFile(output, p));
+	}
+
+	@Override
+	protected TaskMeter.Size measureCurrent() throws IOException {
+		return new TaskMeter.Size(1, Files.size(fd.getCurrent().getPath()));
+	}
+
 	@Override
 	protected List<InternalTask> execute(ExpandingTask task) throws InternalTaskException {
 		return task.asExpandingTask().resolve(fd.getCurrent());
 	}
 
 	@Override
-	protected void execute(ReadOnlyTask task) throws InternalTaskException {
-		task.execute(fd.getCurrent());
+	protected ReadOnlyExecution prepare(ReadOnlyTask task) {
+		AnnotatedFile current = fd.getCurrent();
+		return ()->task.execute(current);
 	}
 
 }
\ No newline at end of file
@@ -5,9 +5,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.media.BaseFolder;
@@ -34,9 +38,10 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 	 * @param input the input file
 	 * @param output the final output file
 	 * @param tfw a temporary file writer for writing debug copies of intermediary files
+	 * @param space the temp space to use for intermediary files
 	 * @throws IOException if an I/O error occurs
 	 */
-	TaskRunnerCore2(AnnotatedFile input, File output, TempFileWriter tfw) throws IOException {
+	TaskRunnerCore2(AnnotatedFile input, File output, TempFileWriter tfw, TempSpace space) throws IOException {
 		super(tfw);
 		fd = new FolderData();
 		fd.setTempFolderHandler(new TempFolderHandler(f->{
@@ -46,7 +51,7 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 			} catch (IOException e) {
 				return Optional.of(e);
 			}
-		})); 
+		}, space)); 
 		Path manifest = Files.createTempFile(fd.getTempFolderHandler().getInput(), "file", ".tmp");
 		Files.copy(input.getPath(), manifest, StandardCopyOption.REPLACE_EXISTING);
 		fd.setCurrent(DefaultFileSet.with(BaseFolder.with(fd.getTempFolderHandler().getInput()), DefaultAnnotatedFile.with(input).file(manifest).build()).build());
@@ -57,9 +62,10 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 	 * @param input the input file set
 	 * @param output an action to perform on the resulting file set
 	 * @param tfw a temporary file writer for writing debug copies of intermediary files
+	 * @param space the temp space to use for intermediary files
 	 * @throws IOException if an I/O error occurs
 	 */
-	TaskRunnerCore2(FileSet input, Consumer<FileSet> output, TempFileWriter tfw) throws IOException {
+	TaskRunnerCore2(FileSet input, Consumer<FileSet> output, TempFileWriter tfw, TempSpace space) throws IOException {
 		super(tfw);
 		fd = new FolderData();
 		fd.setTempFolderHandler(new TempFolderHandler(f->{
@@ -70,12 +76,13 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 			} else {
 				return Optional.of(new IOException("Error in code."));
 			}
-		}));
+		}, space));
 		fd.setCurrent(DefaultFileSet.copy(input, BaseFolder.with(fd.getTempFolderHandler().getInput())));
 	}
 
 	@Override
 	public void close() throws IOException {
+		joinQuietly();
 		fd.getTempFolderHandler().close();
 	}
 
@@ -89,6 +96,14 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 		fd.getTempFolderHandler().reset();
 	}
 
+	/**
+	 * Gets the current file set.
+	 * @return the current file set
+	 */
+	FileSet getCurrent() {
+		return fd.getCurrent();
+	}
+
 	@Override
 	protected AnnotatedFile getManifest() {
 		return fd.getCurrent().getManifest();
@@ -101,14 +116,82 @@ class TaskRunnerCore2 extends AbstractTaskRunnerCore {
 		fd.setCurrent(mfs);
 	}
 
+	@Override
+	protected String hashCurrent() throws IOException {
+		return hash(fd.getCurrent());
+	}
+
+	/**
+	 * Gets a hash of a file set, in other words of its manifest and of the names and
+	 * contents of all files in its base folder.
+	 * @param fs the file set
+	 * @return returns the hash, as a hexadecimal string
+	 * @throws IOException if an I/O error occurs
+	 */
+	static String hash(FileSet fs) throws IOException {
+		Path base = fs.getBaseFolder().getPath();
+		AnnotatedFile manifest = fs.getManifest();
+		MessageDigest md = Digests.newSha256();
+		Digests.update(md, PathTools.toRelativeName(base.relativize(manifest.getPath())));
+		Digests.update(md, manifest.getFormatName());
+		Digests.update(md, manifest.getExtension());
+		Digests.update(md, manifest.getMediaType());
+		List<Path> files;
+		try (Stream<Path> s = Files.walk(base)) {
+			files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		for (Path f : files) {
+			Digests.update(md, PathTools.toRelativeName(base.relativize(f)));
+			Digests.update(md, f);
+		}
+		return Digests.toHex(md.digest());
+	}
+
+	@Override
+	protected void storeCurrent(Path folder) throws IOException {
+		FileSetState.save(fd.getCurrent(), folder, new Properties(), false);
+	}
+
+	@Override
+	protected void restoreResult(Path folder) throws IOException {
+		Properties p = FileSetState.readState(folder).orElseThrow(()->new IOException("Incomplete state: " + folder));
+		Path output = fd.getTempFolderHandler().getOutput();
+		PathTools.copyTree(FileSetState.getFiles(folder), output);
+		fd.setCurrent(FileSetState.toFileSet(output, p));
+	}
+
+	@Override
+	protected TaskMeter.Size measureCurrent() throws IOException {
+		return measure(fd.getCurrent());
+	}
+
+	/**
+	 * Measures the size of a file set, in other words the size of all files in its base folder.
+	 * @param fs the file set
+	 * @return returns the size
+	 * @throws IOException if an I/O error occurs
+	 */
+	static TaskMeter.Size measure(FileSet fs) throws IOException {
+		int files = 0;
+		long bytes = 0;
+		try (Stream<Path> s = Files.walk(fs.getBaseFolder().getPath())) {
+			for (Path p : (Iterable<Path>)s.filter(Files::isRegularFile)::iterator) {
+				files++;
+				bytes += Files.size(p);
+			}
+		}
+		return new TaskMeter.Size(files, bytes);
+	}
+
 	@Override
 	protected List<InternalTask> execute(ExpandingTask task) throws InternalTaskException {
 		return task.asExpandingTask().resolve(fd.getCurrent());
 	}
 
 	@Override
-	protected void execute(ReadOnlyTask task) throws InternalTaskException {
-		task.execute(fd.getCurrent());
+	protected ReadOnlyExecution prepare(ReadOnlyTask task) {
+		FileSet current = fd.getCurrent();
+		return ()->task.execute(current);
 	}
 
 }
\ No newline at end of file
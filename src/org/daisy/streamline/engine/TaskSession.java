@@ -0,0 +1,236 @@
+package org.daisy.streamline.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.DefaultFileSet;
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+
+/**
+ * Provides a session for running lists of tasks on the same input several times,
+ * for example to preview the effect of changing options. The state after each
+ * task is retained, and when a list of tasks is run, execution starts after the
+ * last task that is the same as in the previous run.
+ * 
+ * Tasks are compared using a task key. By default, a task is identified by its
+ * class, type and name. If a task's options are not reflected by its name, a
+ * custom key must be supplied with {@link Builder#taskKey(Function)}, otherwise
+ * changes to the options will not be detected.
+ * 
+ * The states are stored in a folder created by the session's temp space.
+ * Note that a {@link HybridTempSpace} creates folders in its disk folder,
+ * so the states are kept on disk unless the disk folder is memory backed,
+ * such as a tmpfs mount. The states are removed when the session is closed.
+ * 
+ * @author Joel Håkansson
+ */
+public class TaskSession implements Closeable {
+	private static final Logger logger = Logger.getLogger(TaskSession.class.getCanonicalName());
+	private final FileSet input;
+	private final TempSpace tempSpace;
+	private final Function<InternalTask, String> taskKey;
+	private final Path folder;
+	private final List<Step> steps;
+	private int stateCount;
+	private int reusedSteps;
+	private boolean closed;
+
+	private static final class Step {
+		private final String key;
+		private final FileSet state;
+		private final Path stateFolder;
+		private Step(String key, FileSet state, Path stateFolder) {
+			this.key = key;
+			this.state = state;
+			this.stateFolder = stateFolder;
+		}
+	}
+
+	/**
+	 * Provides a builder for task sessions.
+	 */
+	public static class Builder {
+		private final FileSet input;
+		private TempSpace tempSpace = TempSpace.getDefault();
+		private Function<InternalTask, String> taskKey = TaskIdentity::of;
+
+		/**
+		 * Creates a new builder.
+		 * @param input the input file set
+		 */
+		public Builder(FileSet input) {
+			this.input = Objects.requireNonNull(input);
+		}
+
+		/**
+		 * Sets the temp space to use for intermediary files and retained states.
+		 * @param value the temp space
+		 * @return returns this builder
+		 */
+		public Builder tempSpace(TempSpace value) {
+			this.tempSpace = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the function that identifies a task. Tasks with the same key are assumed
+		 * to produce the same result for the same input. The key should therefore include
+		 * the task's options.
+		 * @param value the function
+		 * @return returns this builder
+		 */
+		public Builder taskKey(Function<InternalTask, String> value) {
+			this.taskKey = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Creates a new task session.
+		 * @return returns a new task session
+		 * @throws IOException if the session folder could not be created
+		 */
+		public TaskSession build() throws IOException {
+			return new TaskSession(this);
+		}
+	}
+
+	private TaskSession(Builder builder) throws IOException {
+		this.input = builder.input;
+		this.tempSpace = builder.tempSpace;
+		this.taskKey = builder.taskKey;
+		this.folder = tempSpace.newTempFolder();
+		this.steps = new ArrayList<>();
+		this.stateCount = 0;
+		this.reusedSteps = 0;
+		this.closed = false;
+	}
+
+	/**
+	 * Creates a new task session builder with the specified input.
+	 * @param input the input file set
+	 * @return returns a new builder
+	 */
+	public static Builder with(FileSet input) {
+		return new Builder(input);
+	}
+
+	/**
+	 * Runs a list of tasks, reusing the retained states of the previous run up to the
+	 * first task that differs. The final result is written to the output.
+	 * @param tasks the list of tasks
+	 * @param output the output folder
+	 * @param manifestFileName the file name of the manifest file
+	 * @return returns the runner results of the tasks that were executed
+	 * @throws IOException if there is an I/O error
+	 * @throws TaskSystemException if there is a problem with the task system
+	 * @throws IllegalStateException if the session has been closed
+	 */
+	public synchronized RunnerResults run(List<InternalTask> tasks, BaseFolder output, String manifestFileName) throws IOException, TaskSystemException {
+		if (closed) {
+			throw new IllegalStateException("Session has been closed.");
+		}
+		List<String> keys = new ArrayList<>();
+		for (InternalTask t : tasks) {
+			keys.add(taskKey.apply(t));
+		}
+		int start = 0;
+		while (start<Math.min(steps.size(), keys.size()) && steps.get(start).key.equals(keys.get(start))) {
+			start++;
+		}
+		truncate(start);
+		reusedSteps = start;
+		if (start>0) {
+			logger.info("Reusing the state after task " + start + " of " + tasks.size());
+		}
+		FileSet first = start>0?steps.get(start-1).state:input;
+		RunnerResults.Builder builder = new RunnerResults.Builder();
+		IOException[] ex = new IOException[1];
+		Consumer<FileSet> outputConsumer = current->{
+			try {
+				builder.fileSet(DefaultFileSet.copy(current, output, manifestFileName));
+			} catch (IOException e) {
+				ex[0] = e;
+			}
+		};
+		try (TaskRunnerCore2 itr = new TaskRunnerCore2(first, outputConsumer, null, tempSpace)) {
+			for (int i=start; i<tasks.size(); i++) {
+				List<RunnerResult> results = itr.runTask(tasks.get(i));
+				builder.addResults(results);
+				if (results.stream().anyMatch(v->v.getTask().getType()==InternalTask.Type.READ_WRITE)) {
+					Path dir = folder.resolve("" + (++stateCount));
+					FileSetState.save(itr.getCurrent(), dir, new Properties(), true);
+					Properties p = FileSetState.readState(dir).orElseThrow(IllegalStateException::new);
+					steps.add(new Step(keys.get(i), FileSetState.toFileSet(FileSetState.getFiles(dir), p), dir));
+				} else {
+					Step prev = i>0?steps.get(i-1):null;
+					steps.add(new Step(keys.get(i), prev!=null?prev.state:input, prev!=null?prev.stateFolder:null));
+				}
+			}
+		} catch (IOException | TaskSystemException | RuntimeException e) {
+			PathTools.deleteRecursive(output.getPath());
+			throw e;
+		}
+		if (ex[0]!=null) {
+			throw ex[0];
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Removes the retained steps starting at the specified index.
+	 * @param index the index of the first step to remove
+	 */
+	private void truncate(int index) {
+		while (steps.size()>index) {
+			Step s = steps.remove(steps.size()-1);
+			Step prev = steps.isEmpty()?null:steps.get(steps.size()-1);
+			// Read-only steps share the state folder of the preceding step
+			if (s.stateFolder!=null && (prev==null || prev.stateFolder!=s.stateFolder)) {
+				try {
+					PathTools.deleteRecursive(s.stateFolder);
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Failed to delete " + s.stateFolder, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of steps that were reused in the latest run.
+	 * @return the number of steps
+	 */
+	public synchronized int getReusedSteps() {
+		return reusedSteps;
+	}
+
+	/**
+	 * Removes all retained states, so that the next run starts from the input.
+	 */
+	public synchronized void clear() {
+		truncate(0);
+	}
+
+	/**
+	 * Removes all retained states and releases the session folder.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			truncate(0);
+			tempSpace.releaseTempFolder(folder);
+		}
+	}
+}
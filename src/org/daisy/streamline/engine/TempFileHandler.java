@@ -3,11 +3,13 @@ package org.daisy.streamline.engine;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Given an initial input file and a final output file, this class can be
@@ -22,9 +24,11 @@ import java.nio.file.StandardCopyOption;
  * @author Joel Håkansson
  */
 public class TempFileHandler implements Closeable {
+	private File source;
 	private File t1;
 	private File t2;
 	private final File output;
+	private final TempSpace space;
 	private boolean toggle;
 	
 	/**
@@ -40,6 +44,24 @@ public class TempFileHandler implements Closeable {
 	 *             files could not be created.
 	 */
 	public TempFileHandler(File input, File output) throws IOException {
+		this(input, output, TempSpace.getDefault());
+	}
+
+	/**
+	 * Constructs a new TempFileHandler object
+	 * 
+	 * @param input
+	 *            An existing input file
+	 * @param output
+	 *            An output file
+	 * @param space
+	 *            The temp space to use for temporary files
+	 * @throws IOException
+	 *             An IOException is thrown if the input does not exist
+	 *             or if the input or output is a directory or if the temporary
+	 *             files could not be created.
+	 */
+	public TempFileHandler(File input, File output, TempSpace space) throws IOException {
 		if (!input.exists()) {
 			throw new FileNotFoundException(input.getAbsolutePath());
 		}
@@ -48,15 +70,11 @@ public class TempFileHandler implements Closeable {
 		}
 		this.toggle = true;
 		this.output = output;
-		this.t1 = createTempFile();
-		this.t2 = createTempFile();
-		Files.copy(input.toPath(), this.t1.toPath(), StandardCopyOption.REPLACE_EXISTING);
-	}
-
-	private static File createTempFile() throws IOException {
-		File ret = File.createTempFile("temp", null, null);
-		ret.deleteOnExit();
-		return ret;
+		this.space = Objects.requireNonNull(space);
+		// The input is used in place until the first reset, it is never written to.
+		this.source = input;
+		this.t1 = space.newTempFile();
+		this.t2 = space.prepare(space.newTempFile(), input.length());
 	}
 
 	/**
@@ -66,6 +84,9 @@ public class TempFileHandler implements Closeable {
 	 *         been closed
 	 */
 	public File getInput() {
+		if (source!=null) {
+			return source;
+		}
 		return toggle ? t1 : t2;
 	}
 	
@@ -79,6 +100,36 @@ public class TempFileHandler implements Closeable {
 		return toggle ? t2 : t1;
 	}
 	
+	/**
+	 * Replaces a file with an empty file, preserving its permissions if possible.
+	 * @param p the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void clear(Path p) throws IOException {
+		Set<PosixFilePermission> perms = Files.getFileStore(p).supportsFileAttributeView(PosixFileAttributeView.class)?Files.getPosixFilePermissions(p):null;
+		Files.delete(p);
+		Files.createFile(p);
+		if (perms!=null) {
+			Files.setPosixFilePermissions(p, perms);
+		}
+	}
+
+	private void setInput(File value) {
+		if (toggle) {
+			t1 = value;
+		} else {
+			t2 = value;
+		}
+	}
+
+	private void setOutput(File value) {
+		if (toggle) {
+			t2 = value;
+		} else {
+			t1 = value;
+		}
+	}
+	
 	/**
 	 * Resets the input and output file before writing to the output again
 	 * 
@@ -87,22 +138,33 @@ public class TempFileHandler implements Closeable {
 	 *             closed or if the output file is open or empty.
 	 */
 	public void reset() throws IOException {
-		if (t1==null || t2==null) {
-			throw new IllegalStateException("Cannot swap after close.");
-		}
-		if (getOutput().length()>0) {
-			toggle = !toggle;
-			// reset the new output to length()=0
-			try (OutputStream unused = new FileOutputStream(getOutput())) {
-				//this is empty because we only need to close it
+		FlightEvent event = FlightRecorder.beginTempSpace(TempFileHandler.class, "reset");
+		try {
+			if (t1==null || t2==null) {
+				throw new IllegalStateException("Cannot swap after close.");
 			}
-		} else {
-			throw new IOException("Cannot swap to an empty file.");
+			if (getOutput().length()>0) {
+				source = null;
+				toggle = !toggle;
+				setInput(space.store(getInput()));
+				File prepared = space.prepare(getOutput(), getInput().length());
+				if (prepared==getOutput()) {
+					// Replace the new output with an empty file. It is not truncated, because
+					// that would also affect links to it (see PathTools#linkOrCopy).
+					clear(getOutput().toPath());
+				} else {
+					setOutput(prepared);
+				}
+			} else {
+				throw new IOException("Cannot swap to an empty file.");
+			}
+		} finally {
+			event.finish();
 		}
 	}
 	
 	/**
-	 * Closes the temporary files and copies the result to the output file.
+	 * Closes the temporary files and moves the result to the output file.
 	 * Closing the TempFileHandler is a mandatory last step after which no other
 	 * calls to the object should be made.
 	 * 
@@ -111,24 +173,38 @@ public class TempFileHandler implements Closeable {
 	 *             deleted, or are empty.
 	 */
 	public void close() throws IOException {
-		if (t1==null || t2==null) {
-			return;
-		}
+		FlightEvent event = FlightRecorder.beginTempSpace(TempFileHandler.class, "close");
 		try {
-			if (getOutput().length() > 0) {
-				Files.copy(getOutput().toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
-			}
-			else if (getInput().length() > 0) {
-				Files.copy(getInput().toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			if (t1==null || t2==null) {
+				return;
 			}
-			else {
-				throw new IOException("Temporary files corrupted.");
+			try {
+				if (getOutput().length() > 0) {
+					PathTools.move(getOutput().toPath(), output.toPath());
+				}
+				else if (getInput().length() > 0) {
+					if (getInput()==source) {
+						// The input is the result. It must not be opened for writing
+						// if it is also the output, since that would truncate it.
+						if (!output.exists() || !Files.isSameFile(source.toPath(), output.toPath())) {
+							PathTools.replace(source.toPath(), output.toPath());
+						}
+					} else {
+						PathTools.move(getInput().toPath(), output.toPath());
+					}
+				}
+				else {
+					throw new IOException("Temporary files corrupted.");
+				}
+			} finally {
+				space.releaseTempFile(t1);
+				space.releaseTempFile(t2);
+				t1 = null;
+				t2 = null;
+				source = null;
 			}
 		} finally {
-			t1.delete();
-			t2.delete();
-			t1 = null;
-			t2 = null;
+			event.finish();
 		}
 	}
 
@@ -0,0 +1,63 @@
+package org.daisy.streamline.engine;
+
+/**
+ * Provides names for files written by a {@link TempFileWriter}. Each name consists
+ * of a prefix unique to the writer, a running number and the identifier.
+ * 
+ * @author Joel Håkansson
+ */
+final class TempFileNames {
+	private final String prefix;
+	private int currentIndex;
+
+	/**
+	 * Creates a new instance. A time stamp is added to the prefix.
+	 * @param prefix the prefix
+	 */
+	TempFileNames(String prefix) {
+		this.prefix = prefix + "@" + Integer.toHexString((int)(System.currentTimeMillis()-1261440000000l));
+		this.currentIndex = 0;
+	}
+
+	/**
+	 * Gets the prefix, including the time stamp.
+	 * @return the prefix
+	 */
+	String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Gets the next name.
+	 * @param identifier the identifier
+	 * @return returns a new name
+	 */
+	synchronized String next(String identifier) {
+		String fileNumber = ""+(currentIndex+1);
+		currentIndex++;
+		while (fileNumber.length()<3) {
+			fileNumber = "0" + fileNumber;
+		}
+		return clean(prefix + "-" 
+						+ fileNumber + "-" 
+						+ truncate(identifier, 20)
+					);
+	}
+
+	/**
+	 * Replaces characters that are not safe to use in a file name.
+	 * @param name the name
+	 * @return returns the cleaned name
+	 */
+	static String clean(String name) {
+		return name.replaceAll("[^a-zA-Z0-9@\\-]+", "_");
+	}
+
+	private static String truncate(String str, int pos) {
+		if (str.length()>pos) {
+			return str.substring(0, pos);
+		} else {
+			return str;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.daisy.streamline.engine;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -10,7 +11,7 @@ import java.nio.file.Path;
  * 
  * @author Joel Håkansson
  */
-public interface TempFileWriter {
+public interface TempFileWriter extends Closeable {
 
 	/**
 	 * Writes a copy of the source file to a temporary folder. The identifier is
@@ -47,4 +48,14 @@ public interface TempFileWriter {
 	 * Deletes all temporary files written by this writer
 	 */
 	public void deleteTempFiles();
+
+	/**
+	 * Completes any pending writes and releases resources held by this writer.
+	 * Files already written are not deleted. The default implementation does nothing.
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public default void close() throws IOException {
+		// nothing to do
+	}
 }
\ No newline at end of file
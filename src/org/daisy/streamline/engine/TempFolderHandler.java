@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -23,6 +24,7 @@ public class TempFolderHandler implements Closeable {
 	private Path t1;
 	private Path t2;
 	private final Function<Path, Optional<? extends IOException>> output;
+	private final TempSpace space;
 	private boolean toggle;
 	
 	/**
@@ -35,10 +37,24 @@ public class TempFolderHandler implements Closeable {
 	 *             folders could not be created.
 	 */
 	public TempFolderHandler(Function<Path, Optional<? extends IOException>> output) throws IOException {
+		this(output, TempSpace.getDefault());
+	}
+
+	/**
+	 * Constructs a new TempFolderHandler object
+	 * 
+	 * @param output an action to perform on the output
+	 * @param space the temp space to use for temporary folders
+	 * @throws IOException
+	 *             An IOException is thrown if the temporary
+	 *             folders could not be created.
+	 */
+	public TempFolderHandler(Function<Path, Optional<? extends IOException>> output, TempSpace space) throws IOException {
 		this.toggle = true;
 		this.output = output;
-		this.t1 = PathTools.createTempFolder();
-		this.t2 = PathTools.createTempFolder();
+		this.space = Objects.requireNonNull(space);
+		this.t1 = space.newTempFolder();
+		this.t2 = space.newTempFolder();
 	}
 
 	/**
@@ -67,15 +83,20 @@ public class TempFolderHandler implements Closeable {
 	 *             closed or if the output folder is empty.
 	 */
 	public void reset() throws IOException {
-		if (t1==null || t2==null) {
-			throw new IllegalStateException("Cannot reset after close.");
-		}
-		if (!isEmpty(getOutput())) {
-			toggle = !toggle;
-			// reset the new output
-			PathTools.deleteRecursive(getOutput(), false);
-		} else {
-			throw new IOException("Cannot swap to an empty folder.");
+		FlightEvent event = FlightRecorder.beginTempSpace(TempFolderHandler.class, "reset");
+		try {
+			if (t1==null || t2==null) {
+				throw new IllegalStateException("Cannot reset after close.");
+			}
+			if (!isEmpty(getOutput())) {
+				toggle = !toggle;
+				// reset the new output
+				space.clearTempFolder(getOutput());
+			} else {
+				throw new IOException("Cannot swap to an empty folder.");
+			}
+		} finally {
+			event.finish();
 		}
 	}
 	
@@ -95,28 +116,33 @@ public class TempFolderHandler implements Closeable {
 	 *             deleted, or are empty.
 	 */
 	public void close() throws IOException {
-		if (t1==null || t2==null) {
-			return;
-		}
+		FlightEvent event = FlightRecorder.beginTempSpace(TempFolderHandler.class, "close");
 		try {
-			if (!isEmpty(getOutput())) {
-				Optional<? extends IOException> ex = output.apply(getOutput());
-				if (ex.isPresent()) {
-					throw ex.get();
-				}
-			} else if (!isEmpty(getInput())) {
-				Optional<? extends IOException> ex = output.apply(getInput());
-				if (ex.isPresent()) {
-					throw ex.get();
+			if (t1==null || t2==null) {
+				return;
+			}
+			try {
+				if (!isEmpty(getOutput())) {
+					Optional<? extends IOException> ex = output.apply(getOutput());
+					if (ex.isPresent()) {
+						throw ex.get();
+					}
+				} else if (!isEmpty(getInput())) {
+					Optional<? extends IOException> ex = output.apply(getInput());
+					if (ex.isPresent()) {
+						throw ex.get();
+					}
+				} else {
+					throw new IOException("Corrupted state.");
 				}
-			} else {
-				throw new IOException("Corrupted state.");
+			} finally {
+				space.releaseTempFolder(t1);
+				space.releaseTempFolder(t2);
+				t1 = null;
+				t2 = null;
 			}
 		} finally {
-			PathTools.deleteRecursive(t1);
-			PathTools.deleteRecursive(t2);
-			t1 = null;
-			t2 = null;
+			event.finish();
 		}
 	}
 
@@ -0,0 +1,92 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Provides temporary files and folders for {@link TempFileHandler} and
+ * {@link TempFolderHandler}. An implementation decides where the temporary
+ * files and folders are located and what happens to them once they
+ * are no longer needed.
+ * 
+ * @author Joel Håkansson
+ */
+public interface TempSpace {
+
+	/**
+	 * Creates a new, empty, temporary file.
+	 * @return the file
+	 * @throws IOException if the file could not be created
+	 */
+	public File newTempFile() throws IOException;
+
+	/**
+	 * Called when a temporary file has been written and is about to be
+	 * used as input. An implementation may relocate the file, for example
+	 * depending on its size.
+	 * 
+	 * @param file the file
+	 * @return the file to use from now on, which may be the same as the supplied file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public default File store(File file) throws IOException {
+		return file;
+	}
+
+	/**
+	 * Called when a temporary file is about to be used as output. An implementation
+	 * may relocate the file, for example depending on the expected size of the output.
+	 * The contents of the file are not preserved.
+	 * 
+	 * @param file the file
+	 * @param expectedSize the expected size of the output, in bytes, for example the
+	 * 			size of the input
+	 * @return the file to use from now on, which may be the same as the supplied file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public default File prepare(File file, long expectedSize) throws IOException {
+		return file;
+	}
+
+	/**
+	 * Releases a temporary file created by this temp space. The file must not
+	 * be used after this call.
+	 * @param file the file
+	 */
+	public void releaseTempFile(File file);
+
+	/**
+	 * Creates a new, empty, temporary folder.
+	 * @return the folder
+	 * @throws IOException if the folder could not be created
+	 */
+	public Path newTempFolder() throws IOException;
+
+	/**
+	 * Deletes the contents of a temporary folder created by this temp space.
+	 * @param folder the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	public default void clearTempFolder(Path folder) throws IOException {
+		PathTools.deleteRecursive(folder, false);
+	}
+
+	/**
+	 * Releases a temporary folder created by this temp space. The folder must not
+	 * be used after this call.
+	 * @param folder the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void releaseTempFolder(Path folder) throws IOException;
+
+	/**
+	 * Gets the default temp space. The default temp space creates temporary
+	 * files and folders in <code>java.io.tmpdir</code> and deletes them when
+	 * they are released.
+	 * @return the default temp space
+	 */
+	public static TempSpace getDefault() {
+		return DefaultTempSpace.INSTANCE;
+	}
+}
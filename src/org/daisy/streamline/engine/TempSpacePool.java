@@ -0,0 +1,266 @@
+package org.daisy.streamline.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a temp space that keeps released temporary files and folders
+ * for reuse, up to a fixed number of each. Files and folders are cleaned
+ * when they are returned, so that a file or folder is always empty when
+ * it is handed out again. This avoids creating and deleting files and
+ * folders for every run.
+ * 
+ * The pool is backed by another temp space, which is used when the pool
+ * is empty or full. Close the pool to release the pooled files and folders.
+ * 
+ * @author Joel Håkansson
+ */
+public final class TempSpacePool implements TempSpace, Closeable {
+	private static final Logger logger = Logger.getLogger(TempSpacePool.class.getCanonicalName());
+	private final TempSpace space;
+	private final int capacity;
+	private final Deque<File> files;
+	private final Deque<Path> folders;
+	private boolean closed;
+	private long reused;
+	private long created;
+
+	/**
+	 * Provides a builder for temp space pools.
+	 */
+	public static class Builder {
+		private TempSpace space = TempSpace.getDefault();
+		private int pairs = 2 * Runtime.getRuntime().availableProcessors();
+
+		/**
+		 * Creates a new builder with the default values.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the temp space that creates and deletes the files and folders of the pool.
+		 * @param value the temp space
+		 * @return returns this builder
+		 */
+		public Builder tempSpace(TempSpace value) {
+			this.space = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of file pairs and folder pairs to keep in the pool. A
+		 * task runner uses one pair at a time, so this should typically be set to the
+		 * number of concurrent runs.
+		 * @param value the number of pairs
+		 * @return returns this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder capacity(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value out of range: " + value);
+			}
+			this.pairs = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new temp space pool.
+		 * @return returns a new pool
+		 */
+		public TempSpacePool build() {
+			return new TempSpacePool(this);
+		}
+	}
+
+	private TempSpacePool(Builder builder) {
+		this.space = builder.space;
+		this.capacity = 2 * builder.pairs;
+		this.files = new ArrayDeque<>();
+		this.folders = new ArrayDeque<>();
+		this.closed = false;
+		this.reused = 0;
+		this.created = 0;
+	}
+
+	/**
+	 * Fills the pool, so that subsequent runs do not have to create
+	 * any files or folders.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void preallocate() throws IOException {
+		while (!isFull(files)) {
+			File f = space.newTempFile();
+			if (!offer(f)) {
+				space.releaseTempFile(f);
+			}
+		}
+		while (!isFull(folders)) {
+			Path f = space.newTempFolder();
+			if (!offer(f)) {
+				space.releaseTempFolder(f);
+			}
+		}
+	}
+
+	@Override
+	public File newTempFile() throws IOException {
+		File ret;
+		synchronized (this) {
+			ret = files.poll();
+			if (ret!=null) {
+				reused++;
+				return ret;
+			}
+			created++;
+		}
+		return space.newTempFile();
+	}
+
+	@Override
+	public File store(File file) throws IOException {
+		return space.store(file);
+	}
+
+	@Override
+	public File prepare(File file, long expectedSize) throws IOException {
+		return space.prepare(file, expectedSize);
+	}
+
+	@Override
+	public void releaseTempFile(File file) {
+		if (!isFull(files)) {
+			try {
+				Path p = file.toPath();
+				if (!Files.exists(p)) {
+					// the file has been moved away, for example by TempFileHandler.close()
+					Files.createFile(p);
+				} else if (Files.size(p)>0) {
+					TempFileHandler.clear(p);
+				}
+				if (offer(file)) {
+					return;
+				}
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to clean " + file, e);
+			}
+		}
+		space.releaseTempFile(file);
+	}
+
+	@Override
+	public Path newTempFolder() throws IOException {
+		Path ret;
+		synchronized (this) {
+			ret = folders.poll();
+			if (ret!=null) {
+				reused++;
+				return ret;
+			}
+			created++;
+		}
+		return space.newTempFolder();
+	}
+
+	@Override
+	public void clearTempFolder(Path folder) throws IOException {
+		space.clearTempFolder(folder);
+	}
+
+	@Override
+	public void releaseTempFolder(Path folder) throws IOException {
+		if (!isFull(folders)) {
+			space.clearTempFolder(folder);
+			if (offer(folder)) {
+				return;
+			}
+		}
+		space.releaseTempFolder(folder);
+	}
+
+	private synchronized boolean isFull(Deque<?> d) {
+		return closed || d.size()>=capacity;
+	}
+
+	private synchronized boolean offer(File f) {
+		if (isFull(files)) {
+			return false;
+		}
+		files.push(f);
+		return true;
+	}
+
+	private synchronized boolean offer(Path f) {
+		if (isFull(folders)) {
+			return false;
+		}
+		folders.push(f);
+		return true;
+	}
+
+	/**
+	 * Gets the number of files currently in the pool.
+	 * @return the number of files
+	 */
+	public synchronized int getPooledFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Gets the number of folders currently in the pool.
+	 * @return the number of folders
+	 */
+	public synchronized int getPooledFolderCount() {
+		return folders.size();
+	}
+
+	/**
+	 * Gets the number of files and folders that have been handed out from the pool.
+	 * @return the number of reused files and folders
+	 */
+	public synchronized long getReusedCount() {
+		return reused;
+	}
+
+	/**
+	 * Gets the number of files and folders that have been requested when the pool
+	 * was empty.
+	 * @return the number of created files and folders
+	 */
+	public synchronized long getCreatedCount() {
+		return created;
+	}
+
+	/**
+	 * Releases the files and folders in the pool. Files and folders that
+	 * are returned after this call are released immediately.
+	 */
+	@Override
+	public void close() throws IOException {
+		List<File> f;
+		List<Path> d;
+		synchronized (this) {
+			closed = true;
+			f = new ArrayList<>(files);
+			d = new ArrayList<>(folders);
+			files.clear();
+			folders.clear();
+		}
+		f.forEach(v->space.releaseTempFile(v));
+		for (Path p : d) {
+			space.releaseTempFolder(p);
+		}
+	}
+
+}
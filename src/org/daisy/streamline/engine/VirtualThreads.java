@@ -0,0 +1,33 @@
+package org.daisy.streamline.engine;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Provides access to virtual threads, if supported by the runtime. This
+ * implementation is used on Java versions before 21. It is replaced
+ * by another implementation in the Java 21 layer of the multi-release jar.
+ * 
+ * @author Joel Håkansson
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {}
+
+	/**
+	 * Returns true if virtual threads are supported.
+	 * @return true if virtual threads are supported, false otherwise
+	 */
+	static boolean isSupported() {
+		return false;
+	}
+
+	/**
+	 * Creates a new executor that starts a new virtual thread for each task.
+	 * @param name the thread name prefix
+	 * @return returns a new executor, or an empty optional if virtual threads are not supported
+	 */
+	static Optional<ExecutorService> newThreadPerTaskExecutor(String name) {
+		return Optional.empty();
+	}
+}
@@ -0,0 +1,168 @@
+package org.daisy.streamline.engine.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.daisy.streamline.api.option.UserOption;
+import org.daisy.streamline.api.tasks.CompiledTaskSystem;
+import org.daisy.streamline.api.tasks.DefaultCompiledTaskSystem;
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+
+/**
+ * Provides a bounded cache of compiled task systems. The least recently used
+ * entry is removed when the cache is full. The cache is thread safe.
+ * 
+ * Since a compiled task system is a mutable list, the cache stores and returns
+ * copies. Note that the tasks themselves are shared between the copies.
+ * 
+ * @author Joel Håkansson
+ */
+class CompiledTaskSystemCache {
+	private final Map<Key, CompiledTaskSystem> entries;
+
+	/**
+	 * Provides a cache key.
+	 */
+	static final class Key {
+		private final String name;
+		private final String inputFormat;
+		private final String outputFormat;
+		private final String context;
+		private final Map<String, String> parameters;
+		private final List<TaskGroupInformation> path;
+
+		/**
+		 * Creates a new key. The parameter values are compared using their string
+		 * representations, in the same way as when matching required options.
+		 * @param name the task system name
+		 * @param inputFormat the input format
+		 * @param outputFormat the output format
+		 * @param context the context
+		 * @param parameters the parameters, or null if there are no parameters
+		 */
+		Key(String name, String inputFormat, String outputFormat, String context, Map<String, Object> parameters) {
+			this(name, inputFormat, outputFormat, context, parameters, null);
+		}
+
+		/**
+		 * Creates a new key for a task system compiled from the specified path. This is
+		 * used when the path may change between compilations, for example when it is
+		 * selected using measured costs.
+		 * @param name the task system name
+		 * @param inputFormat the input format
+		 * @param outputFormat the output format
+		 * @param context the context
+		 * @param parameters the parameters, or null if there are no parameters
+		 * @param path the path, or null if the path is given by the other values
+		 */
+		Key(String name, String inputFormat, String outputFormat, String context, Map<String, Object> parameters, List<TaskGroupInformation> path) {
+			this.name = name;
+			this.inputFormat = inputFormat;
+			this.outputFormat = outputFormat;
+			this.context = context;
+			Map<String, String> p = new TreeMap<>();
+			if (parameters!=null) {
+				for (Map.Entry<String, Object> e : parameters.entrySet()) {
+					p.put(e.getKey(), String.valueOf(e.getValue()));
+				}
+			}
+			this.parameters = Collections.unmodifiableMap(p);
+			this.path = path==null?null:Collections.unmodifiableList(new ArrayList<>(path));
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, inputFormat, outputFormat, context, parameters, path);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return Objects.equals(name, other.name) && Objects.equals(inputFormat, other.inputFormat)
+					&& Objects.equals(outputFormat, other.outputFormat) && Objects.equals(context, other.context)
+					&& parameters.equals(other.parameters) && Objects.equals(path, other.path);
+		}
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param capacity the maximum number of entries
+	 * @throws IllegalArgumentException if the capacity is less than 1
+	 */
+	CompiledTaskSystemCache(int capacity) {
+		if (capacity<1) {
+			throw new IllegalArgumentException("Value out of range: " + capacity);
+		}
+		this.entries = new LinkedHashMap<Key, CompiledTaskSystem>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CompiledTaskSystem> eldest) {
+				return size()>capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets a copy of the compiled task system with the specified key.
+	 * @param key the key
+	 * @return returns the compiled task system, or an empty optional if it is not in the cache
+	 */
+	Optional<CompiledTaskSystem> get(Key key) {
+		CompiledTaskSystem ret;
+		synchronized (entries) {
+			ret = entries.get(key);
+		}
+		return Optional.ofNullable(ret).map(CompiledTaskSystemCache::copy);
+	}
+
+	/**
+	 * Adds a copy of the compiled task system to the cache.
+	 * @param key the key
+	 * @param value the compiled task system
+	 */
+	void put(Key key, CompiledTaskSystem value) {
+		CompiledTaskSystem c = copy(value);
+		synchronized (entries) {
+			entries.put(key, c);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 * @return the number of entries
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private static CompiledTaskSystem copy(CompiledTaskSystem value) {
+		List<UserOption> options = value.getOptions();
+		DefaultCompiledTaskSystem ret = new DefaultCompiledTaskSystem(value.getName(), options!=null?new ArrayList<>(options):new ArrayList<>());
+		ret.addAll(value);
+		return ret;
+	}
+}
@@ -1,17 +1,17 @@
 package org.daisy.streamline.engine.impl;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.daisy.streamline.api.media.FormatIdentifier;
 import org.daisy.streamline.api.option.UserOption;
 import org.daisy.streamline.api.tasks.CompiledTaskSystem;
 import org.daisy.streamline.api.tasks.DefaultCompiledTaskSystem;
+import org.daisy.streamline.api.tasks.InternalTask;
 import org.daisy.streamline.api.tasks.TaskGroup;
 import org.daisy.streamline.api.tasks.TaskGroupActivity;
 import org.daisy.streamline.api.tasks.TaskGroupFactoryMakerService;
@@ -41,6 +41,9 @@ public class DefaultTaskSystem implements TaskSystem {
 	private final String context;
 	private final String name;
 	private final TaskGroupFactoryMakerService imf;
+	private final Supplier<FormatGraph> graph;
+	private final CompiledTaskSystemCache cache;
+	private final TaskGroupCostModel costs;
 
 	/**
 	 * Creates a new Dotify task system with the specified parameters.
@@ -51,11 +54,29 @@ public class DefaultTaskSystem implements TaskSystem {
 	 * @param imf a task group factory maker service
 	 */
 	public DefaultTaskSystem(String name, String inputFormat, String outputFormat, String context, TaskGroupFactoryMakerService imf) {
+		this(name, inputFormat, outputFormat, context, imf, ()->FormatGraph.of(imf.list(context)), null, null);
+	}
+	
+	/**
+	 * Creates a new Dotify task system with the specified parameters.
+	 * @param name the name of the task system
+	 * @param inputFormat the input format
+	 * @param outputFormat the output format
+	 * @param context the context locale
+	 * @param imf a task group factory maker service
+	 * @param graph a supplier of the format graph of the task groups provided by the service for the context locale
+	 * @param cache a cache of compiled task systems, or null
+	 * @param costs a cost model used to select the cheapest path, or null to select the shortest path
+	 */
+	DefaultTaskSystem(String name, String inputFormat, String outputFormat, String context, TaskGroupFactoryMakerService imf, Supplier<FormatGraph> graph, CompiledTaskSystemCache cache, TaskGroupCostModel costs) {
 		this.context = context;
 		this.inputFormat = inputFormat;
 		this.outputFormat = outputFormat;
 		this.name = name;
 		this.imf = imf;
+		this.graph = graph;
+		this.cache = cache;
+		this.costs = costs;
 	}
 	
 	@Override
@@ -66,11 +87,30 @@ public class DefaultTaskSystem implements TaskSystem {
 	@Override
 	public CompiledTaskSystem compile(Map<String, Object> pa) throws TaskSystemException {
 		Map<String, Object> h = pa;
+		CompiledTaskSystemCache.Key key = null;
+		List<TaskGroupInformation> path = null;
+		if (costs!=null) {
+			// The cheapest path changes as execution times are recorded,
+			// so it is part of the cache key.
+			logger.info("Finding path...");
+			path = getPath(graph.get(), new TaskSystemInformation.Builder(FormatIdentifier.with(inputFormat), FormatIdentifier.with(outputFormat)).build(), costs);
+		}
+		if (cache!=null) {
+			key = new CompiledTaskSystemCache.Key(name, inputFormat, outputFormat, context, pa, path);
+			Optional<CompiledTaskSystem> cached = cache.get(key);
+			if (cached.isPresent()) {
+				logger.info("Using cached task system.");
+				return cached.get();
+			}
+		}
 		
 		DefaultCompiledTaskSystem setup = new DefaultCompiledTaskSystem(name, getOptions());
 
-		logger.info("Finding path...");
-		for (TaskGroupInformation spec : getPath(imf, new TaskSystemInformation.Builder(FormatIdentifier.with(inputFormat), FormatIdentifier.with(outputFormat)).build(), context)) {
+		if (path==null) {
+			logger.info("Finding path...");
+			path = getPath(graph.get(), new TaskSystemInformation.Builder(FormatIdentifier.with(inputFormat), FormatIdentifier.with(outputFormat)).build(), null);
+		}
+		for (TaskGroupInformation spec : path) {
 			if (spec.getActivity()==TaskGroupActivity.ENHANCE) {
 				// For enhance, only include the options required to enable the task group. Once enabled,
 				// additional options may be presented
@@ -87,9 +127,16 @@ public class DefaultTaskSystem implements TaskSystem {
 						setup.addOption(o);
 					}
 				}
-				setup.addAll(g.compile(h));				
+				List<InternalTask> compiled = g.compile(h);
+				if (costs!=null) {
+					costs.learn(spec, compiled);
+				}
+				setup.addAll(compiled);
 			}
 		}
+		if (cache!=null) {
+			cache.put(key, setup);
+		}
 		return setup;
 	}
 	
@@ -103,57 +150,64 @@ public class DefaultTaskSystem implements TaskSystem {
 	 * @throws TaskSystemException 
 	 */
 	static List<TaskGroupInformation> getPath(TaskGroupFactoryMakerService imf, TaskSystemInformation def, String locale) throws TaskSystemException {
-		Set<TaskGroupInformation> specs = imf.list(locale);
-		Map<String, List<TaskGroupInformation>> byInput = byInput(specs);
+		return getPath(imf, def, locale, null);
+	}
+
+	/**
+	 * Finds a path for the given specifications. If a cost model is supplied,
+	 * the cheapest path is returned, otherwise the shortest.
+	 * @param imf the task group factory maker service
+	 * @param def the specification
+	 * @param locale the target locale
+	 * @param costs the cost model, or null
+	 * @return returns a list of task groups
+	 * @throws TaskSystemException if there is no path
+	 */
+	static List<TaskGroupInformation> getPath(TaskGroupFactoryMakerService imf, TaskSystemInformation def, String locale, TaskGroupCostModel costs) throws TaskSystemException {
+		return getPath(FormatGraph.of(imf.list(locale)), def, costs);
+	}
 
-		return getPathSpecifications(def.getInputType().getIdentifier(), def.getOutputType().getIdentifier(), byInput);
+	/**
+	 * Finds a path in the specified graph. If a cost model is supplied,
+	 * the cheapest path is returned, otherwise the shortest.
+	 * @param graph the format graph
+	 * @param def the specification
+	 * @param costs the cost model, or null
+	 * @return returns a list of task groups
+	 * @throws TaskSystemException if there is no path
+	 */
+	static List<TaskGroupInformation> getPath(FormatGraph graph, TaskSystemInformation def, TaskGroupCostModel costs) throws TaskSystemException {
+		String input = def.getInputType().getIdentifier();
+		String output = def.getOutputType().getIdentifier();
+		if (costs==null) {
+			return getPathSpecifications(input, output, graph);
+		}
+		Map<TaskGroupInformation, Double> c = costs.getCosts(graph.getConverters());
+		return graph.findCheapestPath(input, output, v->c.get(v))
+				.orElseThrow(()->new TaskSystemException("Cannot find path " + input + "->" + output));
 	}
 	
 	/**
 	 * Gets the shortest path that matches the specification (breadth-first search)
 	 * @param input the input format
 	 * @param output the output format
-	 * @param locale the locale
 	 * @param inputs a list of specifications ordered by input format
 	 * @return returns the shortest path
 	 */
-	static List<TaskGroupInformation> getPathSpecifications(String input, String output, Map<String, List<TaskGroupInformation>> _inputs) throws TaskSystemException {
-		// Changed this to an unmodifiable map, just to make sure that it is not modified.
-		Map<String, List<TaskGroupInformation>> inputs = Collections.unmodifiableMap(_inputs);
+	static List<TaskGroupInformation> getPathSpecifications(String input, String output, Map<String, List<TaskGroupInformation>> inputs) throws TaskSystemException {
+		return getPathSpecifications(input, output, FormatGraph.of(inputs.values().stream().flatMap(v->v.stream()).collect(Collectors.toList())));
+	}
 
-		// queue roots
-		List<PathInfo> queue = new ArrayList<>();
-		PathInfo.makePaths(inputs.get(input), Collections.emptyList(), Collections.emptyList())
-				.forEachOrdered(v->queue.add(v));
-		
-		while (!queue.isEmpty()) {
-			PathInfo current = queue.remove(0);
-			TaskGroupInformation candidate = current.getConvert();
-			logger.fine("Evaluating " + candidate.getInputType() + " -> " + candidate.getOutputType());
-			if (candidate.getOutputType().getIdentifier().equals(output)) {
-				List<TaskGroupInformation> ret = new ArrayList<>(current.getPath());
-				ret.addAll(current.getEnhance());
-				ret.add(candidate);
-				List<TaskGroupInformation> enhancers = inputs.get(candidate.getOutputType().getIdentifier());
-				if (enhancers!=null) {
-					ret.addAll(PathInfo.getEnhancers(enhancers));
-				}
-				return ret;
-			} else {
-				// add for later evaluation
-				List<TaskGroupInformation> excl = new ArrayList<>(current.getExclude());
-				excl.add(candidate);
-				List<TaskGroupInformation> x = inputs.get(candidate.getOutputType().getIdentifier());
-				if (x!=null) {
-					List<TaskGroupInformation> info = new ArrayList<>(current.getPath());
-					info.addAll(current.getEnhance());
-					info.add(candidate);
-					PathInfo.makePaths(x, info, excl)
-						.forEachOrdered(v->queue.add(v));
-				}
-			}
-		}
-		throw new TaskSystemException("Cannot find path " + input + "->" + output);
+	/**
+	 * Gets the shortest path that matches the specification (breadth-first search)
+	 * @param input the input format
+	 * @param output the output format
+	 * @param graph the format graph
+	 * @return returns the shortest path
+	 */
+	static List<TaskGroupInformation> getPathSpecifications(String input, String output, FormatGraph graph) throws TaskSystemException {
+		return graph.findPath(input, output)
+				.orElseThrow(()->new TaskSystemException("Cannot find path " + input + "->" + output));
 	}
 	
 	static boolean matchesRequiredOptions(TaskGroupInformation candidate, Map<String, Object> parameters, boolean emptyReturn) {
@@ -173,18 +227,5 @@ public class DefaultTaskSystem implements TaskSystem {
 		}
 		return true;
 	}
-	
-	static Map<String, List<TaskGroupInformation>> byInput(Set<TaskGroupInformation> specs) {
-		Map<String, List<TaskGroupInformation>> ret = new HashMap<>();
-		for (TaskGroupInformation spec : specs) {
-			List<TaskGroupInformation> group = ret.get(spec.getInputType().getIdentifier());
-			if (group==null) {
-				group = new ArrayList<>();
-				ret.put(spec.getInputType().getIdentifier(), group);
-			}
-			group.add(spec);
-		}
-		return ret;
-	}
 
 }
\ No newline at end of file
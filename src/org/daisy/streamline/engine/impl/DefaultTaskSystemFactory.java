@@ -1,17 +1,19 @@
 package org.daisy.streamline.engine.impl;
 
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.daisy.streamline.api.media.FormatIdentifier;
 import org.daisy.streamline.api.tasks.TaskGroupFactoryMaker;
 import org.daisy.streamline.api.tasks.TaskGroupFactoryMakerService;
 import org.daisy.streamline.api.tasks.TaskSystem;
-import org.daisy.streamline.api.tasks.TaskSystemException;
 import org.daisy.streamline.api.tasks.TaskSystemFactory;
 import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
 import org.daisy.streamline.api.tasks.TaskSystemInformation;
+import org.daisy.streamline.engine.TaskHistory;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -21,15 +23,47 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
  * collects possible steps from the task group factory and finds a
  * path through the exisiting task groups, if possible.
  * 
+ * The factory keeps a graph of the available formats for each locale, which
+ * is used to answer queries about supported specifications without searching
+ * for a path every time. Optionally, the task systems created by this factory
+ * can share a cache of compiled task systems, see {@link #setCompiledCacheSize(int)}.
+ * 
  * @author Joel Håkansson
  */
 @Component
 public class DefaultTaskSystemFactory implements TaskSystemFactory {
-	private TaskGroupFactoryMakerService imf;
+	private int compiledCacheSize = 0;
+	// The caches are replaced rather than cleared when the service changes, so that
+	// task systems and graphs built from a previous service are never stored for the
+	// current one
+	private volatile CompiledTaskSystemCache compiledCache = null;
+	private volatile TaskGroupFactoryMakerService imf;
+	private volatile Graphs graphs = new Graphs(null);
+	private volatile TaskGroupCostModel costs = null;
+
+	/**
+	 * Provides the format graphs of a task group factory maker service, by locale.
+	 */
+	private static final class Graphs {
+		private final TaskGroupFactoryMakerService service;
+		private final Map<String, FormatGraph> byLocale = new ConcurrentHashMap<>();
+
+		private Graphs(TaskGroupFactoryMakerService service) {
+			this.service = service;
+		}
+
+		private FormatGraph get(String locale) {
+			return byLocale.computeIfAbsent(locale, l->FormatGraph.of(service.list(l)));
+		}
+	}
 
 	@Override
 	public boolean supportsSpecification(String inputFormat, String outputFormat, String locale) {
-		return supportsSpecification(new TaskSystemInformation.Builder(
+		return supportsSpecification(graphs, inputFormat, outputFormat, locale);
+	}
+
+	private static boolean supportsSpecification(Graphs g, String inputFormat, String outputFormat, String locale) {
+		return supportsSpecification(g, new TaskSystemInformation.Builder(
 				Objects.requireNonNull(FormatIdentifier.with(inputFormat)),
 				Objects.requireNonNull(FormatIdentifier.with(outputFormat)))
 				.locale(Objects.requireNonNull(locale))
@@ -37,13 +71,46 @@ public class DefaultTaskSystemFactory implements TaskSystemFactory {
 		);
 	}
 	
-	private boolean supportsSpecification(TaskSystemInformation x) {	
-		try {
-			DefaultTaskSystem.getPath(imf, x, x.getLocale().get());
-			return true;
-		} catch (TaskSystemException e) {
-			return false;
+	private static boolean supportsSpecification(Graphs g, TaskSystemInformation x) {	
+		return g.get(x.getLocale().get()).hasPath(x.getInputType().getIdentifier(), x.getOutputType().getIdentifier());
+	}
+
+	private FormatGraph getGraph(String locale) {
+		return graphs.get(locale);
+	}
+
+	private synchronized void setService(TaskGroupFactoryMakerService service) {
+		this.imf = service;
+		this.graphs = new Graphs(service);
+		resetCompiledCache();
+	}
+
+	private synchronized void resetCompiledCache() {
+		this.compiledCache = compiledCacheSize>0?new CompiledTaskSystemCache(compiledCacheSize):null;
+	}
+
+	/**
+	 * Sets the number of compiled task systems to keep in a cache shared by the task
+	 * systems created by this factory. When a task system is compiled again with the
+	 * same parameters, the cached task list is returned instead of compiling the task
+	 * groups again. The list is copied, but the tasks in it are the same instances as
+	 * in earlier compilations, and may be used by concurrent runs. Therefore, the cache
+	 * should only be enabled if all tasks are stateless.
+	 * 
+	 * The cache is cleared when the task group factory maker service is set or unset,
+	 * but not when the task groups provided by the service change. In that case,
+	 * call this method again to clear the cache.
+	 * 
+	 * The cache is disabled by default.
+	 * @param size the maximum number of compiled task systems, or 0 to disable the cache
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public synchronized void setCompiledCacheSize(int size) {
+		if (size<0) {
+			throw new IllegalArgumentException("Value out of range: " + size);
 		}
+		this.compiledCacheSize = size;
+		resetCompiledCache();
 	}
 
 	@Override
@@ -58,25 +125,24 @@ public class DefaultTaskSystemFactory implements TaskSystemFactory {
 
 	@Override
 	public Set<TaskSystemInformation> listForInput(FormatIdentifier input, String locale) {
-		return imf.listAll().stream()
-			.map(v->new TaskSystemInformation.Builder(input, v.getOutputType()).locale(locale).build())
-			.filter(v->supportsSpecification(v))
+		return getGraph(locale).listReachableFrom(input.getIdentifier()).stream()
+			.map(v->new TaskSystemInformation.Builder(input, FormatIdentifier.with(v)).locale(locale).build())
 			.collect(Collectors.toSet());
 	}
 
 	@Override
 	public Set<TaskSystemInformation> listForOutput(FormatIdentifier output, String locale) {
-		return imf.listAll().stream()
-				.map(v->new TaskSystemInformation.Builder(v.getInputType(), output).locale(locale).build())
-				.filter(v->supportsSpecification(v))
+		return getGraph(locale).listReaching(output.getIdentifier()).stream()
+				.map(v->new TaskSystemInformation.Builder(FormatIdentifier.with(v), output).locale(locale).build())
 				.collect(Collectors.toSet());
 	}
 
 	@Override
 	public TaskSystem newTaskSystem(String inputFormat, String outputFormat, String locale)
 			throws TaskSystemFactoryException {
-		if (supportsSpecification(inputFormat, outputFormat, locale)) {
-			return new DefaultTaskSystem("Default Task System", inputFormat, outputFormat, locale, imf);
+		Graphs g = graphs;
+		if (supportsSpecification(g, inputFormat, outputFormat, locale)) {
+			return new DefaultTaskSystem("Default Task System", inputFormat, outputFormat, locale, g.service, ()->g.get(locale), compiledCache, costs);
 		}
 		throw new TaskSystemFactoryException("Unsupported specification: " + locale + "(" + inputFormat + "->" + outputFormat + ")");
 	}
@@ -92,13 +158,46 @@ public class DefaultTaskSystemFactory implements TaskSystemFactory {
 		return Integer.MIN_VALUE+47382;
 	}
 
+	/**
+	 * Sets a task history to base the choice of conversion path on. When set,
+	 * task systems created by this factory select the path with the lowest
+	 * expected execution time instead of the path with the fewest steps. The
+	 * execution times should be recorded by a task runner using the same history,
+	 * see {@link org.daisy.streamline.engine.TaskRunner.Builder#taskHistory(TaskHistory)}.
+	 * 
+	 * Note that a task group's cost is known only after it has been compiled by a
+	 * task system from this factory, and after its tasks have been run. Until then,
+	 * a fixed cost of {@value TaskGroupCostModel#DEFAULT_COST} ms is used, so that
+	 * paths of unmeasured task groups are tried before a slow path is selected again.
+	 * The path is selected each time a task system is compiled, and a cached
+	 * compiled task system is only used if it has the same path.
+	 * @param history the task history, or null to select the shortest path
+	 */
+	public void setTaskHistory(TaskHistory history) {
+		setTaskHistory(history, TaskGroupCostModel.DEFAULT_COST);
+	}
+
+	/**
+	 * Sets a task history to base the choice of conversion path on, with the
+	 * specified cost for task groups without measured execution times. A higher
+	 * cost makes unmeasured paths less likely to be tried.
+	 * @param history the task history, or null to select the shortest path
+	 * @param unknownGroupCost the cost of a task group without measured execution times, in milliseconds
+	 * @throws IllegalArgumentException if the cost is not positive
+	 * @see #setTaskHistory(TaskHistory)
+	 */
+	public synchronized void setTaskHistory(TaskHistory history, double unknownGroupCost) {
+		this.costs = history==null?null:new TaskGroupCostModel(history, unknownGroupCost);
+		resetCompiledCache();
+	}
+
 	/**
 	 * Sets a factory dependency.
 	 * @param service the dependency
 	 */
 	@Reference(cardinality=ReferenceCardinality.MANDATORY)
 	public void setInputManagerFactory(TaskGroupFactoryMakerService service) {
-		this.imf = service;
+		setService(service);
 	}
 
 	/**
@@ -106,13 +205,13 @@ public class DefaultTaskSystemFactory implements TaskSystemFactory {
 	 * @param service the dependency to remove
 	 */
 	public void unsetInputManagerFactory(TaskGroupFactoryMakerService service) {
-		this.imf = null;
+		setService(null);
 	}
 
 	@Override
-	public void setCreatedWithSPI() {
+	public synchronized void setCreatedWithSPI() {
 		if (imf == null) {
-			imf = TaskGroupFactoryMaker.newInstance();
+			setService(TaskGroupFactoryMaker.newInstance());
 		}
 	}
 
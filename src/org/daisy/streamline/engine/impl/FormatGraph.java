@@ -0,0 +1,346 @@
+package org.daisy.streamline.engine.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.streamline.api.tasks.TaskGroupActivity;
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+
+/**
+ * Provides a graph of formats, where each converting task group is an edge from
+ * its input format to its output format. Enhancing task groups are attached to
+ * the format they enhance. Formats are mapped to integers so that the graph can
+ * be traversed using arrays and bit sets.
+ * 
+ * The graph also provides a reachability index, which is computed once per
+ * format when it is first needed. Instances are immutable, apart from the
+ * index, and thread safe.
+ * 
+ * @author Joel Håkansson
+ */
+final class FormatGraph {
+	private static final Logger logger = Logger.getLogger(FormatGraph.class.getCanonicalName());
+	private final Map<String, Integer> ids;
+	private final String[] formats;
+	// Converters by input format, in the order they were supplied
+	private final int[][] out;
+	// Converters by output format
+	private final int[][] in;
+	private final TaskGroupInformation[] edges;
+	private final int[] edgeFrom;
+	private final int[] edgeTo;
+	private final List<List<TaskGroupInformation>> enhancers;
+	private final BitSet[] forward;
+	private final BitSet[] backward;
+
+	private FormatGraph(Collection<TaskGroupInformation> specs) {
+		this.ids = new HashMap<>();
+		List<String> f = new ArrayList<>();
+		List<TaskGroupInformation> e = new ArrayList<>();
+		List<List<Integer>> outList = new ArrayList<>();
+		List<List<Integer>> inList = new ArrayList<>();
+		List<List<TaskGroupInformation>> enh = new ArrayList<>();
+		for (TaskGroupInformation spec : specs) {
+			int from = id(spec.getInputType().getIdentifier(), f, outList, inList, enh);
+			if (spec.getActivity()==TaskGroupActivity.CONVERT) {
+				int to = id(spec.getOutputType().getIdentifier(), f, outList, inList, enh);
+				outList.get(from).add(e.size());
+				inList.get(to).add(e.size());
+				e.add(spec);
+			} else if (spec.getActivity()==TaskGroupActivity.ENHANCE) {
+				enh.get(from).add(spec);
+			}
+		}
+		this.formats = f.toArray(new String[f.size()]);
+		this.edges = e.toArray(new TaskGroupInformation[e.size()]);
+		this.edgeFrom = new int[edges.length];
+		this.edgeTo = new int[edges.length];
+		for (int i=0; i<edges.length; i++) {
+			edgeFrom[i] = ids.get(edges[i].getInputType().getIdentifier());
+			edgeTo[i] = ids.get(edges[i].getOutputType().getIdentifier());
+		}
+		this.out = toArrays(outList);
+		this.in = toArrays(inList);
+		List<List<TaskGroupInformation>> enhancersList = new ArrayList<>();
+		for (List<TaskGroupInformation> l : enh) {
+			enhancersList.add(Collections.unmodifiableList(l));
+		}
+		this.enhancers = Collections.unmodifiableList(enhancersList);
+		this.forward = new BitSet[formats.length];
+		this.backward = new BitSet[formats.length];
+	}
+
+	/**
+	 * Creates a new format graph.
+	 * @param specs the task groups
+	 * @return returns a new format graph
+	 */
+	static FormatGraph of(Collection<TaskGroupInformation> specs) {
+		return new FormatGraph(specs);
+	}
+
+	private int id(String format, List<String> f, List<List<Integer>> outList, List<List<Integer>> inList, List<List<TaskGroupInformation>> enh) {
+		Integer ret = ids.get(format);
+		if (ret==null) {
+			ret = f.size();
+			ids.put(format, ret);
+			f.add(format);
+			outList.add(new ArrayList<>());
+			inList.add(new ArrayList<>());
+			enh.add(new ArrayList<>());
+		}
+		return ret;
+	}
+
+	private static int[][] toArrays(List<List<Integer>> list) {
+		int[][] ret = new int[list.size()][];
+		for (int i=0; i<ret.length; i++) {
+			ret[i] = list.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns true if there is a path of at least one converter from the input format
+	 * to the output format.
+	 * @param input the input format
+	 * @param output the output format
+	 * @return true if there is a path, false otherwise
+	 */
+	boolean hasPath(String input, String output) {
+		Integer from = ids.get(input);
+		Integer to = ids.get(output);
+		return from!=null && to!=null && reachableFrom(from).get(to);
+	}
+
+	/**
+	 * Lists the formats that can be reached with at least one converter from the input format.
+	 * @param input the input format
+	 * @return returns the formats
+	 */
+	List<String> listReachableFrom(String input) {
+		Integer from = ids.get(input);
+		return from==null?Collections.emptyList():toFormats(reachableFrom(from));
+	}
+
+	/**
+	 * Lists the formats from which there is a path of at least one converter to the output format.
+	 * @param output the output format
+	 * @return returns the formats
+	 */
+	List<String> listReaching(String output) {
+		Integer to = ids.get(output);
+		return to==null?Collections.emptyList():toFormats(reaching(to));
+	}
+
+	private List<String> toFormats(BitSet bs) {
+		List<String> ret = new ArrayList<>(bs.cardinality());
+		for (int i = bs.nextSetBit(0); i>=0; i = bs.nextSetBit(i+1)) {
+			ret.add(formats[i]);
+		}
+		return ret;
+	}
+
+	private synchronized BitSet reachableFrom(int node) {
+		if (forward[node]==null) {
+			forward[node] = traverse(node, out, edgeTo);
+		}
+		return forward[node];
+	}
+
+	private synchronized BitSet reaching(int node) {
+		if (backward[node]==null) {
+			backward[node] = traverse(node, in, edgeFrom);
+		}
+		return backward[node];
+	}
+
+	/**
+	 * Finds the nodes that can be reached from the start node by following at least one edge.
+	 */
+	private static BitSet traverse(int start, int[][] adjacent, int[] target) {
+		BitSet ret = new BitSet();
+		Queue<Integer> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			for (int e : adjacent[queue.remove()]) {
+				int n = target[e];
+				if (!ret.get(n)) {
+					ret.set(n);
+					queue.add(n);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds the shortest path of converters from the input format to the output format,
+	 * using a breadth-first search over the converters. If there are several shortest paths,
+	 * the first one found is returned, where converters are visited in the order they were
+	 * supplied.
+	 * 
+	 * The returned list contains, for each converter in the path, the enhancers of its input
+	 * format followed by the converter itself. The enhancers of the output format are added
+	 * last.
+	 * 
+	 * @param input the input format
+	 * @param output the output format
+	 * @return returns the path, or an empty optional if there is no path
+	 */
+	Optional<List<TaskGroupInformation>> findPath(String input, String output) {
+		Integer from = ids.get(input);
+		Integer to = ids.get(output);
+		if (from==null || to==null) {
+			return Optional.empty();
+		}
+		int[] parent = new int[edges.length];
+		// A format is expanded once. Since the search is breadth first, the first time a format is
+		// reached is also via the shortest path, so expanding it again cannot yield a better result.
+		BitSet expanded = new BitSet(formats.length);
+		Queue<Integer> queue = new ArrayDeque<>();
+		expanded.set(from);
+		for (int e : out[from]) {
+			parent[e] = -1;
+			queue.add(e);
+		}
+		while (!queue.isEmpty()) {
+			int current = queue.remove();
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Evaluating " + edges[current].getInputType() + " -> " + edges[current].getOutputType());
+			}
+			int n = edgeTo[current];
+			if (n==to) {
+				return Optional.of(toPath(current, parent));
+			} else if (!expanded.get(n)) {
+				expanded.set(n);
+				for (int e : out[n]) {
+					parent[e] = current;
+					queue.add(e);
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	private List<TaskGroupInformation> toPath(int last, int[] parent) {
+		Deque<Integer> path = new ArrayDeque<>();
+		for (int e = last; e>=0; e = parent[e]) {
+			path.push(e);
+		}
+		List<TaskGroupInformation> ret = new ArrayList<>();
+		for (int e : path) {
+			ret.addAll(enhancers.get(edgeFrom[e]));
+			ret.add(edges[e]);
+		}
+		ret.addAll(enhancers.get(edgeTo[last]));
+		return ret;
+	}
+
+	/**
+	 * Gets the converters in this graph.
+	 * @return returns the converters
+	 */
+	List<TaskGroupInformation> getConverters() {
+		return Collections.unmodifiableList(Arrays.asList(edges));
+	}
+
+	/**
+	 * Finds the cheapest path of converters from the input format to the output format,
+	 * using Dijkstra's algorithm over the converters. If there are several cheapest
+	 * paths, the one found first is returned. Since converters with the same cost are
+	 * visited in the order that they are found, the result is the same as for
+	 * {@link #findPath(String, String)} when all converters have the same cost.
+	 * 
+	 * The returned list is structured in the same way as for {@link #findPath(String, String)}.
+	 * 
+	 * @param input the input format
+	 * @param output the output format
+	 * @param cost the cost of each converter, must not be negative
+	 * @return returns the path, or an empty optional if there is no path
+	 */
+	Optional<List<TaskGroupInformation>> findCheapestPath(String input, String output, ToDoubleFunction<TaskGroupInformation> cost) {
+		Integer from = ids.get(input);
+		Integer to = ids.get(output);
+		if (from==null || to==null) {
+			return Optional.empty();
+		}
+		int[] parent = new int[edges.length];
+		double[] dist = new double[edges.length];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		BitSet settled = new BitSet(edges.length);
+		BitSet expanded = new BitSet(formats.length);
+		PriorityQueue<QueueItem> queue = new PriorityQueue<>();
+		long[] seq = new long[]{0};
+		expanded.set(from);
+		for (int e : out[from]) {
+			relax(e, -1, 0, cost, parent, dist, queue, seq);
+		}
+		while (!queue.isEmpty()) {
+			QueueItem item = queue.remove();
+			int current = item.edge;
+			if (settled.get(current) || item.dist>dist[current]) {
+				continue;
+			}
+			settled.set(current);
+			int n = edgeTo[current];
+			if (n==to) {
+				return Optional.of(toPath(current, parent));
+			} else if (!expanded.get(n)) {
+				// The first settled converter into a format is also the cheapest one
+				expanded.set(n);
+				for (int e : out[n]) {
+					if (!settled.get(e)) {
+						relax(e, current, dist[current], cost, parent, dist, queue, seq);
+					}
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	private void relax(int e, int p, double base, ToDoubleFunction<TaskGroupInformation> cost, int[] parent, double[] dist, PriorityQueue<QueueItem> queue, long[] seq) {
+		double c = cost.applyAsDouble(edges[e]);
+		if (c<0 || Double.isNaN(c)) {
+			throw new IllegalArgumentException("Invalid cost for " + edges[e] + ": " + c);
+		}
+		double d = base + c;
+		if (d<dist[e]) {
+			dist[e] = d;
+			parent[e] = p;
+			queue.add(new QueueItem(e, d, seq[0]++));
+		}
+	}
+
+	private static final class QueueItem implements Comparable<QueueItem> {
+		private final int edge;
+		private final double dist;
+		private final long seq;
+
+		private QueueItem(int edge, double dist, long seq) {
+			this.edge = edge;
+			this.dist = dist;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(QueueItem o) {
+			int ret = Double.compare(dist, o.dist);
+			return ret!=0?ret:Long.compare(seq, o.seq);
+		}
+	}
+}
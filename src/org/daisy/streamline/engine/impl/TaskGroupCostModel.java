@@ -0,0 +1,100 @@
+package org.daisy.streamline.engine.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+import org.daisy.streamline.engine.TaskHistory;
+
+/**
+ * Provides an estimate of the cost of running a task group, based on the
+ * execution times recorded in a {@link TaskHistory}. The history is keyed on
+ * task names, so the model learns which tasks a task group consists of when
+ * the task group is compiled.
+ *
+ * The cost of a task group is the sum of the average execution times of its
+ * tasks, in milliseconds. If the tasks of a task group are unknown, or if any
+ * of them lacks a recorded execution time, a fixed cost is used instead. By default,
+ * the fixed cost is {@value #DEFAULT_COST}, which makes a path of unmeasured task
+ * groups cheaper than a measured path that takes more than a few milliseconds.
+ * This way, alternative paths are tried, and thereby measured, before a slow path
+ * is selected again. If no task group has a known cost, the cheapest path is the
+ * one with the fewest steps.
+ *
+ * @author Joel Håkansson
+ */
+class TaskGroupCostModel {
+	static final double DEFAULT_COST = 1;
+	private final TaskHistory history;
+	private final double unknownCost;
+	private final Map<TaskGroupInformation, List<String>> tasks;
+
+	/**
+	 * Creates a new cost model with the default cost for unmeasured task groups.
+	 * @param history the task history
+	 */
+	TaskGroupCostModel(TaskHistory history) {
+		this(history, DEFAULT_COST);
+	}
+
+	/**
+	 * Creates a new cost model.
+	 * @param history the task history
+	 * @param unknownCost the cost of a task group without a measured cost, in milliseconds
+	 * @throws IllegalArgumentException if the cost is not positive
+	 */
+	TaskGroupCostModel(TaskHistory history, double unknownCost) {
+		if (!(unknownCost>0)) {
+			throw new IllegalArgumentException("Value out of range: " + unknownCost);
+		}
+		this.history = Objects.requireNonNull(history);
+		this.unknownCost = unknownCost;
+		this.tasks = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Registers the tasks that a task group compiled into.
+	 * @param spec the task group
+	 * @param compiled the tasks
+	 */
+	void learn(TaskGroupInformation spec, List<InternalTask> compiled) {
+		List<String> names = new ArrayList<>();
+		for (InternalTask t : compiled) {
+			names.add(t.getName());
+		}
+		tasks.put(spec, Collections.unmodifiableList(names));
+	}
+
+	/**
+	 * Gets the cost of the task groups in the specified collection.
+	 * @param specs the task groups
+	 * @return returns a map of costs
+	 */
+	Map<TaskGroupInformation, Double> getCosts(Iterable<TaskGroupInformation> specs) {
+		Map<TaskGroupInformation, Double> ret = new HashMap<>();
+		for (TaskGroupInformation spec : specs) {
+			List<String> names = tasks.get(spec);
+			ret.put(spec, names==null?unknownCost:measured(names).orElse(unknownCost));
+		}
+		return ret;
+	}
+
+	private OptionalDouble measured(List<String> names) {
+		double ret = 0;
+		for (String name : names) {
+			OptionalDouble avg = history.getAverage(name);
+			if (!avg.isPresent()) {
+				return OptionalDouble.empty();
+			}
+			ret += avg.getAsDouble() / 1000000d;
+		}
+		return OptionalDouble.of(ret);
+	}
+}
@@ -0,0 +1,57 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@SuppressWarnings("javadoc")
+public class FlightRecorderTest {
+
+	@Test
+	public void testEventsAreRecorded() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		Path file = Files.createTempFile(this.getClass().getName(), ".jfr");
+		try {
+			try (Recording recording = new Recording()) {
+				recording.enable("org.daisy.streamline.engine.Task");
+				recording.enable("org.daisy.streamline.engine.TempSpace");
+				recording.start();
+				TaskRunner.withName("Test").build()
+					.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a")));
+				recording.stop();
+				recording.dump(file);
+			}
+			List<String> tasks = new ArrayList<>();
+			List<String> operations = new ArrayList<>();
+			for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+				String type = e.getEventType().getName();
+				if ("org.daisy.streamline.engine.Task".equals(type)) {
+					tasks.add(e.getString("name"));
+				} else if ("org.daisy.streamline.engine.TempSpace".equals(type)) {
+					operations.add(e.getString("operation"));
+				}
+			}
+			assertEquals(Arrays.asList("Append a"), tasks);
+			assertTrue(operations.contains("close"));
+			assertEquals("xa", TestTasks.read(out));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
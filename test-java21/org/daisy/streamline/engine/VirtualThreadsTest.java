@@ -0,0 +1,43 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class VirtualThreadsTest {
+
+	@Test
+	public void testThreadPerTaskExecutor() throws InterruptedException, ExecutionException {
+		assertTrue(VirtualThreads.isSupported());
+		ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test").get();
+		try {
+			assertTrue(executor.submit(()->Thread.currentThread().isVirtual()).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchVirtualThreads() throws IOException, InterruptedException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		AtomicBoolean virtual = new AtomicBoolean();
+		List<BatchTaskRunner.Result> res = new BatchTaskRunner.Builder(TaskRunner.withName("Test")).virtualThreads(true).build()
+				.runTasks(Arrays.asList(BatchTaskRunner.Job.with(DefaultAnnotatedFile.with(in).build(), out)),
+						Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.ReadTask(v->virtual.set(Thread.currentThread().isVirtual()))));
+		assertTrue(res.get(0).isSuccess());
+		assertTrue(virtual.get());
+		assertEquals("xa", TestTasks.read(out));
+	}
+}
@@ -0,0 +1,138 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class AsyncTempFileWriterTest {
+
+	@Test
+	public void testWriteAfterSourceChanged() throws IOException, InterruptedException {
+		List<String> values = Collections.synchronizedList(new ArrayList<>());
+		TempFileWriter w = new TempFileWriter() {
+			@Override
+			public void writeTempFile(File source, String identifier) throws IOException {
+				values.add(identifier + ":" + TestTasks.read(source));
+			}
+			@Override
+			public void writeTempFolder(Path source, String identifier) throws IOException {
+				values.add(identifier + ":" + TestTasks.read(source.resolve("f").toFile()));
+			}
+			@Override
+			public void deleteTempFiles() {}
+		};
+		File f = TestTasks.newTempFile("a");
+		Path dir = Files.createTempDirectory(getClass().getName());
+		TestTasks.write(dir.resolve("f").toFile(), "b");
+		try (AsyncTempFileWriter async = new AsyncTempFileWriter.Builder(w).build()) {
+			async.writeTempFile(f, "1");
+			async.writeTempFolder(dir, "2");
+			// Replace the sources, like the temp file handler does
+			Files.delete(f.toPath());
+			TestTasks.write(f, "c");
+			Files.delete(dir.resolve("f"));
+			async.flush();
+			assertEquals(0, async.getPendingCount());
+			assertEquals(2, async.getWrittenCount());
+		}
+		assertEquals("[1:a, 2:b]", values.toString());
+		assertEquals(0, countSnapshots(f.toPath()) + countSnapshots(dir));
+		PathTools.deleteRecursive(dir);
+	}
+
+	@Test
+	public void testDropWhenFull() throws IOException, InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		TempFileWriter w = new TempFileWriter() {
+			@Override
+			public void writeTempFile(File source, String identifier) throws IOException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			@Override
+			public void writeTempFolder(Path source, String identifier) throws IOException {}
+			@Override
+			public void deleteTempFiles() {}
+		};
+		File f = TestTasks.newTempFile("a");
+		try (AsyncTempFileWriter async = new AsyncTempFileWriter.Builder(w)
+				.capacity(1)
+				.overflowPolicy(AsyncTempFileWriter.OverflowPolicy.DROP)
+				.build()) {
+			async.writeTempFile(f, "1");
+			started.await();
+			async.writeTempFile(f, "2");
+			async.writeTempFile(f, "3");
+			async.writeTempFile(f, "4");
+			assertEquals(2, async.getDroppedCount());
+			release.countDown();
+			async.flush();
+			assertEquals(2, async.getWrittenCount());
+		}
+	}
+
+	@Test
+	public void testSampleWhenFull() throws IOException, InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		TempFileWriter w = new TempFileWriter() {
+			boolean first = true;
+			@Override
+			public void writeTempFile(File source, String identifier) throws IOException {
+				if (first) {
+					first = false;
+					started.countDown();
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+			}
+			@Override
+			public void writeTempFolder(Path source, String identifier) throws IOException {}
+			@Override
+			public void deleteTempFiles() {}
+		};
+		File f = TestTasks.newTempFile("a");
+		try (AsyncTempFileWriter async = new AsyncTempFileWriter.Builder(w)
+				.capacity(1)
+				.overflowPolicy(AsyncTempFileWriter.OverflowPolicy.SAMPLE)
+				.sampleRate(3)
+				.build()) {
+			async.writeTempFile(f, "1");
+			started.await();
+			async.writeTempFile(f, "2");
+			// The queue is full: the first overflow is kept (waits), the next two are dropped
+			async.writeTempFile(f, "3");
+			async.writeTempFile(f, "4");
+			async.writeTempFile(f, "5");
+			async.flush();
+			assertTrue(async.getDroppedCount()>=1);
+			assertEquals(5, async.getWrittenCount() + async.getDroppedCount());
+		}
+	}
+
+	private static long countSnapshots(Path p) throws IOException {
+		String prefix = p.getFileName() + ".snapshot-";
+		try (Stream<Path> s = Files.list(p.getParent())) {
+			return s.filter(v->v.getFileName().toString().startsWith(prefix)).count();
+		}
+	}
+}
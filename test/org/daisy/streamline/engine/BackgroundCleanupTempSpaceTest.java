@@ -0,0 +1,62 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class BackgroundCleanupTempSpaceTest {
+
+	@Test
+	public void testClear() throws IOException, InterruptedException {
+		try (BackgroundCleanupTempSpace space = new BackgroundCleanupTempSpace.Builder().build()) {
+			Path p = space.newTempFolder();
+			for (int i=0; i<10; i++) {
+				for (int j=0; j<100; j++) {
+					TestTasks.write(p.resolve("file" + j).toFile(), "test");
+				}
+				space.clearTempFolder(p);
+				assertTrue(Files.isDirectory(p));
+				assertEquals(0, Files.list(p).count());
+			}
+			assertTrue(space.awaitIdle(10000));
+			assertEquals(10, space.getDeletedCount() + space.getSynchronousCount());
+			assertEquals(0, space.getFailedCount());
+			assertEquals(1, Files.list(p.getParent()).filter(v->v.getFileName().toString().startsWith(p.getFileName().toString())).count());
+			space.releaseTempFolder(p);
+			assertTrue(space.awaitIdle(10000));
+			assertFalse(Files.exists(p));
+		}
+	}
+
+	@Test
+	public void testTempFolderHandler() throws IOException, InterruptedException {
+		try (BackgroundCleanupTempSpace space = new BackgroundCleanupTempSpace.Builder().capacity(1).build()) {
+			Path out = Files.createTempFile("temp", ".tmp");
+			out.toFile().deleteOnExit();
+			TempFolderHandler tf = new TempFolderHandler(f->{
+				try {
+					PathTools.copy(f.resolve("x"), out);
+					return Optional.empty();
+				} catch (IOException e) {
+					return Optional.of(e);
+				}
+			}, space);
+			for (int i=0; i<5; i++) {
+				TestTasks.write(tf.getOutput().resolve("x").toFile(), "test" + i);
+				tf.reset();
+				assertEquals(0, Files.list(tf.getOutput()).count());
+			}
+			tf.close();
+			assertTrue(space.awaitIdle(10000));
+			assertEquals("test4", TestTasks.read(out.toFile()));
+		}
+	}
+}
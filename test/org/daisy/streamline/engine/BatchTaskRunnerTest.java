@@ -0,0 +1,77 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class BatchTaskRunnerTest {
+
+	@Test
+	public void testBatch() throws IOException, InterruptedException {
+		List<BatchTaskRunner.Job> jobs = new ArrayList<>();
+		List<File> outputs = new ArrayList<>();
+		for (int i=0; i<10; i++) {
+			File in = File.createTempFile(this.getClass().getName(), ".tmp");
+			in.deleteOnExit();
+			Files.write(in.toPath(), ("job" + i).getBytes(StandardCharsets.UTF_8));
+			File out = File.createTempFile(this.getClass().getName(), ".tmp");
+			out.deleteOnExit();
+			outputs.add(out);
+			jobs.add(BatchTaskRunner.Job.with(DefaultAnnotatedFile.with(in).build(), out));
+		}
+		List<InternalTask> tasks = Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("b"));
+		List<BatchTaskRunner.Result> res = new BatchTaskRunner.Builder(TaskRunner.withName("Test")).threads(3).build().runTasks(jobs, tasks);
+		assertEquals(10, res.size());
+		for (int i=0; i<10; i++) {
+			assertTrue(res.get(i).isSuccess());
+			assertEquals(2, res.get(i).getResults().get().getResults().size());
+			assertEquals("job" + i + "ab", new String(Files.readAllBytes(outputs.get(i).toPath()), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testBatchVirtualThreadsFallback() throws IOException, InterruptedException {
+		// virtual threads are tested in the Java 21 layer, here the platform thread fallback is used
+		assertFalse(VirtualThreads.isSupported());
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		List<BatchTaskRunner.Result> res = new BatchTaskRunner.Builder(TaskRunner.withName("Test")).virtualThreads(true).build()
+				.runTasks(Arrays.asList(BatchTaskRunner.Job.with(DefaultAnnotatedFile.with(in).build(), out)), Arrays.asList(new TestTasks.AppendTask("a")));
+		assertTrue(res.get(0).isSuccess());
+		assertEquals("xa", TestTasks.read(out));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSharedTempFileWriter() {
+		new BatchTaskRunner.Builder(TaskRunner.withName("Test").writeTempFiles(true)
+				.tempFileWriter(new DefaultTempFileWriter.Builder().build())).build();
+	}
+
+	@Test
+	public void testBatchWithFailure() throws IOException, InterruptedException {
+		File in = File.createTempFile(this.getClass().getName(), ".tmp");
+		in.deleteOnExit();
+		Files.write(in.toPath(), "x".getBytes(StandardCharsets.UTF_8));
+		File out = File.createTempFile(this.getClass().getName(), ".tmp");
+		out.deleteOnExit();
+		List<InternalTask> tasks = Arrays.asList(new TestTasks.AppendTask(null));
+		List<BatchTaskRunner.Result> res = new BatchTaskRunner.Builder(TaskRunner.withName("Test")).build()
+				.runTasks(Arrays.asList(BatchTaskRunner.Job.with(DefaultAnnotatedFile.with(in).build(), out)), tasks);
+		assertFalse(res.get(0).isSuccess());
+		assertTrue(res.get(0).getException().get() instanceof InternalTaskException);
+	}
+}
@@ -0,0 +1,119 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ContentAddressedTempFileWriterTest {
+
+	@Test
+	public void testWriteAndRestore() throws IOException {
+		Path store = Files.createTempDirectory(getClass().getName());
+		Path source = Files.createTempDirectory(getClass().getName());
+		Path target = Files.createTempDirectory(getClass().getName());
+		try {
+			Files.createDirectories(source.resolve("img"));
+			TestTasks.write(source.resolve("img").resolve("a.png").toFile(), "image");
+			TestTasks.write(source.resolve("b.xml").toFile(), "1");
+			ContentAddressedTempFileWriter w = new ContentAddressedTempFileWriter.Builder(store).prefix("test").build();
+			w.writeTempFolder(source, "step 1");
+			TestTasks.write(source.resolve("b.xml").toFile(), "2");
+			w.writeTempFolder(source, "step 2");
+			File f = TestTasks.newTempFile("1");
+			w.writeTempFile(f, "step 3");
+			// a.png is only stored once and the file in step 3 has the same contents as b.xml in step 1
+			assertEquals(3, w.getBlobsWritten());
+			assertEquals(2, w.getBlobsReused());
+			List<String> snapshots = w.listSnapshots();
+			assertEquals(3, snapshots.size());
+			assertTrue(snapshots.get(0).endsWith("-001-step_1"));
+
+			w.restore(snapshots.get(0), target);
+			assertEquals("image", TestTasks.read(target.resolve("img").resolve("a.png").toFile()));
+			assertEquals("1", TestTasks.read(target.resolve("b.xml").toFile()));
+			Path restored = target.resolve("restored.txt");
+			w.restore(snapshots.get(2), restored);
+			assertEquals("1", TestTasks.read(restored.toFile()));
+
+			w.deleteTempFiles();
+			assertTrue(w.listSnapshots().isEmpty());
+			w.deleteUnreferencedBlobs();
+			try (Stream<Path> blobs = Files.walk(store.resolve("blobs"))) {
+				assertFalse(blobs.anyMatch(Files::isRegularFile));
+			}
+		} finally {
+			PathTools.deleteRecursive(store);
+			PathTools.deleteRecursive(source);
+			PathTools.deleteRecursive(target);
+		}
+	}
+
+	@Test
+	public void testUnchangedFolderIsNotWritten() throws IOException, InterruptedException {
+		Path store = Files.createTempDirectory(getClass().getName());
+		Path source = Files.createTempDirectory(getClass().getName());
+		try {
+			TestTasks.write(source.resolve("a.xml").toFile(), "a");
+			TestTasks.write(source.resolve("b.xml").toFile(), "b");
+			ContentAddressedTempFileWriter w = new ContentAddressedTempFileWriter.Builder(store).build();
+			w.writeTempFolder(source, "step 1");
+			Map<Path, FileTime> before = modificationTimes(store.resolve("blobs"));
+			// make sure that a write would change the modification times
+			Thread.sleep(20);
+			w.writeTempFolder(source, "step 2");
+			assertEquals(2, w.getBlobsWritten());
+			assertEquals(2, w.getBlobsReused());
+			// neither blobs nor temporary files have been created in the blob folders
+			assertEquals(before, modificationTimes(store.resolve("blobs")));
+		} finally {
+			PathTools.deleteRecursive(store);
+			PathTools.deleteRecursive(source);
+		}
+	}
+
+	@Test
+	public void testSharedStore() throws IOException {
+		Path store = Files.createTempDirectory(getClass().getName());
+		try {
+			ContentAddressedTempFileWriter w1 = new ContentAddressedTempFileWriter.Builder(store).prefix("one").build();
+			ContentAddressedTempFileWriter w2 = new ContentAddressedTempFileWriter.Builder(store).prefix("two").build();
+			w1.writeTempFile(TestTasks.newTempFile("a"), "step 1");
+			w2.writeTempFile(TestTasks.newTempFile("a"), "step 1");
+			w2.writeTempFile(TestTasks.newTempFile("b"), "step 2");
+			// a successful run of one writer does not affect the snapshots of the other
+			w1.deleteTempFiles();
+			List<String> snapshots = w2.listSnapshots();
+			assertEquals(2, snapshots.size());
+			Path restored = store.resolve("restored.txt");
+			w2.restore(snapshots.get(0), restored);
+			assertEquals("a", TestTasks.read(restored.toFile()));
+			w2.restore(snapshots.get(1), restored);
+			assertEquals("b", TestTasks.read(restored.toFile()));
+		} finally {
+			PathTools.deleteRecursive(store);
+		}
+	}
+
+	private static Map<Path, FileTime> modificationTimes(Path folder) throws IOException {
+		Map<Path, FileTime> ret = new TreeMap<>();
+		try (Stream<Path> s = Files.walk(folder)) {
+			for (Path p : (Iterable<Path>)s::iterator) {
+				ret.put(p, Files.getLastModifiedTime(p));
+			}
+		}
+		return ret;
+	}
+}
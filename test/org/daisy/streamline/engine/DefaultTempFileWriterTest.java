@@ -0,0 +1,77 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class DefaultTempFileWriterTest {
+
+	@Test
+	public void testArchive() throws IOException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		Path source = Files.createTempDirectory(getClass().getName());
+		Files.createDirectories(source.resolve("sub"));
+		TestTasks.write(source.resolve("a.xml").toFile(), "a");
+		TestTasks.write(source.resolve("sub").resolve("b.xml").toFile(), "b");
+		File f = TestTasks.newTempFile("c");
+		List<String> names = new ArrayList<>();
+		try (DefaultTempFileWriter w = new DefaultTempFileWriter.Builder()
+				.prefix("test")
+				.tempFilesFolder(folder.toFile())
+				.archive(true)
+				.build()) {
+			w.writeTempFile(f, "step one");
+			w.writeTempFolder(source, "step two");
+			w.close();
+			File[] files = folder.toFile().listFiles();
+			assertEquals(1, files.length);
+			try (ZipFile zip = new ZipFile(files[0])) {
+				for (ZipEntry e : Collections.list(zip.entries())) {
+					names.add(e.getName().replaceAll("^test@[0-9a-f]+", ""));
+				}
+			}
+			w.deleteTempFiles();
+		}
+		assertEquals("[-001-step_one.tmp, -002-step_two/a.xml, -002-step_two/sub/b.xml]", names.toString());
+		assertFalse(folder.toFile().listFiles().length>0);
+		PathTools.deleteRecursive(folder);
+		PathTools.deleteRecursive(source);
+	}
+
+	@Test
+	public void testArchiveExists() throws IOException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		File f = TestTasks.newTempFile("c");
+		try (DefaultTempFileWriter w = new DefaultTempFileWriter.Builder()
+				.prefix("test")
+				.tempFilesFolder(folder.toFile())
+				.archive(true)
+				.build()) {
+			w.writeTempFile(f, "step one");
+			w.close();
+			String name = folder.toFile().listFiles()[0].getName();
+			// the next name is taken, for example by a writer in another run
+			File existing = folder.resolve(name.replaceAll("\\.zip$", "-1.zip")).toFile();
+			TestTasks.write(existing, "other");
+			w.writeTempFile(f, "step two");
+			w.close();
+			assertEquals(3, folder.toFile().listFiles().length);
+			assertEquals("other", TestTasks.read(existing));
+			w.deleteTempFiles();
+		}
+		assertEquals(1, folder.toFile().listFiles().length);
+		PathTools.deleteRecursive(folder);
+	}
+}
@@ -0,0 +1,150 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class EngineMetricsTest {
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getPercentile(50));
+		for (int i=0; i<99; i++) {
+			h.record(1500_000); // 1.5 ms
+		}
+		h.record(3_000_000_000L); // 3 s
+		assertEquals(100, h.getCount());
+		assertEquals(3_000_000_000L, h.getMax());
+		// 1.5 ms is in the bucket 1024-2048 µs
+		assertEquals(2_048_000, h.getPercentile(50));
+		assertEquals(2_048_000, h.getPercentile(99));
+		assertEquals(3_000_000_000L, h.getPercentile(100));
+	}
+
+	@Test
+	public void testIntermediateBytes() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		EngineMetrics metrics = new EngineMetrics.Builder().build();
+		TaskRunner runner = TaskRunner.withName("Test").engineMetrics(metrics).build();
+		AtomicInteger observed = new AtomicInteger(-1);
+		runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("ab"), new TestTasks.AppendTask("c") {
+			@Override
+			public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+				observed.set((int)metrics.getIntermediateBytes());
+				return super.execute(input, output);
+			}
+		}));
+		// The output of the first task
+		assertEquals(3, observed.get());
+		assertEquals(0, metrics.getIntermediateBytes());
+	}
+
+	@Test
+	public void testRuns() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		EngineMetrics metrics = new EngineMetrics.Builder().build();
+		TaskRunner runner = TaskRunner.withName("Test").engineMetrics(metrics).build();
+		runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("ab"), new TestTasks.ReadTask(v->{})));
+		try {
+			runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("ab") {
+				@Override
+				public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+					throw new InternalTaskException("Failed");
+				}
+			}));
+			fail();
+		} catch (TaskSystemException | RuntimeException e) {
+			// expected
+		}
+		assertEquals(2, metrics.getRuns());
+		assertEquals(1, metrics.getFailures());
+		assertEquals(0, metrics.getActiveRuns());
+		assertEquals(0, metrics.getIntermediateBytes());
+		assertEquals(1+3, metrics.getBytesRead());
+		assertEquals(3, metrics.getBytesWritten());
+		assertEquals(Long.valueOf(1), metrics.getTaskCounts().get("Append ab"));
+		assertEquals(Long.valueOf(1), metrics.getTaskCounts().get("Read"));
+	}
+
+	@Test
+	public void testFailedCleanup() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		EngineMetrics metrics = new EngineMetrics.Builder().build();
+		TempFileWriter writer = new TempFileWriter() {
+			@Override
+			public void writeTempFile(File source, String identifier) {
+				// no-op
+			}
+			@Override
+			public void writeTempFolder(Path source, String identifier) {
+				// no-op
+			}
+			@Override
+			public void deleteTempFiles() {
+				throw new IllegalStateException("Failed");
+			}
+		};
+		try {
+			TaskRunner.withName("Test").engineMetrics(metrics).writeTempFiles(true).tempFileWriter(writer).build()
+				.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a")));
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, metrics.getRuns());
+		assertEquals(1, metrics.getFailures());
+		assertEquals(0, metrics.getActiveRuns());
+	}
+
+	@Test
+	public void testMaxTaskNames() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		EngineMetrics metrics = new EngineMetrics.Builder().maxTaskNames(1).build();
+		TaskRunner.withName("Test").engineMetrics(metrics).build()
+			.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("b")));
+		assertEquals(2, metrics.getTaskNames().size());
+		assertTrue(metrics.getLatency("Append a").isPresent());
+		assertFalse(metrics.getLatency("Append b").isPresent());
+		assertEquals(1, metrics.getLatency(EngineMetrics.OTHER_TASKS).get().getCount());
+	}
+
+	@Test
+	public void testMBeanAndExport() throws IOException, JMException {
+		AtomicInteger exported = new AtomicInteger();
+		EngineMetrics metrics = new EngineMetrics.Builder().addExporter(v->exported.incrementAndGet()).build();
+		ObjectName name = metrics.registerMBean("test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals(0L, server.getAttribute(name, "Runs"));
+			assertEquals(0, server.getAttribute(name, "ActiveRuns"));
+		} finally {
+			metrics.close();
+		}
+		assertFalse(server.isRegistered(name));
+		assertEquals(1, exported.get());
+	}
+}
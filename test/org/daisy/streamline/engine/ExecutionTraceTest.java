@@ -0,0 +1,112 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.ExpandingTask;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ExecutionTraceTest {
+	private static final Pattern SPAN = Pattern.compile("\\{\"id\":(\\d+),\"parent\":(\\d+),\"name\":\"([^\"]*)\",\"category\":\"([^\"]*)\"");
+
+	@Test
+	public void testJsonLines() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		Path file = Files.createTempFile(this.getClass().getName(), ".jsonl");
+		try {
+			try (ExecutionTrace trace = new ExecutionTrace.Builder(file).format(ExecutionTrace.Format.JSON_LINES).build()) {
+				TaskRunner.withName("Test").executionTrace(trace).tempFileWriter(new NoOpWriter()).writeTempFiles(true).build()
+					.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new Expand()));
+			}
+			// category name -> {id, parent}
+			Map<String, long[]> spans = new HashMap<>();
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			for (String line : lines) {
+				Matcher m = SPAN.matcher(line);
+				assertTrue(line, m.lookingAt());
+				spans.put(m.group(4) + " " + m.group(3), new long[]{Long.parseLong(m.group(1)), Long.parseLong(m.group(2))});
+			}
+			assertEquals(5, lines.size());
+			long run = spans.get("run Test")[0];
+			assertEquals(0, spans.get("run Test")[1]);
+			long expand = spans.get("task Expand")[0];
+			assertEquals(run, spans.get("task Expand")[1]);
+			long append = spans.get("task Append a")[0];
+			assertEquals(expand, spans.get("task Append a")[1]);
+			assertEquals(append, spans.get("snapshot Append a")[1]);
+			assertEquals(append, spans.get("temp Reset")[1]);
+			assertEquals("xa", TestTasks.read(out));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testChrome() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		Path file = Files.createTempFile(this.getClass().getName(), ".json");
+		try {
+			try (ExecutionTrace trace = new ExecutionTrace.Builder(file).build()) {
+				TaskRunner.withName("Test \"quoted\"").executionTrace(trace).build()
+					.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a")));
+			}
+			String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+			assertTrue(json.startsWith("["));
+			assertTrue(json.endsWith("]"));
+			assertTrue(json.contains("\"name\":\"thread_name\",\"ph\":\"M\""));
+			assertTrue(json.contains("\"name\":\"Test \\\"quoted\\\"\",\"cat\":\"run\",\"ph\":\"X\""));
+			assertTrue(json.contains("\"name\":\"Append a\",\"cat\":\"task\",\"ph\":\"X\""));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static class Expand extends ExpandingTask {
+		Expand() {
+			super("Expand");
+		}
+		@Override
+		public List<InternalTask> resolve(AnnotatedFile input) {
+			return Arrays.asList(new TestTasks.AppendTask("a"));
+		}
+		@Override
+		@Deprecated
+		public List<InternalTask> resolve(File input) {
+			return resolve(DefaultAnnotatedFile.with(input).build());
+		}
+	}
+
+	private static class NoOpWriter implements TempFileWriter {
+		@Override
+		public void writeTempFile(File source, String identifier) {
+			// no-op
+		}
+		@Override
+		public void writeTempFolder(Path source, String identifier) {
+			// no-op
+		}
+		@Override
+		public void deleteTempFiles() {
+			// no-op
+		}
+	}
+}
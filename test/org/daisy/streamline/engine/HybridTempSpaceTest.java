@@ -0,0 +1,112 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class HybridTempSpaceTest {
+	private Path memory;
+	private Path disk;
+	private HybridTempSpace space;
+
+	@Before
+	public void setUp() throws IOException {
+		memory = Files.createTempDirectory("memory");
+		disk = Files.createTempDirectory("disk");
+		space = new HybridTempSpace.Builder().memoryFolder(memory).diskFolder(disk).spillThreshold(10).memoryReserve(0).build();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		PathTools.deleteRecursive(memory);
+		PathTools.deleteRecursive(disk);
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		try (TempFileHandler tf = new TempFileHandler(in, out, space)) {
+			assertTrue(space.isInMemory(tf.getOutput()));
+			TestTasks.write(tf.getOutput(), "small");
+			tf.reset();
+			assertTrue(space.isInMemory(tf.getInput()));
+			TestTasks.write(tf.getOutput(), "larger than the threshold");
+			tf.reset();
+			assertFalse(space.isInMemory(tf.getInput()));
+			assertEquals(disk, tf.getInput().toPath().getParent());
+			assertEquals("larger than the threshold", TestTasks.read(tf.getInput()));
+		}
+		assertEquals("larger than the threshold", TestTasks.read(out));
+		assertEquals(0, Files.list(memory).count());
+		assertEquals(0, Files.list(disk).count());
+	}
+
+	@Test
+	public void testReturnToMemory() throws IOException {
+		File in = TestTasks.newTempFile("larger than the threshold");
+		File out = TestTasks.newTempFile(null);
+		try (TempFileHandler tf = new TempFileHandler(in, out, space)) {
+			// the input is large, so the output is expected to be large as well
+			assertFalse(space.isInMemory(tf.getOutput()));
+			TestTasks.write(tf.getOutput(), "small");
+			tf.reset();
+			assertTrue(space.isInMemory(tf.getOutput()));
+			TestTasks.write(tf.getOutput(), "larger than the threshold");
+			tf.reset();
+			assertFalse(space.isInMemory(tf.getOutput()));
+			TestTasks.write(tf.getOutput(), "small");
+			tf.reset();
+			// the slot that was used for the large file is returned to memory
+			assertTrue(space.isInMemory(tf.getOutput()));
+			assertEquals("small", TestTasks.read(tf.getInput()));
+		}
+		assertEquals("small", TestTasks.read(out));
+		assertEquals(0, Files.list(memory).count());
+		assertEquals(0, Files.list(disk).count());
+	}
+
+	@Test
+	public void testMemoryFull() throws IOException {
+		HybridTempSpace full = new HybridTempSpace.Builder().memoryFolder(memory).diskFolder(disk).memoryReserve(Long.MAX_VALUE).build();
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		try (TempFileHandler tf = new TempFileHandler(in, out, full)) {
+			assertFalse(full.isInMemory(tf.getOutput()));
+			assertEquals(disk, tf.getOutput().toPath().getParent());
+			TestTasks.write(tf.getOutput(), "y");
+		}
+		assertEquals("y", TestTasks.read(out));
+	}
+
+	@Test
+	public void testNoMemoryFolderByDefault() throws IOException {
+		HybridTempSpace def = new HybridTempSpace.Builder().diskFolder(disk).build();
+		File f = def.newTempFile();
+		assertFalse(def.isInMemory(f));
+		assertEquals(disk, f.toPath().getParent());
+		def.releaseTempFile(f);
+	}
+
+	@Test
+	public void testTaskRunner() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		TaskRunner.withName("Test").tempSpace(space).build().runTasks(DefaultAnnotatedFile.with(in).build(), out,
+				Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("bcdefghijkl"), new TestTasks.AppendTask("m")));
+		assertEquals("xabcdefghijklm", TestTasks.read(out));
+	}
+}
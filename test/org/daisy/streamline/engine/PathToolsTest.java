@@ -0,0 +1,68 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.stream.Stream;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PathToolsTest {
+
+	@Test
+	public void testMove() throws IOException {
+		File source = TestTasks.newTempFile("source");
+		File target = TestTasks.newTempFile("target");
+		PathTools.move(source.toPath(), target.toPath());
+		assertFalse(source.exists());
+		assertEquals("source", TestTasks.read(target));
+	}
+
+	@Test
+	public void testReplacePermissions() throws IOException {
+		Path folder = Files.createTempDirectory(this.getClass().getName());
+		Assume.assumeTrue(Files.getFileStore(folder).supportsFileAttributeView(PosixFileAttributeView.class));
+		try {
+			// a file created with the default permissions
+			Path expected = Files.createFile(folder.resolve("expected"));
+			Path source = TestTasks.newTempFile("source").toPath();
+			Path target = folder.resolve("target");
+			PathTools.replace(source, target);
+			assertEquals("source", TestTasks.read(target.toFile()));
+			assertEquals(Files.getPosixFilePermissions(expected), Files.getPosixFilePermissions(target));
+			try (Stream<Path> s = Files.list(folder)) {
+				assertEquals(2, s.count());
+			}
+		} finally {
+			PathTools.deleteRecursive(folder);
+		}
+	}
+
+	@Test
+	public void testCopy() throws IOException {
+		File source = TestTasks.newTempFile("source");
+		File target = TestTasks.newTempFile("a longer target");
+		PathTools.copy(source.toPath(), target.toPath());
+		assertEquals("source", TestTasks.read(source));
+		assertEquals("source", TestTasks.read(target));
+	}
+
+	@Test
+	public void testLinkOrCopy() throws IOException {
+		File source = TestTasks.newTempFile("source");
+		File target = TestTasks.newTempFile("target");
+		PathTools.linkOrCopy(source.toPath(), target.toPath());
+		assertEquals("source", TestTasks.read(target));
+		// replacing the source does not affect the target
+		source.delete();
+		TestTasks.write(source, "new");
+		assertEquals("source", TestTasks.read(target));
+	}
+}
@@ -0,0 +1,89 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ProgressModelTest {
+	private static final long MS = 1000000;
+	private final List<InternalTask> tasks = Arrays.asList(
+			new TestTasks.AppendTask("a"),
+			new TestTasks.AppendTask("b"),
+			new TestTasks.ReadTask(v->{}));
+
+	@Test
+	public void testWeightedProgress() {
+		TaskHistory history = new TaskHistory.Builder().build();
+		history.record("Append a", 10, 1000 * MS);
+		history.record("Append b", 10, 3000 * MS);
+		ProgressModel model = new ProgressModel(history, tasks, 0, 10);
+		assertTrue(model.hasEstimates());
+		// the read task is expected to take the average of the known tasks
+		assertEquals(6000, model.getExpectedMillis());
+		assertEquals(1/6d, model.getProgress(1), 0.0001);
+		assertEquals(4/6d, model.getProgress(2), 0.0001);
+		assertEquals(1, model.getProgress(3), 0.0001);
+		// the first task took half the expected time
+		assertEquals(2500, model.getRemainingMillis(1, 500));
+	}
+
+	@Test
+	public void testResumedProgress() {
+		TaskHistory history = new TaskHistory.Builder().build();
+		history.record("Append a", 10, 1000 * MS);
+		history.record("Append b", 10, 3000 * MS);
+		ProgressModel model = new ProgressModel(history, tasks, 1, 10);
+		assertEquals(5000, model.getExpectedMillis());
+		// the second task took twice the expected time
+		assertEquals(4000, model.getRemainingMillis(2, 6000));
+	}
+
+	@Test
+	public void testUnweightedProgress() {
+		ProgressModel model = new ProgressModel(new TaskHistory.Builder().build(), tasks, 0, 10);
+		assertFalse(model.hasEstimates());
+		assertEquals(1/3d, model.getProgress(1), 0.0001);
+		assertEquals(2/3d, model.getProgress(2), 0.0001);
+	}
+
+	@Test
+	public void testRecordedByRunInputSize() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		TaskHistory history = new TaskHistory.Builder().build();
+		// a slow execution on a large input
+		history.record("Append b", 1<<20, 1000000 * MS);
+		// the second task has a larger input than the first, but both are recorded by the size of the run input
+		TaskRunner.withName("Test").taskHistory(history).build()
+			.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("aaaaaaaaaaaaaaaaaaaa"), new TestTasks.AppendTask("b")));
+		assertTrue(history.getAverage("Append b", 1).getAsDouble()<1000 * MS);
+		assertTrue(new ProgressModel(history, tasks.subList(0, 2), 0, 1).getExpectedMillis()<2000);
+	}
+
+	@Test
+	public void testTaskRunnerProgress() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		TaskHistory history = new TaskHistory.Builder().build();
+		history.record("Append a", 1, 1 * MS);
+		history.record("Append b", 1, 1000000 * MS);
+		double[] first = new double[1];
+		TaskRunner.withName("Test").taskHistory(history).addProgressListener(v->{
+			if (first[0]==0) {
+				first[0] = v.getProgress();
+			}
+		}).build().runTasks(DefaultAnnotatedFile.with(in).build(), out, tasks.subList(0, 2));
+		assertTrue(first[0]<0.001);
+	}
+}
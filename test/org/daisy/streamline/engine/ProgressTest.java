@@ -2,6 +2,8 @@ package org.daisy.streamline.engine;
 
 import static org.junit.Assert.assertEquals;
 
+import java.time.Duration;
+
 import org.daisy.streamline.engine.Progress;
 import org.junit.Test;
 
@@ -26,5 +28,15 @@ public class ProgressTest {
 		//In 200 ms there has been 0.1 progress, eta should be 2000
 		assertEquals(2000, eta);
 	}
-	
+
+	@Test
+	public void testProgressWithRemainingTime() {
+		Progress p = new Progress(0);
+		p.updateProgress(0.1, Duration.ofMillis(5000), 100);
+		assertEquals(5100, p.getETC().getTime());
+		// extrapolation continues from the estimate, 0.9 of the progress remains in 5000 ms
+		p.updateProgress(0.55, 2600);
+		assertEquals(2600+2500, p.getETC().getTime());
+	}
+
 }
@@ -0,0 +1,63 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskHistoryTest {
+
+	@Test
+	public void testAverage() {
+		TaskHistory history = new TaskHistory.Builder().smoothing(0.5).build();
+		assertFalse(history.getAverage("a").isPresent());
+		history.record("a", 100);
+		assertEquals(100, history.getAverage("a").getAsDouble(), 0.001);
+		history.record("a", 200);
+		assertEquals(150, history.getAverage("a").getAsDouble(), 0.001);
+		history.record("a", 50);
+		assertEquals(100, history.getAverage("a").getAsDouble(), 0.001);
+		assertEquals(3, history.getCount("a"));
+		assertEquals(0, history.getCount("b"));
+	}
+
+	@Test
+	public void testSizeBuckets() {
+		TaskHistory history = new TaskHistory.Builder().build();
+		history.record("a", 100, 1000);
+		history.record("a", 100_000, 9000);
+		assertEquals(1000, history.getAverage("a", 120).getAsDouble(), 0.001);
+		assertEquals(9000, history.getAverage("a", 90_000).getAsDouble(), 0.001);
+		// no executions in this bucket, use the average of all sizes
+		assertEquals(3400, history.getAverage("a", 10_000_000).getAsDouble(), 0.001);
+		assertEquals(2, history.getCount("a"));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		Path file = Files.createTempFile(this.getClass().getName(), ".properties");
+		try {
+			TaskHistory history = new TaskHistory.Builder().build();
+			history.record("a:b c", 100, 1000);
+			history.record("d", 2000);
+			history.save(file);
+			TaskHistory loaded = new TaskHistory.Builder().build();
+			loaded.load(file);
+			assertEquals(1000, loaded.getAverage("a:b c", 100).getAsDouble(), 0.001);
+			assertEquals(1, loaded.getCount("a:b c"));
+			assertEquals(2000, loaded.getAverage("d").getAsDouble(), 0.001);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testSmoothingOutOfRange() {
+		new TaskHistory.Builder().smoothing(0);
+	}
+}
@@ -0,0 +1,125 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.media.DefaultFileSet;
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskResultCacheTest {
+
+	@Test
+	public void testFileCache() throws IOException, TaskSystemException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		try {
+			TaskResultCache cache = new TaskResultCache.Builder(folder).taskKey(InternalTask::getName).build();
+			List<String> executed = new ArrayList<>();
+			TaskRunner runner = TaskRunner.withName("Test").resultCache(cache).build();
+			List<InternalTask> tasks = Arrays.asList(new TestTasks.CountingAppendTask("a", executed), new TestTasks.CountingAppendTask("b", executed));
+			File out = TestTasks.newTempFile(null);
+			runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("x")).build(), out, tasks);
+			runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("x")).build(), out, tasks);
+			assertEquals("xab", TestTasks.read(out));
+			runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("y")).build(), out, tasks);
+			assertEquals("yab", TestTasks.read(out));
+			assertEquals(Arrays.asList("a", "b", "a", "b"), executed);
+			assertEquals(2, cache.getHitCount());
+			assertEquals(4, cache.getMissCount());
+			assertEquals(4, cache.getEntryCount());
+
+			// Entries are found by a new instance
+			TaskResultCache cache2 = new TaskResultCache.Builder(folder).taskKey(InternalTask::getName).build();
+			assertEquals(4, cache2.getEntryCount());
+			assertEquals(cache.getSize(), cache2.getSize());
+		} finally {
+			PathTools.deleteRecursive(folder);
+		}
+	}
+
+	@Test
+	public void testFileSetCache() throws IOException, TaskSystemException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		Path in = Files.createTempDirectory(getClass().getName());
+		Path out = Files.createTempDirectory(getClass().getName());
+		try {
+			File f = in.resolve("in.txt").toFile();
+			TestTasks.write(f, "x");
+			FileSet input = DefaultFileSet.with(BaseFolder.with(in), DefaultAnnotatedFile.with(f).build()).build();
+			TaskResultCache cache = new TaskResultCache.Builder(folder).taskKey(InternalTask::getName).build();
+			List<String> executed = new ArrayList<>();
+			TaskRunner runner = TaskRunner.withName("Test").resultCache(cache).build();
+			List<InternalTask> tasks = Arrays.asList(new TestTasks.CountingAppendTask("a", executed), new TestTasks.CountingAppendTask("b", executed));
+			runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks);
+			PathTools.deleteRecursive(out, false);
+			runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks);
+			assertEquals("xab", TestTasks.read(out.resolve("out.txt").toFile()));
+			assertEquals(Arrays.asList("a", "b"), executed);
+			assertEquals(2, cache.getHitCount());
+		} finally {
+			PathTools.deleteRecursive(folder);
+			PathTools.deleteRecursive(in);
+			PathTools.deleteRecursive(out);
+		}
+	}
+
+	@Test
+	public void testNoTaskKey() throws IOException, TaskSystemException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		try {
+			TaskResultCache cache = new TaskResultCache.Builder(folder).build();
+			List<String> executed = new ArrayList<>();
+			TaskRunner runner = TaskRunner.withName("Test").resultCache(cache).build();
+			List<InternalTask> tasks = Arrays.asList(new TestTasks.CountingAppendTask("a", executed));
+			File out = TestTasks.newTempFile(null);
+			runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("x")).build(), out, tasks);
+			runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("x")).build(), out, tasks);
+			assertEquals("xa", TestTasks.read(out));
+			// Without a task key, the task could have been compiled with different parameters
+			assertEquals(Arrays.asList("a", "a"), executed);
+			assertEquals(0, cache.getHitCount());
+			assertEquals(0, cache.getEntryCount());
+		} finally {
+			PathTools.deleteRecursive(folder);
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException, TaskSystemException {
+		Path folder = Files.createTempDirectory(getClass().getName());
+		try {
+			List<InternalTask> tasks = Arrays.asList(new TestTasks.AppendTask("a"));
+			File out = TestTasks.newTempFile(null);
+			TaskResultCache unbounded = new TaskResultCache.Builder(folder).taskKey(InternalTask::getName).build();
+			TaskRunner.withName("Test").resultCache(unbounded).build()
+				.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile("x")).build(), out, tasks);
+			long entrySize = unbounded.getSize();
+			unbounded.clear();
+
+			// Room for two entries
+			TaskResultCache cache = new TaskResultCache.Builder(folder).taskKey(InternalTask::getName).maxSize(entrySize*5/2).build();
+			TaskRunner runner = TaskRunner.withName("Test").resultCache(cache).build();
+			for (String v : Arrays.asList("x", "y", "x", "z", "y")) {
+				runner.runTasks(DefaultAnnotatedFile.with(TestTasks.newTempFile(v)).build(), out, tasks);
+			}
+			// x is a hit, y was evicted when z was added, since x had been used more recently
+			assertEquals(1, cache.getHitCount());
+			assertEquals(4, cache.getMissCount());
+			assertEquals(2, cache.getEntryCount());
+		} finally {
+			PathTools.deleteRecursive(folder);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.media.DefaultFileSet;
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskRunnerTest {
+
+	@Test
+	public void testConcurrentReadOnlyTask() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		CountDownLatch started = new CountDownLatch(1);
+		List<String> seen = Collections.synchronizedList(new ArrayList<>());
+		List<InternalTask> tasks = Arrays.asList(
+				new TestTasks.AppendTask("a"),
+				new TestTasks.ReadTask(v->{
+					started.countDown();
+					seen.add(v);
+				}),
+				new TestTasks.AppendTask("b"));
+		TaskRunner.withName("Test").concurrentReadOnlyTasks(true).build()
+			.runTasks(DefaultAnnotatedFile.with(in).build(), out, tasks);
+		assertEquals(0, started.getCount());
+		assertEquals(Arrays.asList("xa"), seen);
+		assertEquals("xab", TestTasks.read(out));
+	}
+
+	@Test
+	public void testConcurrentReadOnlyTaskFailure() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		List<InternalTask> tasks = Arrays.asList(
+				new TestTasks.AppendTask("a"),
+				new TestTasks.ReadTask(null));
+		try {
+			TaskRunner.withName("Test").concurrentReadOnlyTasks(true).build()
+				.runTasks(DefaultAnnotatedFile.with(in).build(), out, tasks);
+			fail();
+		} catch (InternalTaskException e) {
+			// expected
+		}
+		assertFalse(out.exists());
+	}
+
+	@Test
+	public void testAsync() throws IOException, InterruptedException, ExecutionException {
+		FileSet input = newFileSet("x");
+		Path out = Files.createTempDirectory(this.getClass().getName());
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			RunnerResults res = TaskRunner.withName("Test").build()
+				.runTasksAsync(input, BaseFolder.with(out), "out.txt", Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("b")), exec)
+				.get();
+			assertEquals(2, res.getResults().size());
+			assertEquals("xab", TestTasks.read(out.resolve("out.txt").toFile()));
+		} finally {
+			exec.shutdown();
+			PathTools.deleteRecursive(out);
+		}
+	}
+
+	@Test
+	public void testAsyncCancel() throws IOException, InterruptedException, ExecutionException {
+		FileSet input = newFileSet("x");
+		Path out = Files.createTempDirectory(this.getClass().getName());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<InternalTask> tasks = Arrays.asList(
+				new TestTasks.AppendTask("a"),
+				new TestTasks.ReadTask(v->{
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}),
+				new TestTasks.AppendTask("b"));
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			CompletableFuture<RunnerResults> f = TaskRunner.withName("Test").build()
+				.runTasksAsync(input, BaseFolder.with(out), "out.txt", tasks, exec);
+			started.await();
+			assertTrue(f.cancel(true));
+			release.countDown();
+			try {
+				f.get();
+				fail();
+			} catch (CancellationException e) {
+				// expected
+			}
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		assertFalse(Files.exists(out));
+	}
+
+	@Test
+	public void testFailureCapture() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		RecordingWriter w = new RecordingWriter();
+		List<InternalTask> tasks = Arrays.asList(
+				new TestTasks.AppendTask("a"),
+				new TestTasks.AppendTask("b"),
+				new TestTasks.AppendTask("c"),
+				new TestTasks.AppendTask(null));
+		TaskRunner runner = TaskRunner.withName("Test").tempFileWriter(w).failureCaptureSteps(2).build();
+		runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, tasks.subList(0, 3));
+		assertEquals(Collections.emptyList(), w.values);
+		try {
+			runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, tasks);
+			fail();
+		} catch (InternalTaskException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList("xab", "xabc"), w.values);
+	}
+
+	@Test
+	public void testSuccessCapture() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		RecordingWriter w = new RecordingWriter();
+		TaskRunner runner = TaskRunner.withName("Test").tempFileWriter(w).failureCaptureSteps(1).successCaptureRate(2).build();
+		for (int i=0; i<3; i++) {
+			runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("" + i)));
+		}
+		assertEquals(Arrays.asList("x0", "x2"), w.values);
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws IOException, TaskSystemException {
+		FileSet input = newFileSet("x");
+		Path out = Files.createTempDirectory(this.getClass().getName());
+		Path checkpoints = Files.createTempDirectory(this.getClass().getName());
+		List<String> executed = new ArrayList<>();
+		AtomicBoolean fail = new AtomicBoolean(true);
+		List<InternalTask> tasks = Arrays.asList(
+				new CountingAppendTask("a", executed, ()->false),
+				new CountingAppendTask("b", executed, ()->false),
+				new CountingAppendTask("c", executed, fail::get));
+		TaskRunner runner = TaskRunner.withName("Test").build();
+		try {
+			try {
+				runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks, checkpoints);
+				fail();
+			} catch (InternalTaskException e) {
+				// expected
+			}
+			fail.set(false);
+			RunnerResults res = runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks, checkpoints);
+			assertEquals(1, res.getResults().size());
+			assertEquals(Arrays.asList("a", "b", "c"), executed);
+			assertEquals("xabc", TestTasks.read(out.resolve("out.txt").toFile()));
+			try (Stream<Path> s = Files.list(checkpoints)) {
+				assertEquals(0, s.count());
+			}
+		} finally {
+			PathTools.deleteRecursive(out);
+			PathTools.deleteRecursive(checkpoints);
+		}
+	}
+
+	@Test
+	public void testCheckpointWithChangedInput() throws IOException, TaskSystemException {
+		FileSet input = newFileSet("x");
+		Path out = Files.createTempDirectory(this.getClass().getName());
+		Path checkpoints = Files.createTempDirectory(this.getClass().getName());
+		List<String> executed = new ArrayList<>();
+		AtomicBoolean fail = new AtomicBoolean(true);
+		List<InternalTask> tasks = Arrays.asList(
+				new CountingAppendTask("a", executed, ()->false),
+				new CountingAppendTask("b", executed, fail::get));
+		TaskRunner runner = TaskRunner.withName("Test").build();
+		try {
+			try {
+				runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks, checkpoints);
+				fail();
+			} catch (InternalTaskException e) {
+				// expected
+			}
+			fail.set(false);
+			// the checkpoint of the failed run was made from another input
+			TestTasks.write(input.getManifest().getFile(), "y");
+			RunnerResults res = runner.runTasks(input, BaseFolder.with(out), "out.txt", tasks, checkpoints);
+			assertEquals(2, res.getResults().size());
+			assertEquals(Arrays.asList("a", "a", "b"), executed);
+			assertEquals("yab", TestTasks.read(out.resolve("out.txt").toFile()));
+		} finally {
+			PathTools.deleteRecursive(out);
+			PathTools.deleteRecursive(checkpoints);
+		}
+	}
+
+	@Test
+	public void testReadOnlyTasksInPlace() throws IOException, TaskSystemException {
+		File f = TestTasks.newTempFile("x");
+		List<String> seen = new ArrayList<>();
+		TaskRunner.withName("Test").build()
+			.runTasks(DefaultAnnotatedFile.with(f).build(), f, Arrays.asList(new TestTasks.ReadTask(seen::add)));
+		assertEquals(Arrays.asList("x"), seen);
+		assertEquals("x", TestTasks.read(f));
+	}
+
+	@Test
+	public void testTaskHistory() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		TaskHistory history = new TaskHistory.Builder().build();
+		TaskRunner runner = TaskRunner.withName("Test").taskHistory(history).build();
+		for (int i=0; i<2; i++) {
+			runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.ReadTask(v->{})));
+		}
+		assertEquals(2, history.getCount("Append a"));
+		assertEquals(2, history.getCount("Read"));
+		assertTrue(history.getAverage("Append a").isPresent());
+	}
+
+	@Test
+	public void testMetrics() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		List<RunnerResult> res = TaskRunner.withName("Test").concurrentReadOnlyTasks(true).measureSizes(true).build()
+				.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("ab"), new TestTasks.ReadTask(v->{})));
+		TaskMetrics m = res.get(0).getMetrics().get();
+		assertEquals(1, m.getFilesRead());
+		assertEquals(1, m.getBytesRead());
+		assertEquals(1, m.getFilesWritten());
+		assertEquals(3, m.getBytesWritten());
+		assertTrue(m.getWallTime()>0);
+		TaskMetrics r = res.get(1).getMetrics().get();
+		assertEquals(3, r.getBytesRead());
+		assertEquals(0, r.getFilesWritten());
+	}
+
+	@Test
+	public void testMetricsWithoutSizes() throws IOException, TaskSystemException {
+		File in = TestTasks.newTempFile("x");
+		File out = TestTasks.newTempFile(null);
+		List<RunnerResult> res = TaskRunner.withName("Test").build()
+				.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("ab")));
+		TaskMetrics m = res.get(0).getMetrics().get();
+		assertEquals(0, m.getBytesRead());
+		assertEquals(0, m.getBytesWritten());
+		assertTrue(m.getWallTime()>0);
+	}
+
+	@Test
+	public void testFileSetMetrics() throws IOException, TaskSystemException {
+		FileSet input = newFileSet("x");
+		Path out = Files.createTempDirectory(this.getClass().getName());
+		try {
+			RunnerResults res = TaskRunner.withName("Test").measureSizes(true).build()
+					.runTasks(input, BaseFolder.with(out), "out.txt", Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("b")));
+			TaskMetrics m = res.getResults().get(1).getMetrics().get();
+			assertEquals(2, m.getBytesRead());
+			assertEquals(3, m.getBytesWritten());
+			TaskMetrics total = res.getTotalMetrics();
+			assertEquals(3, total.getBytesRead());
+			assertEquals(5, total.getBytesWritten());
+			assertEquals(2, total.getFilesWritten());
+		} finally {
+			PathTools.deleteRecursive(out);
+		}
+	}
+
+	private static class CountingAppendTask extends TestTasks.AppendTask {
+		private final String value;
+		private final List<String> executed;
+		private final BooleanSupplier fail;
+
+		CountingAppendTask(String value, List<String> executed, BooleanSupplier fail) {
+			super(value);
+			this.value = value;
+			this.executed = executed;
+			this.fail = fail;
+		}
+
+		@Override
+		public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+			if (fail.getAsBoolean()) {
+				throw new InternalTaskException("Failed");
+			}
+			executed.add(value);
+			return super.execute(input, output);
+		}
+	}
+
+	private static class RecordingWriter implements TempFileWriter {
+		private final List<String> values = new ArrayList<>();
+		@Override
+		public void writeTempFile(File source, String identifier) throws IOException {
+			values.add(TestTasks.read(source));
+		}
+		@Override
+		public void writeTempFolder(Path source, String identifier) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		public void deleteTempFiles() {
+			values.clear();
+		}
+	}
+
+	private FileSet newFileSet(String value) throws IOException {
+		Path in = Files.createTempDirectory(this.getClass().getName());
+		File f = in.resolve("in.txt").toFile();
+		TestTasks.write(f, value);
+		return DefaultFileSet.with(BaseFolder.with(in), DefaultAnnotatedFile.with(f).build()).build();
+	}
+}
@@ -0,0 +1,54 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.media.BaseFolder;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.media.DefaultFileSet;
+import org.daisy.streamline.api.media.FileSet;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskSessionTest {
+
+	@Test
+	public void testRerunFromFirstDifference() throws IOException, TaskSystemException {
+		Path in = Files.createTempDirectory(getClass().getName());
+		Path out = Files.createTempDirectory(getClass().getName());
+		File f = in.resolve("in.txt").toFile();
+		TestTasks.write(f, "x");
+		FileSet input = DefaultFileSet.with(BaseFolder.with(in), DefaultAnnotatedFile.with(f).build()).build();
+		List<String> executed = new ArrayList<>();
+		List<String> seen = new ArrayList<>();
+		try (TaskSession session = TaskSession.with(input).build()) {
+			session.run(Arrays.asList(new TestTasks.CountingAppendTask("a", executed), new TestTasks.ReadTask(seen::add), new TestTasks.CountingAppendTask("b", executed)), BaseFolder.with(out), "out.txt");
+			assertEquals("xab", TestTasks.read(out.resolve("out.txt").toFile()));
+			assertEquals(0, session.getReusedSteps());
+
+			PathTools.deleteRecursive(out, false);
+			session.run(Arrays.asList(new TestTasks.CountingAppendTask("a", executed), new TestTasks.ReadTask(seen::add), new TestTasks.CountingAppendTask("c", executed)), BaseFolder.with(out), "out.txt");
+			assertEquals("xac", TestTasks.read(out.resolve("out.txt").toFile()));
+			assertEquals(2, session.getReusedSteps());
+
+			PathTools.deleteRecursive(out, false);
+			session.run(Arrays.asList(new TestTasks.CountingAppendTask("a", executed)), BaseFolder.with(out), "out.txt");
+			assertEquals("xa", TestTasks.read(out.resolve("out.txt").toFile()));
+			assertEquals(1, session.getReusedSteps());
+
+			assertEquals(Arrays.asList("a", "b", "c"), executed);
+			assertEquals(Arrays.asList("xa"), seen);
+		} finally {
+			PathTools.deleteRecursive(in);
+			PathTools.deleteRecursive(out);
+		}
+	}
+}
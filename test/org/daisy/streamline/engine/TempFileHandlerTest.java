@@ -36,4 +36,42 @@ public class TempFileHandlerTest {
 			assertEquals(0, tf.getOutput().length());
 		}
 	}
+
+	@Test
+	public void testLinkSurvivesReset() throws IOException {
+		File in = TestTasks.newTempFile("in");
+		File out = TestTasks.newTempFile(null);
+		File link = TestTasks.newTempFile(null);
+		try (TempFileHandler tf = new TempFileHandler(in, out)) {
+			TestTasks.write(tf.getOutput(), "a");
+			PathTools.linkOrCopy(tf.getOutput().toPath(), link.toPath());
+			tf.reset();
+			TestTasks.write(tf.getOutput(), "b");
+			tf.reset();
+			TestTasks.write(tf.getOutput(), "c");
+		}
+		assertEquals("a", TestTasks.read(link));
+		assertEquals("c", TestTasks.read(out));
+		assertEquals("in", TestTasks.read(in));
+	}
+
+	@Test
+	public void testCloseWithoutReset() throws IOException {
+		File in = TestTasks.newTempFile("in");
+		File out = TestTasks.newTempFile(null);
+		try (TempFileHandler tf = new TempFileHandler(in, out)) {
+			assertEquals("in", TestTasks.read(tf.getInput()));
+		}
+		assertEquals("in", TestTasks.read(out));
+		assertTrue(in.exists());
+	}
+
+	@Test
+	public void testCloseWithoutResetSameFile() throws IOException {
+		File in = TestTasks.newTempFile("in");
+		try (TempFileHandler tf = new TempFileHandler(in, in)) {
+			assertEquals("in", TestTasks.read(tf.getInput()));
+		}
+		assertEquals("in", TestTasks.read(in));
+	}
 }
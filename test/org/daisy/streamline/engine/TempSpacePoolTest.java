@@ -0,0 +1,78 @@
+package org.daisy.streamline.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TempSpacePoolTest {
+
+	@Test
+	public void testReuseFile() throws IOException {
+		try (TempSpacePool pool = new TempSpacePool.Builder().capacity(1).build()) {
+			File f = pool.newTempFile();
+			TestTasks.write(f, "test");
+			pool.releaseTempFile(f);
+			assertEquals(1, pool.getPooledFileCount());
+			File f2 = pool.newTempFile();
+			assertEquals(f, f2);
+			assertEquals(0, f2.length());
+			pool.releaseTempFile(f2);
+		}
+	}
+
+	@Test
+	public void testReuseFolder() throws IOException {
+		Path p;
+		try (TempSpacePool pool = new TempSpacePool.Builder().capacity(1).build()) {
+			p = pool.newTempFolder();
+			Files.createDirectories(p.resolve("a"));
+			TestTasks.write(p.resolve("a").resolve("b").toFile(), "test");
+			pool.releaseTempFolder(p);
+			Path p2 = pool.newTempFolder();
+			assertEquals(p, p2);
+			assertEquals(0, Files.list(p2).count());
+			pool.releaseTempFolder(p2);
+			assertTrue(Files.exists(p));
+		}
+		assertFalse(Files.exists(p));
+	}
+
+	@Test
+	public void testCapacity() throws IOException {
+		try (TempSpacePool pool = new TempSpacePool.Builder().capacity(1).build()) {
+			pool.preallocate();
+			assertEquals(2, pool.getPooledFileCount());
+			assertEquals(2, pool.getPooledFolderCount());
+			File f = TestTasks.newTempFile("test");
+			pool.releaseTempFile(f);
+			assertEquals(2, pool.getPooledFileCount());
+			assertFalse(f.exists());
+		}
+	}
+
+	@Test
+	public void testTaskRunner() throws IOException, TaskSystemException {
+		try (TempSpacePool pool = new TempSpacePool.Builder().capacity(1).build()) {
+			TaskRunner runner = TaskRunner.withName("Test").tempSpace(pool).build();
+			for (int i=0; i<3; i++) {
+				File in = TestTasks.newTempFile("x");
+				File out = TestTasks.newTempFile(null);
+				runner.runTasks(DefaultAnnotatedFile.with(in).build(), out, Arrays.asList(new TestTasks.AppendTask("a"), new TestTasks.AppendTask("b")));
+				assertEquals("xab", TestTasks.read(out));
+			}
+			assertEquals(2, pool.getCreatedCount());
+			assertEquals(4, pool.getReusedCount());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.daisy.streamline.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.daisy.streamline.api.tasks.ReadOnlyTask;
+import org.daisy.streamline.api.tasks.ReadWriteTask;
+
+@SuppressWarnings("javadoc")
+class TestTasks {
+
+	private TestTasks() {}
+
+	static String read(File f) throws IOException {
+		return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+	}
+
+	static void write(File f, String value) throws IOException {
+		Files.write(f.toPath(), value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static File newTempFile(String value) throws IOException {
+		File ret = File.createTempFile(TestTasks.class.getName(), ".tmp");
+		ret.deleteOnExit();
+		if (value!=null) {
+			write(ret, value);
+		}
+		return ret;
+	}
+
+	/**
+	 * Appends a string to the input. If the string is null, the task fails.
+	 */
+	static class AppendTask extends ReadWriteTask {
+		private final String value;
+
+		AppendTask(String value) {
+			super("Append " + value);
+			this.value = value;
+		}
+
+		@Override
+		public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+			if (value==null) {
+				throw new InternalTaskException("Failed");
+			}
+			try {
+				write(output, read(input.getFile()) + value);
+			} catch (IOException e) {
+				throw new InternalTaskException(e);
+			}
+			return DefaultAnnotatedFile.with(output).build();
+		}
+
+		@Override
+		@Deprecated
+		public void execute(File input, File output) throws InternalTaskException {
+			execute(DefaultAnnotatedFile.with(input).build(), output);
+		}
+	}
+
+	/**
+	 * Appends a string to the input and records each execution.
+	 */
+	static class CountingAppendTask extends AppendTask {
+		private final String value;
+		private final List<String> executed;
+
+		CountingAppendTask(String value, List<String> executed) {
+			super(value);
+			this.value = value;
+			this.executed = executed;
+		}
+
+		@Override
+		public AnnotatedFile execute(AnnotatedFile input, File output) throws InternalTaskException {
+			executed.add(value);
+			return super.execute(input, output);
+		}
+	}
+
+	/**
+	 * Passes the contents of the input to a consumer. If the consumer is null, the task fails.
+	 */
+	static class ReadTask extends ReadOnlyTask {
+		private final Consumer<String> consumer;
+
+		ReadTask(Consumer<String> consumer) {
+			super("Read");
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void execute(AnnotatedFile input) throws InternalTaskException {
+			if (consumer==null) {
+				throw new InternalTaskException("Failed");
+			}
+			try {
+				consumer.accept(read(input.getFile()));
+			} catch (IOException e) {
+				throw new InternalTaskException(e);
+			}
+		}
+
+		@Override
+		@Deprecated
+		public void execute(File input) throws InternalTaskException {
+			execute(DefaultAnnotatedFile.with(input).build());
+		}
+	}
+}
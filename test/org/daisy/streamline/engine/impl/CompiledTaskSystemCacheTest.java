@@ -0,0 +1,72 @@
+package org.daisy.streamline.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.daisy.streamline.api.tasks.CompiledTaskSystem;
+import org.daisy.streamline.api.tasks.DefaultCompiledTaskSystem;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class CompiledTaskSystemCacheTest {
+
+	private static CompiledTaskSystemCache.Key key(String output, Map<String, Object> params) {
+		return new CompiledTaskSystemCache.Key("test", "A", output, "sv-SE", params);
+	}
+
+	@Test
+	public void testNormalizedParameters() {
+		CompiledTaskSystemCache cache = new CompiledTaskSystemCache(4);
+		Map<String, Object> p1 = new HashMap<>();
+		p1.put("a", 1);
+		p1.put("b", true);
+		cache.put(key("B", p1), new DefaultCompiledTaskSystem("test"));
+		Map<String, Object> p2 = new HashMap<>();
+		p2.put("b", "true");
+		p2.put("a", "1");
+		assertTrue(cache.get(key("B", p2)).isPresent());
+		assertFalse(cache.get(key("C", p2)).isPresent());
+		assertFalse(cache.get(key("B", Collections.emptyMap())).isPresent());
+	}
+
+	@Test
+	public void testNullParameters() {
+		CompiledTaskSystemCache cache = new CompiledTaskSystemCache(4);
+		cache.put(key("B", null), new DefaultCompiledTaskSystem("test"));
+		assertTrue(cache.get(key("B", Collections.emptyMap())).isPresent());
+		assertEquals(key("B", null), key("B", Collections.emptyMap()));
+	}
+
+	@Test
+	public void testReturnsCopies() {
+		CompiledTaskSystemCache cache = new CompiledTaskSystemCache(4);
+		DefaultCompiledTaskSystem ts = new DefaultCompiledTaskSystem("test");
+		cache.put(key("B", Collections.emptyMap()), ts);
+		CompiledTaskSystem c1 = cache.get(key("B", Collections.emptyMap())).get();
+		c1.add(null);
+		CompiledTaskSystem c2 = cache.get(key("B", Collections.emptyMap())).get();
+		assertNotSame(c1, c2);
+		assertEquals(0, c2.size());
+		assertEquals("test", c2.getName());
+	}
+
+	@Test
+	public void testEviction() {
+		CompiledTaskSystemCache cache = new CompiledTaskSystemCache(2);
+		cache.put(key("B", Collections.emptyMap()), new DefaultCompiledTaskSystem("test"));
+		cache.put(key("C", Collections.emptyMap()), new DefaultCompiledTaskSystem("test"));
+		cache.get(key("B", Collections.emptyMap()));
+		cache.put(key("D", Collections.emptyMap()), new DefaultCompiledTaskSystem("test"));
+		assertEquals(2, cache.size());
+		assertTrue(cache.get(key("B", Collections.emptyMap())).isPresent());
+		assertFalse(cache.get(key("C", Collections.emptyMap())).isPresent());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
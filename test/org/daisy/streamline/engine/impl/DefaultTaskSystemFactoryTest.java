@@ -0,0 +1,189 @@
+package org.daisy.streamline.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.tasks.CompiledTaskSystem;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.ReadOnlyTask;
+import org.daisy.streamline.api.tasks.TaskGroup;
+import org.daisy.streamline.api.tasks.TaskGroupFactory;
+import org.daisy.streamline.api.tasks.TaskGroupFactoryMakerService;
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+import org.daisy.streamline.api.tasks.TaskGroupSpecification;
+import org.daisy.streamline.api.tasks.TaskSystem;
+import org.daisy.streamline.api.tasks.TaskSystemException;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
+import org.daisy.streamline.engine.TaskHistory;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class DefaultTaskSystemFactoryTest {
+	private static final long MS = 1000000;
+	private static final String LOC = "sv-SE";
+
+	@Test
+	public void testPathChangesWithRecordedTimes() throws TaskSystemFactoryException, TaskSystemException {
+		DefaultTaskSystemFactory factory = new DefaultTaskSystemFactory();
+		factory.setInputManagerFactory(new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "B").locale(LOC).build(),
+				TaskGroupInformation.newConvertBuilder("B", "C").locale(LOC).build(),
+				TaskGroupInformation.newConvertBuilder("A", "C").locale(LOC).build()));
+		TaskHistory history = new TaskHistory.Builder().smoothing(1).build();
+		factory.setTaskHistory(history);
+		TaskSystem ts = factory.newTaskSystem("A", "C", LOC);
+		// nothing is measured, the shortest path is used
+		assertEquals(Arrays.asList("A->C"), names(ts.compile(Collections.emptyMap())));
+		// the direct path is slow, the unmeasured alternative is tried
+		history.record("A->C", 50 * MS);
+		assertEquals(Arrays.asList("A->B", "B->C"), names(ts.compile(Collections.emptyMap())));
+		history.record("A->B", 10 * MS);
+		history.record("B->C", 10 * MS);
+		assertEquals(Arrays.asList("A->B", "B->C"), names(ts.compile(Collections.emptyMap())));
+		// the alternative becomes slower than the direct path
+		history.record("B->C", 100 * MS);
+		assertEquals(Arrays.asList("A->C"), names(ts.compile(Collections.emptyMap())));
+	}
+
+	@Test
+	public void testConcurrentCompilesDoNotShareTasks() throws TaskSystemFactoryException, InterruptedException, ExecutionException {
+		DefaultTaskSystemFactory factory = new DefaultTaskSystemFactory();
+		factory.setInputManagerFactory(new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "B").locale(LOC).build(),
+				TaskGroupInformation.newConvertBuilder("B", "C").locale(LOC).build()));
+		TaskSystem ts = factory.newTaskSystem("A", "C", LOC);
+		ExecutorService exe = Executors.newFixedThreadPool(2);
+		try {
+			Future<CompiledTaskSystem> f1 = exe.submit(()->ts.compile(Collections.emptyMap()));
+			Future<CompiledTaskSystem> f2 = exe.submit(()->ts.compile(Collections.emptyMap()));
+			List<InternalTask> t1 = f1.get();
+			List<InternalTask> t2 = f2.get();
+			assertEquals(2, t1.size());
+			assertEquals(2, t2.size());
+			for (int i=0; i<t1.size(); i++) {
+				assertNotSame(t1.get(i), t2.get(i));
+			}
+		} finally {
+			exe.shutdown();
+		}
+	}
+
+	@Test
+	public void testCompiledCacheSharesTasks() throws TaskSystemFactoryException, TaskSystemException {
+		DefaultTaskSystemFactory factory = new DefaultTaskSystemFactory();
+		factory.setInputManagerFactory(new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "B").locale(LOC).build()));
+		factory.setCompiledCacheSize(4);
+		TaskSystem ts = factory.newTaskSystem("A", "B", LOC);
+		CompiledTaskSystem t1 = ts.compile(Collections.emptyMap());
+		CompiledTaskSystem t2 = ts.compile(Collections.emptyMap());
+		assertNotSame(t1, t2);
+		assertSame(t1.get(0), t2.get(0));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeCompiledCacheSize() {
+		new DefaultTaskSystemFactory().setCompiledCacheSize(-1);
+	}
+
+	@Test
+	public void testCompileUsesFactoryGraph() throws TaskSystemFactoryException, TaskSystemException {
+		DefaultTaskSystemFactory factory = new DefaultTaskSystemFactory();
+		Groups groups = new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "B").locale(LOC).build(),
+				TaskGroupInformation.newConvertBuilder("B", "C").locale(LOC).build());
+		factory.setInputManagerFactory(groups);
+		TaskSystem ts = factory.newTaskSystem("A", "C", LOC);
+		ts.compile(Collections.emptyMap());
+		ts.compile(Collections.emptyMap());
+		factory.newTaskSystem("A", "B", LOC).compile(Collections.emptyMap());
+		assertEquals(1, groups.listCount.get());
+	}
+
+	@Test
+	public void testServiceChange() throws TaskSystemFactoryException, TaskSystemException {
+		DefaultTaskSystemFactory factory = new DefaultTaskSystemFactory();
+		factory.setCompiledCacheSize(4);
+		factory.setInputManagerFactory(new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "B").locale(LOC).build()));
+		TaskSystem ts1 = factory.newTaskSystem("A", "B", LOC);
+		factory.setInputManagerFactory(new Groups(
+				TaskGroupInformation.newConvertBuilder("A", "C").locale(LOC).build(),
+				TaskGroupInformation.newConvertBuilder("C", "B").locale(LOC).build()));
+		// A task system created before the change is compiled after it, its result must not be reused
+		assertEquals(Arrays.asList("A->B"), names(ts1.compile(Collections.emptyMap())));
+		assertFalse(factory.supportsSpecification("B", "C", LOC));
+		assertEquals(Arrays.asList("A->C", "C->B"), names(factory.newTaskSystem("A", "B", LOC).compile(Collections.emptyMap())));
+	}
+
+	private static List<String> names(CompiledTaskSystem tasks) {
+		return tasks.stream().map(InternalTask::getName).collect(Collectors.toList());
+	}
+
+	private static class Groups implements TaskGroupFactoryMakerService {
+		private final Set<TaskGroupInformation> groups;
+		private final AtomicInteger listCount = new AtomicInteger();
+
+		Groups(TaskGroupInformation ... groups) {
+			this.groups = new HashSet<>(Arrays.asList(groups));
+		}
+
+		@Override
+		public TaskGroupFactory getFactory(TaskGroupInformation spec) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public TaskGroup newTaskGroup(TaskGroupSpecification spec) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public TaskGroup newTaskGroup(TaskGroupInformation spec, String locale) {
+			String name = spec.getInputType().getIdentifier() + "->" + spec.getOutputType().getIdentifier();
+			return p->Arrays.asList(task(name));
+		}
+
+		@Override
+		public Set<TaskGroupInformation> listAll() {
+			return groups;
+		}
+
+		@Override
+		public Set<TaskGroupInformation> list(String locale) {
+			listCount.incrementAndGet();
+			return groups;
+		}
+	}
+
+	private static InternalTask task(String name) {
+		return new ReadOnlyTask(name) {
+			@Override
+			public void execute(AnnotatedFile input) {
+				// not used
+			}
+
+			@Override
+			@Deprecated
+			public void execute(File input) {
+				// not used
+			}
+		};
+	}
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.daisy.streamline.api.tasks.TaskGroupInformation;
 import org.daisy.streamline.api.tasks.TaskSystemException;
@@ -98,6 +99,65 @@ public class DefaultTaskSystemTest {
 		assertEquals("G -> G (sv-SE)", asString(ret.get(6)));
 	}
 	
+	@Test (timeout=10000)
+	public void testPathScaling_01() throws TaskSystemException {
+		// Each format has two converters, so the number of distinct paths grows exponentially
+		int size = 5000;
+		Map<String, List<TaskGroupInformation>> inps = new HashMap<>();
+		for (int i=0; i<size; i++) {
+			inps.put("F" + i, buildSpecs(loc, "F" + i, true, "F" + (i+1), "F" + (i+2)));
+		}
+		List<TaskGroupInformation> ret = DefaultTaskSystem.getPathSpecifications("F0", "F" + size, inps);
+		// 2500 converters, each preceded by an enhancer
+		assertEquals(5000, ret.size());
+		assertEquals("F0 -> F0 (sv-SE)", asString(ret.get(0)));
+		assertEquals("F0 -> F2 (sv-SE)", asString(ret.get(1)));
+		assertEquals("F4998 -> F5000 (sv-SE)", asString(ret.get(4999)));
+	}
+
+	@Test (timeout=10000, expected=TaskSystemException.class)
+	public void testPathScaling_02() throws TaskSystemException {
+		int size = 3000;
+		Random rnd = new Random(1);
+		Map<String, List<TaskGroupInformation>> inps = new HashMap<>();
+		for (int i=0; i<size; i++) {
+			String[] outs = new String[10];
+			for (int j=0; j<outs.length; j++) {
+				outs[j] = "F" + randomOther(rnd, i, size);
+			}
+			inps.put("F" + i, buildSpecs(loc, "F" + i, false, outs));
+		}
+		DefaultTaskSystem.getPathSpecifications("F0", "X", inps);
+	}
+
+	@Test (timeout=10000)
+	public void testPathScaling_03() throws TaskSystemException {
+		int size = 3000;
+		Random rnd = new Random(2);
+		Map<String, List<TaskGroupInformation>> inps = new HashMap<>();
+		for (int i=0; i<size; i++) {
+			// A chain through all formats, with random shortcuts
+			String[] outs = new String[3];
+			outs[0] = "F" + (i+1);
+			for (int j=1; j<outs.length; j++) {
+				outs[j] = "F" + randomOther(rnd, i, size);
+			}
+			inps.put("F" + i, buildSpecs(loc, "F" + i, false, outs));
+		}
+		inps.get("F" + (size-1)).add(TaskGroupInformation.newConvertBuilder("F" + (size-1), "X").build());
+		List<TaskGroupInformation> ret = DefaultTaskSystem.getPathSpecifications("F0", "X", inps);
+		assertEquals("F0", ret.get(0).getInputType().getIdentifier());
+		for (int i=1; i<ret.size(); i++) {
+			assertEquals(ret.get(i-1).getOutputType(), ret.get(i).getInputType());
+		}
+		assertEquals("X", ret.get(ret.size()-1).getOutputType().getIdentifier());
+	}
+
+	private static int randomOther(Random rnd, int i, int size) {
+		int ret = rnd.nextInt(size-1);
+		return ret<i?ret:ret+1;
+	}
+
 	private static List<TaskGroupInformation> buildSpecs(String locale, String input, boolean withEnhance, String ... outputs) {
 		List<TaskGroupInformation> specs = new ArrayList<>();
 		for (String r : outputs) {
@@ -0,0 +1,58 @@
+package org.daisy.streamline.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FormatGraphTest {
+	private static final FormatGraph graph = FormatGraph.of(Arrays.asList(
+			TaskGroupInformation.newConvertBuilder("A", "B").build(),
+			TaskGroupInformation.newConvertBuilder("B", "C").build(),
+			TaskGroupInformation.newConvertBuilder("C", "B").build(),
+			TaskGroupInformation.newEnhanceBuilder("C").build(),
+			TaskGroupInformation.newConvertBuilder("D", "E").build()
+			));
+
+	@Test
+	public void testHasPath() {
+		assertTrue(graph.hasPath("A", "C"));
+		assertTrue(graph.hasPath("B", "B"));
+		assertFalse(graph.hasPath("A", "A"));
+		assertFalse(graph.hasPath("A", "E"));
+		assertFalse(graph.hasPath("X", "A"));
+	}
+
+	@Test
+	public void testListReachableFrom() {
+		assertEquals(Arrays.asList("B", "C"), graph.listReachableFrom("A"));
+		assertEquals(Arrays.asList("E"), graph.listReachableFrom("D"));
+		assertTrue(graph.listReachableFrom("E").isEmpty());
+	}
+
+	@Test
+	public void testListReaching() {
+		List<String> ret = graph.listReaching("C");
+		assertEquals(Arrays.asList("A", "B", "C"), ret);
+		assertTrue(graph.listReaching("A").isEmpty());
+	}
+
+	@Test
+	public void testCheapestPathWithUniformCosts() {
+		List<TaskGroupInformation> specs = Arrays.asList(
+				TaskGroupInformation.newConvertBuilder("A", "B").build(),
+				TaskGroupInformation.newConvertBuilder("A", "C").build(),
+				TaskGroupInformation.newConvertBuilder("B", "D").build(),
+				TaskGroupInformation.newConvertBuilder("C", "D").build(),
+				TaskGroupInformation.newEnhanceBuilder("D").build());
+		FormatGraph g = FormatGraph.of(specs);
+		assertEquals(g.findPath("A", "D"), g.findCheapestPath("A", "D", v->1));
+		assertEquals(Arrays.asList(specs.get(0), specs.get(2), specs.get(4)), g.findPath("A", "D").get());
+	}
+}
@@ -0,0 +1,78 @@
+package org.daisy.streamline.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.tasks.InternalTask;
+import org.daisy.streamline.api.tasks.ReadOnlyTask;
+import org.daisy.streamline.api.tasks.TaskGroupInformation;
+import org.daisy.streamline.engine.TaskHistory;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskGroupCostModelTest {
+	private static final TaskGroupInformation AB = TaskGroupInformation.newConvertBuilder("A", "B").build();
+	private static final TaskGroupInformation BC = TaskGroupInformation.newConvertBuilder("B", "C").build();
+	private static final TaskGroupInformation AC = TaskGroupInformation.newConvertBuilder("A", "C").build();
+	private static final List<TaskGroupInformation> ALL = Arrays.asList(AB, BC, AC);
+
+	@Test
+	public void testDefaultCost() {
+		TaskGroupCostModel model = new TaskGroupCostModel(new TaskHistory.Builder().build());
+		Map<TaskGroupInformation, Double> costs = model.getCosts(ALL);
+		for (TaskGroupInformation spec : ALL) {
+			assertEquals(TaskGroupCostModel.DEFAULT_COST, costs.get(spec), 0);
+		}
+	}
+
+	@Test
+	public void testMeasuredCost() {
+		TaskHistory history = new TaskHistory.Builder().build();
+		TaskGroupCostModel model = new TaskGroupCostModel(history);
+		model.learn(AB, Arrays.asList(task("ab1"), task("ab2")));
+		model.learn(BC, Arrays.asList(task("bc")));
+		history.record("ab1", 1000000);
+		history.record("ab2", 2000000);
+		Map<TaskGroupInformation, Double> costs = model.getCosts(ALL);
+		assertEquals(3, costs.get(AB), 0.001);
+		// Not yet measured, uses the fixed cost
+		assertEquals(TaskGroupCostModel.DEFAULT_COST, costs.get(BC), 0.001);
+		assertEquals(TaskGroupCostModel.DEFAULT_COST, costs.get(AC), 0.001);
+	}
+
+	@Test
+	public void testCheapestPath() {
+		TaskHistory history = new TaskHistory.Builder().build();
+		TaskGroupCostModel model = new TaskGroupCostModel(history);
+		model.learn(AB, Arrays.asList(task("ab")));
+		model.learn(BC, Arrays.asList(task("bc")));
+		model.learn(AC, Arrays.asList(task("ac")));
+		history.record("ab", 1000000);
+		history.record("bc", 1000000);
+		history.record("ac", 8000000);
+		FormatGraph graph = FormatGraph.of(ALL);
+		assertEquals(Arrays.asList(AC), graph.findPath("A", "C").get());
+		Map<TaskGroupInformation, Double> costs = model.getCosts(graph.getConverters());
+		assertEquals(Arrays.asList(AB, BC), graph.findCheapestPath("A", "C", v->costs.get(v)).get());
+	}
+
+	private static InternalTask task(String name) {
+		return new ReadOnlyTask(name) {
+			@Override
+			public void execute(AnnotatedFile input) {
+				// not used
+			}
+
+			@Override
+			@Deprecated
+			public void execute(File input) {
+				// not used
+			}
+		};
+	}
+}